@@ -0,0 +1,128 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BenchmarkUtils.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Example;
+import moa.streams.InstanceStream;
+import moaflow.core.ExecutorUtils;
+import moaflow.core.Utils;
+import moaflow.sink.AbstractSink;
+import moaflow.source.AbstractSource;
+import moaflow.transformer.AbstractTransformer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper methods for the benchmarks.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BenchmarkUtils {
+
+  /** the default generator. */
+  public static final String GENERATOR = "moa.streams.generators.RandomRBFGenerator -a 20";
+
+  /** executing the operators asynchronously, using the default executor: the publishers request fusion, but the subscribers insist on an asynchronous boundary. */
+  public static final String MODE_ASYNC = "Async";
+
+  /** fusing the operators. */
+  public static final String MODE_FUSED = "Fused";
+
+  /** executing the operators asynchronously, with the executor running the tasks on the calling thread. */
+  public static final String MODE_CALLER = "Caller";
+
+  /**
+   * Generates the specified number of instances.
+   *
+   * @param generator the commandline of the stream to obtain the instances from
+   * @param numInstances the number of instances to generate
+   * @return the instances
+   */
+  public static List<Example<Instance>> generate(String generator, int numInstances) {
+    List<Example<Instance>>	result;
+    InstanceStream		stream;
+
+    stream = Utils.fromCommandLine(InstanceStream.class, generator);
+    if (stream == null)
+      throw new IllegalArgumentException("Failed to instantiate generator: " + generator);
+    result = new ArrayList<>(numInstances);
+    while ((result.size() < numInstances) && stream.hasMoreInstances())
+      result.add(stream.nextInstance());
+
+    return result;
+  }
+
+  /**
+   * Configures the source for the execution mode.
+   *
+   * @param source the source to configure
+   * @param mode the mode, e.g., {@link #MODE_FUSED}
+   */
+  public static void configure(AbstractSource<?> source, String mode) {
+    switch (mode) {
+      case MODE_ASYNC:
+      case MODE_FUSED:
+	source.fuse.setValue(true);
+	break;
+      case MODE_CALLER:
+	source.executor.setChosenIndex(ExecutorUtils.CALLER);
+	break;
+      default:
+	throw new IllegalArgumentException("Unknown mode: " + mode);
+    }
+  }
+
+  /**
+   * Configures the transformer for the execution mode.
+   *
+   * @param transformer the transformer to configure
+   * @param mode the mode, e.g., {@link #MODE_FUSED}
+   */
+  public static void configure(AbstractTransformer<?, ?> transformer, String mode) {
+    switch (mode) {
+      case MODE_ASYNC:
+	transformer.fuse.setValue(true);
+	transformer.asyncBoundary.setValue(true);
+	break;
+      case MODE_FUSED:
+	transformer.fuse.setValue(true);
+	break;
+      case MODE_CALLER:
+	transformer.executor.setChosenIndex(ExecutorUtils.CALLER);
+	break;
+      default:
+	throw new IllegalArgumentException("Unknown mode: " + mode);
+    }
+  }
+
+  /**
+   * Configures the sink for the execution mode.
+   *
+   * @param sink the sink to configure
+   * @param mode the mode, e.g., {@link #MODE_FUSED}
+   */
+  public static void configure(AbstractSink<?> sink, String mode) {
+    if (mode.equals(MODE_ASYNC))
+      sink.asyncBoundary.setValue(true);
+  }
+}
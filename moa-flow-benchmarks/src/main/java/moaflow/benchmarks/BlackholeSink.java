@@ -0,0 +1,66 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BlackholeSink.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import moaflow.sink.AbstractSink;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sink that hands the data to a JMH blackhole, preventing dead-code
+ * elimination without doing any work.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BlackholeSink<I>
+  extends AbstractSink<I> {
+
+  /** the blackhole to consume the data with. */
+  protected transient Blackhole blackhole;
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Hands the data to a JMH blackhole.";
+  }
+
+  /**
+   * Sets the blackhole to use.
+   *
+   * @param value the blackhole
+   */
+  public void setBlackhole(Blackhole value) {
+    blackhole = value;
+  }
+
+  /**
+   * For processing the received input.
+   *
+   * @param input the data to process
+   */
+  @Override
+  protected void doProcess(I input) {
+    blackhole.consume(input);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * EvaluationSchemeBenchmark.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.classifiers.Classifier;
+import moa.core.Example;
+import moa.evaluation.BasicClassificationPerformanceEvaluator;
+import moaflow.core.Utils;
+import moaflow.transformer.evaluate.EvaluationScheme;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time per instance of the evaluation schemes, invoked
+ * directly, i.e., without the overhead of a flow. Every invocation
+ * evaluates a fresh learner on the same instances.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluationSchemeBenchmark {
+
+  /** the number of instances per invocation. */
+  public static final int NUM_INSTANCES = 5000;
+
+  /** the commandline of the evaluation scheme (folds: -w, delay: -k). */
+  @Param({
+    "moaflow.transformer.evaluate.Prequential",
+    "moaflow.transformer.evaluate.PrequentialCV -w 5",
+    "moaflow.transformer.evaluate.PrequentialCV -w 10",
+    "moaflow.transformer.evaluate.PrequentialDelayed -k 100",
+    "moaflow.transformer.evaluate.PrequentialDelayed -k 1000",
+    "moaflow.transformer.evaluate.PrequentialDelayedCV -w 5 -k 100",
+    "moaflow.transformer.evaluate.PrequentialDelayedCV -w 5 -k 1000",
+    "moaflow.transformer.evaluate.PrequentialDelayedCV -w 10 -k 1000",
+  })
+  public String scheme;
+
+  /** the commandline of the classifier to evaluate. */
+  @Param({"moa.classifiers.bayes.NaiveBayes", "moa.classifiers.trees.HoeffdingTree"})
+  public String classifier;
+
+  /** the data to evaluate on. */
+  protected List<Example<Instance>> data;
+
+  /** the header of the data. */
+  protected InstancesHeader header;
+
+  @Setup
+  public void setUp() {
+    data   = BenchmarkUtils.generate(BenchmarkUtils.GENERATOR, NUM_INSTANCES);
+    header = new InstancesHeader(data.get(0).getData().dataset());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_INSTANCES)
+  public void evaluate(Blackhole bh) {
+    EvaluationScheme evalScheme = Utils.fromCommandLine(EvaluationScheme.class, scheme);
+    Classifier learner = Utils.fromCommandLine(Classifier.class, classifier);
+    learner.setModelContext(header);
+    learner.prepareForUse();
+    BasicClassificationPerformanceEvaluator evaluator = new BasicClassificationPerformanceEvaluator();
+    evaluator.prepareForUse();
+    evalScheme.initialise(learner, evaluator);
+    evalScheme.evaluate(data, 0, data.size());
+    bh.consume(evalScheme.getEvaluation());
+  }
+}
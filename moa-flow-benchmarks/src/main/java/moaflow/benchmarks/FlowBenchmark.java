@@ -0,0 +1,183 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FlowBenchmark.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import moaflow.core.FlowRunner;
+import moaflow.sink.MeasurementsToCSV;
+import moaflow.sink.WriteModel;
+import moaflow.source.InstanceSource;
+import moaflow.transformer.EvaluateClassifier;
+import moaflow.transformer.EvaluateRegressor;
+import moaflow.transformer.InstanceFilter;
+import moaflow.transformer.TrainClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the wall-clock time of complete flows, modelled on the examples
+ * (minus the console output), including the generation of the data.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlowBenchmark {
+
+  /** like the ClassificationCsvAndTrain example. */
+  public static final String CLASSIFICATION = "Classification";
+
+  /** like the RegressionCsvAndTrain example. */
+  public static final String REGRESSION = "Regression";
+
+  /** the flow to execute. */
+  @Param({CLASSIFICATION, REGRESSION})
+  public String flow;
+
+  /** the number of instances to generate. */
+  @Param({"100000"})
+  public int numInstances;
+
+  /** how the operators get executed. */
+  @Param({BenchmarkUtils.MODE_ASYNC, BenchmarkUtils.MODE_FUSED})
+  public String mode;
+
+  /** the directory for the output. */
+  protected File tmpDir;
+
+  @Setup
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDirectory("moaflow-bench").toFile();
+  }
+
+  @TearDown
+  public void tearDown() {
+    File[] files = tmpDir.listFiles();
+    if (files != null) {
+      for (File file: files)
+	file.delete();
+    }
+    tmpDir.delete();
+  }
+
+  /**
+   * Builds the classification flow.
+   *
+   * @return the source of the flow
+   */
+  protected InstanceSource buildClassification() {
+    String classifier = "moa.classifiers.trees.HoeffdingTree -b";
+
+    InstanceSource source = new InstanceSource();
+    source.setGenerator(BenchmarkUtils.GENERATOR);
+    source.numInstances.setValue(numInstances);
+    BenchmarkUtils.configure(source, mode);
+
+    EvaluateClassifier eval = new EvaluateClassifier();
+    eval.everyNth.setValue(10000);
+    eval.setClassifier(classifier);
+    BenchmarkUtils.configure(eval, mode);
+    source.subscribe(eval);
+
+    MeasurementsToCSV measurements = new MeasurementsToCSV();
+    measurements.outputFile.setValue(new File(tmpDir, "moa.csv").getAbsolutePath());
+    BenchmarkUtils.configure(measurements, mode);
+    eval.subscribe(measurements);
+
+    TrainClassifier train = new TrainClassifier();
+    train.setClassifier(classifier);
+    train.everyNth.setValue(10000);
+    BenchmarkUtils.configure(train, mode);
+    source.subscribe(train);
+
+    WriteModel model = new WriteModel();
+    model.modelFile.setValue(new File(tmpDir, "moa.model").getAbsolutePath());
+    BenchmarkUtils.configure(model, mode);
+    train.subscribe(model);
+
+    return source;
+  }
+
+  /**
+   * Builds the regression flow.
+   *
+   * @return the source of the flow
+   */
+  protected InstanceSource buildRegression() {
+    InstanceSource source = new InstanceSource();
+    source.setGenerator(BenchmarkUtils.GENERATOR);
+    source.numInstances.setValue(numInstances);
+    BenchmarkUtils.configure(source, mode);
+
+    InstanceFilter filter = new InstanceFilter();
+    filter.setFilter("moa.streams.filters.ReplacingMissingValuesFilter");
+    BenchmarkUtils.configure(filter, mode);
+    source.subscribe(filter);
+
+    EvaluateRegressor eval = new EvaluateRegressor();
+    eval.everyNth.setValue(10000);
+    eval.setRegressor("moa.classifiers.functions.SGD");
+    BenchmarkUtils.configure(eval, mode);
+    filter.subscribe(eval);
+
+    MeasurementsToCSV measurements = new MeasurementsToCSV();
+    measurements.outputFile.setValue(new File(tmpDir, "moa.csv").getAbsolutePath());
+    BenchmarkUtils.configure(measurements, mode);
+    eval.subscribe(measurements);
+
+    return source;
+  }
+
+  @Benchmark
+  public void run() throws Exception {
+    InstanceSource source;
+
+    switch (flow) {
+      case CLASSIFICATION:
+	source = buildClassification();
+	break;
+      case REGRESSION:
+	source = buildRegression();
+	break;
+      default:
+	throw new IllegalArgumentException("Unknown flow: " + flow);
+    }
+
+    new FlowRunner(source).run();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * IdentityTransformer.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import moaflow.transformer.AbstractTransformer;
+
+/**
+ * Transformer that forwards the data as is, for measuring the overhead
+ * of a hop between operators.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class IdentityTransformer<T>
+  extends AbstractTransformer<T, T> {
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Forwards the data as is.";
+  }
+
+  /**
+   * Transforms the input data.
+   *
+   * @param input the input data
+   * @return the generated output data
+   */
+  @Override
+  protected T doProcess(T input) {
+    return input;
+  }
+}
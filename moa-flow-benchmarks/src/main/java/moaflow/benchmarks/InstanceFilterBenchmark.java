@@ -0,0 +1,105 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * InstanceFilterBenchmark.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Example;
+import moaflow.core.FlowRunner;
+import moaflow.transformer.InstanceFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link InstanceFilter} with various filters,
+ * fused with the source and sink to minimize the overhead of the flow.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceFilterBenchmark {
+
+  /** the number of instances per invocation. */
+  public static final int NUM_INSTANCES = 10000;
+
+  /** the filter to apply. */
+  @Param({
+    "moa.streams.filters.AddNoiseFilter",
+    "moa.streams.filters.ReplacingMissingValuesFilter",
+    "moa.streams.filters.ReLUFilter",
+  })
+  public String filter;
+
+  /** the number of threads for filtering (filters not declared stateless get applied sequentially). */
+  @Param({"1", "4"})
+  public int numFilterThreads;
+
+  /** how the operators get executed. */
+  @Param({BenchmarkUtils.MODE_FUSED, BenchmarkUtils.MODE_ASYNC})
+  public String mode;
+
+  /** the data to filter. */
+  protected List<Example<Instance>> data;
+
+  @Setup
+  public void setUp() {
+    data = BenchmarkUtils.generate(BenchmarkUtils.GENERATOR, NUM_INSTANCES);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_INSTANCES)
+  public void filter(Blackhole bh) throws Exception {
+    ListSource<Example<Instance>> source = new ListSource<>();
+    source.setData(data);
+    BenchmarkUtils.configure(source, mode);
+
+    InstanceFilter instanceFilter = new InstanceFilter();
+    instanceFilter.setFilter(filter);
+    instanceFilter.numFilterThreads.setValue(numFilterThreads);
+    BenchmarkUtils.configure(instanceFilter, mode);
+    source.subscribe(instanceFilter);
+
+    BlackholeSink<Example<Instance>> sink = new BlackholeSink<>();
+    sink.setBlackhole(bh);
+    BenchmarkUtils.configure(sink, mode);
+    instanceFilter.subscribe(sink);
+
+    new FlowRunner(source).run();
+  }
+}
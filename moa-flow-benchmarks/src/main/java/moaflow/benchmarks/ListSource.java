@@ -0,0 +1,88 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ListSource.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import moaflow.source.AbstractSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Source that publishes pre-generated data, so that benchmarks do not
+ * measure the cost of generating the data.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ListSource<O>
+  extends AbstractSource<O> {
+
+  /** the data to publish. */
+  protected transient List<O> data;
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Publishes pre-generated data.";
+  }
+
+  /**
+   * For initializing members.
+   */
+  @Override
+  protected void init() {
+    super.init();
+    data = new ArrayList<>();
+  }
+
+  /**
+   * Sets the data to publish.
+   *
+   * @param value the data
+   */
+  public void setData(List<O> value) {
+    data = value;
+  }
+
+  /**
+   * Returns the data to publish.
+   *
+   * @return the data
+   */
+  public List<O> getData() {
+    return data;
+  }
+
+  /**
+   * For executing the actual data generating loop.
+   */
+  @Override
+  protected void run() {
+    for (O item: data) {
+      if (isStopped())
+	break;
+      publish(item);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SinkBenchmark.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.classifiers.Classifier;
+import moa.core.Example;
+import moa.evaluation.BasicClassificationPerformanceEvaluator;
+import moa.evaluation.LearningEvaluation;
+import moa.learners.Learner;
+import moaflow.core.Utils;
+import moaflow.sink.MeasurementsToCSV;
+import moaflow.sink.WriteModel;
+import moaflow.transformer.evaluate.Prequential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the sinks that write to disk, invoked directly,
+ * i.e., without the overhead of a flow.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SinkBenchmark {
+
+  /** the number of evaluations to write per invocation. */
+  public static final int NUM_EVALUATIONS = 100;
+
+  /** the number of instances to train the model on. */
+  @Param({"1000", "10000"})
+  public int numTrainInstances;
+
+  /** the evaluations to write. */
+  protected List<LearningEvaluation> evaluations;
+
+  /** the model to write. */
+  protected Learner<Example<Instance>> model;
+
+  /** the directory for the output. */
+  protected File tmpDir;
+
+  @Setup
+  public void setUp() throws Exception {
+    List<Example<Instance>> data = BenchmarkUtils.generate(BenchmarkUtils.GENERATOR, numTrainInstances);
+
+    Classifier classifier = Utils.fromCommandLine(Classifier.class, "moa.classifiers.trees.HoeffdingTree");
+    classifier.setModelContext(new InstancesHeader(data.get(0).getData().dataset()));
+    classifier.prepareForUse();
+    BasicClassificationPerformanceEvaluator evaluator = new BasicClassificationPerformanceEvaluator();
+    evaluator.prepareForUse();
+    Prequential scheme = new Prequential();
+    scheme.initialise(classifier, evaluator);
+    evaluations = new ArrayList<>();
+    for (int i = 0; i < NUM_EVALUATIONS; i++) {
+      scheme.evaluate(data.get(i % data.size()));
+      evaluations.add(scheme.getEvaluation());
+    }
+    scheme.evaluate(data, 0, data.size());
+    model = classifier;
+
+    tmpDir = Files.createTempDirectory("moaflow-bench").toFile();
+  }
+
+  @TearDown
+  public void tearDown() {
+    File[] files = tmpDir.listFiles();
+    if (files != null) {
+      for (File file: files)
+	file.delete();
+    }
+    tmpDir.delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_EVALUATIONS)
+  public void measurementsToCSV() {
+    MeasurementsToCSV sink = new MeasurementsToCSV();
+    sink.outputFile.setValue(new File(tmpDir, "measurements.csv").getAbsolutePath());
+    for (LearningEvaluation evaluation: evaluations)
+      sink.onNext(evaluation);
+    sink.onComplete();
+  }
+
+  @Benchmark
+  public void writeModel() {
+    WriteModel sink = new WriteModel();
+    sink.modelFile.setValue(new File(tmpDir, "classifier.model").getAbsolutePath());
+    sink.onNext(model);
+    sink.onComplete();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * TransformerHopBenchmark.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.benchmarks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Example;
+import moaflow.core.FlowRunner;
+import moaflow.transformer.AbstractTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of passing data through a chain of transformers
+ * that do no work, per data item.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerHopBenchmark {
+
+  /** the number of items per invocation. */
+  public static final int NUM_ITEMS = 10000;
+
+  /** the number of transformers in the chain. */
+  @Param({"1", "4"})
+  public int hops;
+
+  /** how the operators get executed. */
+  @Param({BenchmarkUtils.MODE_ASYNC, BenchmarkUtils.MODE_FUSED, BenchmarkUtils.MODE_CALLER})
+  public String mode;
+
+  /** the batch size of the source. */
+  @Param({"1", "64"})
+  public int batchSize;
+
+  /** the data to publish. */
+  protected List<Example<Instance>> data;
+
+  @Setup
+  public void setUp() {
+    data = BenchmarkUtils.generate(BenchmarkUtils.GENERATOR, NUM_ITEMS);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_ITEMS)
+  public void hop(Blackhole bh) throws Exception {
+    ListSource<Example<Instance>> source = new ListSource<>();
+    source.setData(data);
+    source.batchSize.setValue(batchSize);
+    BenchmarkUtils.configure(source, mode);
+
+    AbstractTransformer<Example<Instance>, Example<Instance>> last = null;
+    for (int i = 0; i < hops; i++) {
+      IdentityTransformer<Example<Instance>> hop = new IdentityTransformer<>();
+      BenchmarkUtils.configure(hop, mode);
+      if (last == null)
+	source.subscribe(hop);
+      else
+	last.subscribe(hop);
+      last = hop;
+    }
+
+    BlackholeSink<Example<Instance>> sink = new BlackholeSink<>();
+    sink.setBlackhole(bh);
+    BenchmarkUtils.configure(sink, mode);
+    last.subscribe(sink);
+
+    new FlowRunner(source).run();
+  }
+}
@@ -24,6 +24,8 @@ import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import moa.tasks.TaskMonitor;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Ancestor for operators.
  *
@@ -33,6 +35,12 @@ public abstract class AbstractOperator
   extends AbstractOptionHandler
   implements Operator {
 
+  /** the runtime metrics. */
+  protected transient OperatorMetrics metrics;
+
+  /** completes once the operator has finished processing data. */
+  protected transient CompletableFuture<Void> completion;
+
   /**
    * Default constructor.
    */
@@ -45,6 +53,8 @@ public abstract class AbstractOperator
    * For initializing members.
    */
   protected void init() {
+    metrics    = new OperatorMetrics(this);
+    completion = new CompletableFuture<>();
   }
 
   /**
@@ -53,6 +63,25 @@ public abstract class AbstractOperator
   protected void finishInit() {
   }
 
+  /**
+   * Returns the runtime metrics of the operator.
+   *
+   * @return the metrics
+   */
+  public OperatorMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the future that completes once the operator has finished
+   * processing data, or completes exceptionally if processing failed.
+   *
+   * @return the future
+   */
+  public CompletableFuture<Void> getCompletion() {
+    return completion;
+  }
+
   /**
    * Gets the purpose of this object
    *
@@ -0,0 +1,52 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Batch.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import java.util.ArrayList;
+
+/**
+ * A chunk of data items that gets handed on to subscribers in one go,
+ * rather than item by item. Only gets published to subscribers that
+ * implement {@link BatchSubscriber}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Batch<T>
+  extends ArrayList<T> {
+
+  private static final long serialVersionUID = -2715208735043346364L;
+
+  /**
+   * Initializes an empty batch.
+   */
+  public Batch() {
+    super();
+  }
+
+  /**
+   * Initializes an empty batch with the specified capacity.
+   *
+   * @param capacity the initial capacity
+   */
+  public Batch(int capacity) {
+    super(capacity);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BatchSubscriber.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import java.util.concurrent.Flow.Subscriber;
+
+/**
+ * Interface for subscribers that can handle {@link Batch} objects being
+ * passed to {@link #onNext(Object)} in place of single data items. The items
+ * of a batch must be processed in order, with the same semantics as if they
+ * had been received one by one.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public interface BatchSubscriber<T>
+  extends Subscriber<T> {
+
+}
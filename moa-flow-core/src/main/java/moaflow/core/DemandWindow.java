@@ -0,0 +1,123 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DemandWindow.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow.Subscription;
+
+/**
+ * Manages the demand of a subscriber: either requests an unbounded number
+ * of items or prefetches a fixed number of items, which get replenished
+ * once half of them got processed.
+ * <br>
+ * Not thread-safe, as the Flow specification guarantees that the
+ * subscriber methods get invoked serially.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class DemandWindow {
+
+  /** the current subscription. */
+  protected Subscription subscription;
+
+  /** the number of items processed since the last request. */
+  protected int processed;
+
+  /** the number of processed items after which to request more items. */
+  protected int replenish;
+
+  /** gets released once the subscription has been established. */
+  protected CountDownLatch subscribed;
+
+  /**
+   * Initializes the window.
+   */
+  public DemandWindow() {
+    subscribed = new CountDownLatch(1);
+  }
+
+  /**
+   * Returns whether a subscriber with these settings can get invoked
+   * directly by its publisher.
+   * <br>
+   * Only possible with unbounded demand and no asynchronous boundary,
+   * as fused subscribers bypass the demand accounting.
+   *
+   * @param asyncBoundary whether an asynchronous boundary was requested
+   * @param prefetch the number of items to prefetch (&lt; 1 unbounded)
+   * @return true if it can be fused
+   */
+  public static boolean canFuse(boolean asyncBoundary, int prefetch) {
+    return !asyncBoundary && (prefetch < 1);
+  }
+
+  /**
+   * Stores the subscription and requests the initial items: either the
+   * number of items to prefetch or an unbounded number.
+   * <br>
+   * {@link #release()} must get called afterwards, also if this fails.
+   *
+   * @param value the new subscription
+   * @param prefetch the number of items to prefetch (&lt; 1 unbounded)
+   */
+  public void subscribe(Subscription value, int prefetch) {
+    subscription = value;
+    processed    = 0;
+    if (prefetch < 1) {
+      replenish = 0;
+      subscription.request(Long.MAX_VALUE);
+    }
+    else {
+      replenish = Math.max(1, prefetch / 2);
+      subscription.request(prefetch);
+    }
+  }
+
+  /**
+   * Releases the threads waiting in {@link #awaitSubscription()}.
+   */
+  public void release() {
+    subscribed.countDown();
+  }
+
+  /**
+   * Replenishes the demand once half of the prefetched items got processed.
+   * Does nothing in unbounded mode.
+   */
+  public void requestNext() {
+    if (replenish == 0)
+      return;
+    processed++;
+    if (processed >= replenish) {
+      subscription.request(processed);
+      processed = 0;
+    }
+  }
+
+  /**
+   * Waits until {@link #release()} got called.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitSubscription() throws InterruptedException {
+    subscribed.await();
+  }
+}
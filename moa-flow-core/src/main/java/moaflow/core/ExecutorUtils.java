@@ -0,0 +1,253 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ExecutorUtils.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helper class for creating the executors that the publishers of
+ * sources and transformers use for delivering data to their subscribers.
+ * <br>
+ * The executors of the {@link #FIXED} and {@link #VIRTUAL} types belong to
+ * the operator that created them, which shuts them down via
+ * {@link #shutdownWhenDone(SubmissionPublisher, int, List)} once it has
+ * finished publishing.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ExecutorUtils {
+
+  /** the ForkJoinPool common pool, like SubmissionPublisher's default. */
+  public static final int COMMON_POOL = 0;
+
+  /** a dedicated fixed-size pool per operator. */
+  public static final int FIXED = 1;
+
+  /** a fixed-size pool shared by all operators using the same pool name. */
+  public static final int SHARED = 2;
+
+  /** a new (virtual, if available) thread per task. */
+  public static final int VIRTUAL = 3;
+
+  /** the thread that submits the data. */
+  public static final int CALLER = 4;
+
+  /** the labels for the executor types. */
+  public static final String[] EXECUTOR_LABELS = new String[]{
+    "CommonPool",
+    "Fixed",
+    "Shared",
+    "Virtual",
+    "Caller",
+  };
+
+  /** the descriptions of the executor types. */
+  public static final String[] EXECUTOR_DESCRIPTIONS = new String[]{
+    "The ForkJoinPool common pool (a thread per task if its parallelism is less than 2)",
+    "A dedicated pool of fixed size for this operator",
+    "A pool of fixed size, shared by all operators with the same pool name",
+    "A virtual thread per task (platform threads if virtual threads are not available)",
+    "The thread that submits the data, i.e., no hand-off",
+  };
+
+  /** the time in seconds that idle pool threads are kept alive. */
+  public static final int KEEP_ALIVE = 60;
+
+  /** the shared pools. */
+  protected static final Map<String, ExecutorService> SHARED_POOLS = new HashMap<>();
+
+  /**
+   * Returns a thread factory that generates daemon threads with the
+   * specified prefix, so that pools never prevent the JVM from exiting.
+   *
+   * @param prefix	the prefix for the thread names
+   * @return		the factory
+   */
+  public static ThreadFactory newThreadFactory(String prefix) {
+    final AtomicInteger count = new AtomicInteger();
+    return (Runnable r) -> {
+      Thread result = new Thread(r, prefix + "-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    };
+  }
+
+  /**
+   * Creates a fixed-size pool with daemon threads that time out when idle.
+   *
+   * @param numThreads	the number of threads
+   * @param prefix	the prefix for the thread names
+   * @return		the pool
+   */
+  public static ExecutorService newFixedPool(int numThreads, String prefix) {
+    ThreadPoolExecutor	result;
+
+    result = new ThreadPoolExecutor(
+      numThreads, numThreads, KEEP_ALIVE, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), newThreadFactory(prefix));
+    result.allowCoreThreadTimeOut(true);
+
+    return result;
+  }
+
+  /**
+   * Returns the shared pool with the specified name, creates it if necessary.
+   * The number of threads only gets used when the pool gets created.
+   *
+   * @param name	the name of the pool
+   * @param numThreads	the number of threads
+   * @return		the pool
+   */
+  public static synchronized ExecutorService getSharedPool(String name, int numThreads) {
+    ExecutorService	result;
+
+    result = SHARED_POOLS.get(name);
+    if (result == null) {
+      result = newFixedPool(numThreads, "moaflow-" + name);
+      SHARED_POOLS.put(name, result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Creates a virtual-thread-per-task executor. Falls back on a cached pool
+   * of daemon threads if the JVM does not offer virtual threads.
+   *
+   * @param prefix	the prefix for the thread names of the fallback pool
+   * @return		the executor
+   */
+  public static ExecutorService newVirtualThreadExecutor(String prefix) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (Exception e) {
+      return Executors.newCachedThreadPool(newThreadFactory(prefix));
+    }
+  }
+
+  /**
+   * Returns the executor that SubmissionPublisher uses by default: the
+   * common pool, unless its parallelism is less than 2, in which case a new
+   * thread gets created for each task. Using a single-threaded common pool
+   * can deadlock chains of publishers that block in submit.
+   *
+   * @return the executor
+   */
+  public static Executor getCommonPool() {
+    if (ForkJoinPool.getCommonPoolParallelism() > 1)
+      return ForkJoinPool.commonPool();
+    else
+      return (Runnable r) -> new Thread(r).start();
+  }
+
+  /**
+   * Creates the executor.
+   *
+   * @param owner	the operator the executor is for, used for naming threads
+   * @param type	the type of executor, e.g., {@link #FIXED}
+   * @param numThreads	the number of threads for fixed/shared pools
+   * @param poolName	the name of the shared pool
+   * @return		the executor
+   */
+  public static Executor createExecutor(Operator owner, int type, int numThreads, String poolName) {
+    String	prefix;
+
+    prefix = "moaflow-" + owner.getClass().getSimpleName();
+    switch (type) {
+      case COMMON_POOL:
+	return getCommonPool();
+      case FIXED:
+	return newFixedPool(numThreads, prefix);
+      case SHARED:
+	return getSharedPool(poolName, numThreads);
+      case VIRTUAL:
+	return newVirtualThreadExecutor(prefix);
+      case CALLER:
+	return (Runnable r) -> r.run();
+      default:
+	throw new IllegalArgumentException("Unhandled executor type: " + type);
+    }
+  }
+
+  /**
+   * Creates a new publisher.
+   *
+   * @param owner	the operator the publisher is for
+   * @param type	the type of executor, e.g., {@link #FIXED}
+   * @param numThreads	the number of threads for fixed/shared pools
+   * @param poolName	the name of the shared pool
+   * @param maxBufferCapacity	the maximum buffer capacity per subscriber
+   * @param <T>		the type of data to publish
+   * @return		the publisher
+   */
+  public static <T> SubmissionPublisher<T> newPublisher(Operator owner, int type, int numThreads, String poolName, int maxBufferCapacity) {
+    return new SubmissionPublisher<>(createExecutor(owner, type, numThreads, poolName), maxBufferCapacity);
+  }
+
+  /**
+   * Shuts down the executor of the publisher once all subscribers have
+   * completed, if the executor belongs to the operator, i.e., is of type
+   * {@link #FIXED} or {@link #VIRTUAL}. Shutting it down right away could
+   * reject the tasks that still deliver the buffered items. If not all
+   * subscribers are operators, their completion cannot be tracked and the
+   * idle threads time out instead.
+   *
+   * @param publisher	the closed publisher
+   * @param type	the type of executor the publisher was created with
+   * @param subscribers	the subscribers before the publisher got closed
+   */
+  public static void shutdownWhenDone(SubmissionPublisher<?> publisher, int type, List<? extends Subscriber<?>> subscribers) {
+    ExecutorService			service;
+    List<CompletableFuture<?>>		completions;
+
+    if ((type != FIXED) && (type != VIRTUAL))
+      return;
+    if (!(publisher.getExecutor() instanceof ExecutorService))
+      return;
+
+    service     = (ExecutorService) publisher.getExecutor();
+    completions = new ArrayList<>();
+    for (Subscriber<?> subscriber: subscribers) {
+      if (!(subscriber instanceof AbstractOperator))
+	return;
+      completions.add(((AbstractOperator) subscriber).getCompletion());
+    }
+    CompletableFuture
+      .allOf(completions.toArray(new CompletableFuture<?>[0]))
+      .whenComplete((v, t) -> service.shutdown());
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FlowRunner.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import moaflow.io.DefaultFlowReader;
+import moaflow.source.AbstractSource;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes a flow and waits for all of its operators to finish, not just
+ * the source. Also reports the metrics of the operators and makes them
+ * available as MBeans via JMX while the flow is running, using the name of
+ * the flow and the index of the operator in the {@link Utils#toTree(Operator)}
+ * output, e.g., "moaflow:type=OperatorMetrics,flow="flow-1",index=2,operator=Console".
+ * <br>
+ * A flow can only be executed once, read it again to execute it another time.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class FlowRunner {
+
+  /** for generating flow names. */
+  protected static final AtomicInteger COUNTER = new AtomicInteger();
+
+  /** the name of the flow. */
+  protected String name;
+
+  /** the flow to execute. */
+  protected AbstractSource<?> flow;
+
+  /** the operators of the flow, in the order of {@link Utils#toTree(Operator)}. */
+  protected List<Operator> operators;
+
+  /** the depth of the operators within the flow. */
+  protected List<Integer> depths;
+
+  /** the thread executing the source. */
+  protected Thread thread;
+
+  /** completes once all operators have completed. */
+  protected CompletableFuture<Void> termination;
+
+  /** the start of the execution, from {@link System#nanoTime()}. */
+  protected long startTime;
+
+  /** the end of the execution, from {@link System#nanoTime()}, 0 while running. */
+  protected volatile long endTime;
+
+  /** the names of the registered MBeans. */
+  protected List<ObjectName> mbeans;
+
+  /**
+   * Initializes the runner, generating a name for the flow.
+   *
+   * @param flow the flow to execute, must start with a source
+   */
+  public FlowRunner(Operator flow) {
+    this(flow, "flow-" + COUNTER.incrementAndGet());
+  }
+
+  /**
+   * Initializes the runner.
+   *
+   * @param flow the flow to execute, must start with a source
+   * @param name the name of the flow, used for the MBeans
+   */
+  public FlowRunner(Operator flow, String name) {
+    if (!(flow instanceof AbstractSource))
+      throw new IllegalArgumentException("Flow must start with a source: " + flow.getClass().getName());
+
+    this.name      = name;
+    this.flow      = (AbstractSource<?>) flow;
+    this.operators = new ArrayList<>();
+    this.depths    = new ArrayList<>();
+    collect(flow, 0);
+  }
+
+  /**
+   * Collects the operators of the flow, depth-first.
+   *
+   * @param op the current operator
+   * @param depth the depth of the operator
+   */
+  protected void collect(Operator op, int depth) {
+    operators.add(op);
+    depths.add(depth);
+    if (op instanceof SubscriberManager) {
+      for (Object sub : ((SubscriberManager) op).getSubscribers()) {
+	if (sub instanceof Operator)
+	  collect((Operator) sub, depth + 1);
+      }
+    }
+  }
+
+  /**
+   * Returns the name of the flow.
+   *
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the flow.
+   *
+   * @return the flow
+   */
+  public Operator getFlow() {
+    return flow;
+  }
+
+  /**
+   * Returns the operators of the flow, in the order of {@link Utils#toTree(Operator)}.
+   *
+   * @return the operators
+   */
+  public List<Operator> getOperators() {
+    return operators;
+  }
+
+  /**
+   * Starts the source on a separate thread.
+   *
+   * @return the future that completes once all operators have completed,
+   * 		or completes exceptionally if any of them failed
+   */
+  public synchronized CompletableFuture<Void> start() {
+    List<CompletableFuture<?>>	completions;
+
+    if (termination != null)
+      throw new IllegalStateException("Flow has already been started!");
+
+    completions = new ArrayList<>();
+    for (Operator op: operators) {
+      if (op instanceof AbstractOperator)
+	completions.add(((AbstractOperator) op).getCompletion());
+    }
+
+    try {
+      mbeans = OperatorMetrics.registerMBeans(name, operators);
+    }
+    catch (Exception e) {
+      System.err.println("Failed to register MBeans for flow: " + name);
+      e.printStackTrace();
+      mbeans = new ArrayList<>();
+    }
+
+    startTime   = System.nanoTime();
+    termination = CompletableFuture
+      .allOf(completions.toArray(new CompletableFuture<?>[0]))
+      .whenComplete((v, t) -> {
+	endTime = System.nanoTime();
+	OperatorMetrics.unregisterMBeans(mbeans);
+      });
+
+    thread = new Thread(() -> {
+      try {
+	flow.start();
+      }
+      catch (Throwable t) {
+	// reported via the completion of the source
+      }
+    }, "moaflow-" + flow.getClass().getSimpleName());
+    thread.start();
+
+    return termination;
+  }
+
+  /**
+   * Stops the source. The operators still process the data generated so far.
+   */
+  public void stop() {
+    flow.stop();
+  }
+
+  /**
+   * Returns whether the flow has been started and not all operators have completed yet.
+   *
+   * @return true if running
+   */
+  public synchronized boolean isRunning() {
+    return (termination != null) && !termination.isDone();
+  }
+
+  /**
+   * Waits for the flow to finish.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return true if the flow finished (successfully or not), false if timed out
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    if (termination == null)
+      throw new IllegalStateException("Flow has not been started!");
+    try {
+      termination.get(timeout, unit);
+    }
+    catch (TimeoutException e) {
+      return false;
+    }
+    catch (ExecutionException e) {
+      // failed, but finished
+    }
+    return true;
+  }
+
+  /**
+   * Waits for the flow to finish.
+   *
+   * @throws Exception the error that made the flow fail
+   */
+  public void awaitTermination() throws Exception {
+    if (termination == null)
+      throw new IllegalStateException("Flow has not been started!");
+    try {
+      termination.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+	throw (Exception) e.getCause();
+      throw e;
+    }
+  }
+
+  /**
+   * Starts the flow and waits for it to finish.
+   *
+   * @throws Exception the error that made the flow fail
+   */
+  public void run() throws Exception {
+    start();
+    awaitTermination();
+  }
+
+  /**
+   * Returns the wall-clock time of the execution so far.
+   *
+   * @return the time in nanoseconds, 0 if not started yet
+   */
+  public long getElapsedTime() {
+    long	end;
+
+    if (termination == null)
+      return 0;
+    end = endTime;
+    if (end == 0)
+      end = System.nanoTime();
+    return end - startTime;
+  }
+
+  /**
+   * Returns the statistics of the execution: wall-clock time and overall
+   * throughput, as well as the metrics per operator (items in/out, dropped
+   * items, processing time, mean and 99th percentile time per item).
+   * The processing time of sources includes the time that they spend handing
+   * on the data, i.e., possibly waiting for their subscribers.
+   *
+   * @return the statistics
+   */
+  public String getStatistics() {
+    StringBuilder	result;
+    double		elapsed;
+    long		items;
+    int			i;
+    Operator		op;
+    OperatorMetrics	metrics;
+    StringBuilder	label;
+    int			n;
+
+    result  = new StringBuilder();
+    elapsed = getElapsedTime() / 1.0E9;
+    items   = flow.getMetrics().getItemsOut();
+    result.append(String.format("Elapsed time: %.3f s\n", elapsed));
+    result.append(String.format("Items: %d\n", items));
+    result.append(String.format("Throughput: %.1f items/s\n", (elapsed > 0) ? items / elapsed : 0.0));
+    result.append(String.format("%5s %10s %10s %8s %10s %10s %10s  %s\n", "#", "in", "out", "dropped", "time (ms)", "mean (us)", "p99 (us)", "operator"));
+    for (i = 0; i < operators.size(); i++) {
+      op    = operators.get(i);
+      label = new StringBuilder();
+      for (n = 0; n < depths.get(i); n++)
+	label.append(" ");
+      label.append(op.getClass().getSimpleName());
+      if (op instanceof AbstractOperator) {
+	metrics = ((AbstractOperator) op).getMetrics();
+	result.append(String.format("%5d %10d %10d %8d %10.1f %10.2f %10.2f  %s\n",
+	  i, metrics.getItemsIn(), metrics.getItemsOut(), metrics.getDroppedItems(),
+	  metrics.getProcessingTime() / 1.0E6, metrics.getMeanServiceTime() / 1.0E3,
+	  metrics.getServiceTime99() / 1.0E3, label));
+      }
+      else {
+	result.append(String.format("%5d %10s %10s %8s %10s %10s %10s  %s\n", i, "-", "-", "-", "-", "-", "-", label));
+      }
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Executes the flow stored in the file and outputs the statistics.
+   *
+   * @param args the flow file
+   * @throws Exception if reading or executing the flow fails
+   */
+  public static void main(String[] args) throws Exception {
+    DefaultFlowReader	reader;
+    FlowRunner		runner;
+
+    if (args.length != 1) {
+      System.err.println("Usage: " + FlowRunner.class.getName() + " <flowfile>");
+      System.exit(1);
+    }
+
+    reader = new DefaultFlowReader();
+    runner = new FlowRunner(reader.read(args[0]));
+    System.out.println(Utils.toTree(runner.getFlow()));
+    try {
+      runner.run();
+    }
+    finally {
+      System.out.println(runner.getStatistics());
+    }
+  }
+}
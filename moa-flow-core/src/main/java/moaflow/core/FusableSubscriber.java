@@ -0,0 +1,55 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FusableSubscriber.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import java.util.concurrent.Flow.Subscriber;
+
+/**
+ * Interface for subscribers that can be fused with their publisher, i.e.,
+ * the publisher invokes {@link #onNext(Object)} directly on its own thread
+ * rather than handing the data off via its buffer and executor.
+ * <br>
+ * A fused subscriber does not take part in the demand accounting of its
+ * subscription, i.e., it must request an unbounded number of items and
+ * only allow fusion in that case. Furthermore, the publisher must not
+ * invoke it directly before {@link #onSubscribe} has completed, which
+ * gets executed asynchronously by the publisher's executor.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public interface FusableSubscriber<T>
+  extends Subscriber<T> {
+
+  /**
+   * Returns whether the subscriber can get invoked directly by its publisher.
+   *
+   * @return true if it can be fused, false if it requires an asynchronous boundary
+   */
+  public boolean canFuse();
+
+  /**
+   * Waits until {@link #onSubscribe} has completed, i.e., until the
+   * subscriber can get invoked directly.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitSubscription() throws InterruptedException;
+}
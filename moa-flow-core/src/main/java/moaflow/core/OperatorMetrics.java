@@ -0,0 +1,516 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * OperatorMetrics.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.IntSupplier;
+
+/**
+ * Records the runtime metrics of an operator: items in and out, dropped
+ * items, the processing time per item (as histogram with power-of-2 buckets)
+ * and the lag/demand of the publisher, if any. For sources that prefetch
+ * their data, also the occupancy of the prefetch buffer.
+ * <br>
+ * The counters only get updated by the thread processing the data, without
+ * any synchronization. Other threads may therefore see slightly stale values
+ * while the operator is running.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class OperatorMetrics
+  implements OperatorMetricsMBean {
+
+  /** the JMX domain. */
+  public static final String DOMAIN = "moaflow";
+
+  /** the number of buckets of the histogram. */
+  public static final int NUM_BUCKETS = 64;
+
+  /** the operator the metrics are for. */
+  protected Operator owner;
+
+  /** the publisher of the operator, if any. */
+  protected SubmissionPublisher<?> publisher;
+
+  /** the number of items received. */
+  protected long itemsIn;
+
+  /** the number of items handed on. */
+  protected long itemsOut;
+
+  /** the number of items discarded. */
+  protected long dropped;
+
+  /** the time in nanoseconds spent processing data. */
+  protected long processingTime;
+
+  /** the histogram of processing times per item. */
+  protected long[] histogram;
+
+  /** supplies the number of items in the prefetch buffer, if any. */
+  protected IntSupplier prefetchBuffer;
+
+  /** the capacity of the prefetch buffer. */
+  protected int prefetchCapacity;
+
+  /** the sum of the prefetch buffer occupancies at the time of taking items. */
+  protected long prefetchOccupancySum;
+
+  /** the number of times items got taken from the prefetch buffer. */
+  protected long prefetchTakes;
+
+  /** the number of times the prefetch buffer was empty when taking items. */
+  protected long prefetchUnderruns;
+
+  /** the number of times the prefetch buffer was full when adding an item. */
+  protected long prefetchOverruns;
+
+  /**
+   * Initializes the metrics.
+   *
+   * @param owner the operator the metrics are for
+   */
+  public OperatorMetrics(Operator owner) {
+    this.owner     = owner;
+    this.histogram = new long[NUM_BUCKETS];
+  }
+
+  /**
+   * Sets the publisher to obtain lag and demand from.
+   *
+   * @param value the publisher
+   */
+  public void setPublisher(SubmissionPublisher<?> value) {
+    publisher = value;
+  }
+
+  /**
+   * Sets the buffer that a source prefetches its data into.
+   *
+   * @param buffer supplies the number of items in the buffer, null if not prefetching
+   * @param capacity the capacity of the buffer
+   */
+  public void setPrefetchBuffer(IntSupplier buffer, int capacity) {
+    prefetchBuffer   = buffer;
+    prefetchCapacity = capacity;
+  }
+
+  /**
+   * Records that items got taken from the prefetch buffer.
+   *
+   * @param occupancy the number of items that were available
+   */
+  public void recordPrefetchTake(int occupancy) {
+    prefetchOccupancySum += occupancy;
+    prefetchTakes++;
+  }
+
+  /**
+   * Records that the prefetch buffer was empty, i.e., that publishing had
+   * to wait for the data generation. Gets called by the publishing thread.
+   */
+  public void recordPrefetchUnderrun() {
+    prefetchUnderruns++;
+  }
+
+  /**
+   * Records that the prefetch buffer was full, i.e., that the data
+   * generation had to wait for publishing. Gets called by the generating thread.
+   */
+  public void recordPrefetchOverrun() {
+    prefetchOverruns++;
+  }
+
+  /**
+   * Records the processing of data.
+   *
+   * @param items the number of items that got processed
+   * @param start the start of the processing, from {@link System#nanoTime()}
+   */
+  public void recordProcessing(int items, long start) {
+    long	time;
+
+    time            = System.nanoTime() - start;
+    itemsIn        += items;
+    processingTime += time;
+    if (items > 0)
+      histogram[64 - Long.numberOfLeadingZeros(time / items)] += items;
+  }
+
+  /**
+   * Records data that got handed on.
+   *
+   * @param items the number of items
+   */
+  public void recordOutput(int items) {
+    itemsOut += items;
+  }
+
+  /**
+   * Records data that got discarded.
+   *
+   * @param items the number of items
+   */
+  public void recordDropped(int items) {
+    dropped += items;
+  }
+
+  /**
+   * Records time spent generating data, e.g., for sources.
+   *
+   * @param time the time in nanoseconds
+   */
+  public void recordTime(long time) {
+    processingTime += time;
+  }
+
+  /**
+   * Returns the commandline of the operator.
+   *
+   * @return the commandline
+   */
+  @Override
+  public String getOperator() {
+    return Utils.toCommandLine(owner);
+  }
+
+  /**
+   * Returns the number of data items received.
+   *
+   * @return the number of items
+   */
+  @Override
+  public long getItemsIn() {
+    return itemsIn;
+  }
+
+  /**
+   * Returns the number of data items handed on.
+   *
+   * @return the number of items
+   */
+  @Override
+  public long getItemsOut() {
+    return itemsOut;
+  }
+
+  /**
+   * Returns the number of data items that got discarded.
+   *
+   * @return the number of items
+   */
+  @Override
+  public long getDroppedItems() {
+    return dropped;
+  }
+
+  /**
+   * Returns the time spent processing data.
+   *
+   * @return the time in nanoseconds
+   */
+  @Override
+  public long getProcessingTime() {
+    return processingTime;
+  }
+
+  /**
+   * Returns the mean processing time per data item.
+   *
+   * @return the time in nanoseconds
+   */
+  @Override
+  public double getMeanServiceTime() {
+    if (itemsIn == 0)
+      return 0.0;
+    return (double) processingTime / itemsIn;
+  }
+
+  /**
+   * Returns the (upper bound of the) processing time per data item
+   * at the specified percentile, based on the histogram.
+   *
+   * @param percentile the percentile (0-100)
+   * @return the time in nanoseconds
+   */
+  public long getServiceTimePercentile(double percentile) {
+    long[]	counts;
+    long	total;
+    long	sum;
+    int		i;
+
+    counts = getServiceTimeHistogram();
+    total  = 0;
+    for (long count: counts)
+      total += count;
+    if (total == 0)
+      return 0;
+
+    sum = 0;
+    for (i = 0; i < counts.length; i++) {
+      sum += counts[i];
+      if (sum * 100.0 >= total * percentile)
+	break;
+    }
+    if (i >= counts.length - 1)
+      return Long.MAX_VALUE;
+
+    return 1L << i;
+  }
+
+  /**
+   * Returns the (upper bound of the) median processing time per data item.
+   *
+   * @return the time in nanoseconds
+   */
+  @Override
+  public long getMedianServiceTime() {
+    return getServiceTimePercentile(50);
+  }
+
+  /**
+   * Returns the (upper bound of the) 99th percentile of the processing time
+   * per data item.
+   *
+   * @return the time in nanoseconds
+   */
+  @Override
+  public long getServiceTime99() {
+    return getServiceTimePercentile(99);
+  }
+
+  /**
+   * Returns the histogram of processing times per data item. Bucket i
+   * counts the items that took less than 2^i nanoseconds (and at least
+   * 2^(i-1) nanoseconds).
+   *
+   * @return the counts per bucket
+   */
+  @Override
+  public long[] getServiceTimeHistogram() {
+    return histogram.clone();
+  }
+
+  /**
+   * Returns the maximum number of items buffered but not yet consumed by
+   * any of the subscribers.
+   *
+   * @return the lag, 0 if not publishing
+   */
+  @Override
+  public int getMaximumLag() {
+    SubmissionPublisher<?>	current;
+
+    current = publisher;
+    if (current == null)
+      return 0;
+    return current.estimateMaximumLag();
+  }
+
+  /**
+   * Returns the minimum number of items requested but not yet received by
+   * any of the subscribers.
+   *
+   * @return the demand, 0 if not publishing
+   */
+  @Override
+  public long getMinimumDemand() {
+    SubmissionPublisher<?>	current;
+
+    current = publisher;
+    if (current == null)
+      return 0;
+    return current.estimateMinimumDemand();
+  }
+
+  /**
+   * Returns the number of items currently in the prefetch buffer.
+   *
+   * @return the number of items, 0 if not prefetching
+   */
+  @Override
+  public int getPrefetchOccupancy() {
+    IntSupplier	current;
+
+    current = prefetchBuffer;
+    if (current == null)
+      return 0;
+    return current.getAsInt();
+  }
+
+  /**
+   * Returns the capacity of the prefetch buffer.
+   *
+   * @return the capacity, 0 if not prefetching
+   */
+  @Override
+  public int getPrefetchCapacity() {
+    return prefetchCapacity;
+  }
+
+  /**
+   * Returns the mean number of items available in the prefetch buffer
+   * when the publishing thread took items from it.
+   *
+   * @return the mean occupancy
+   */
+  @Override
+  public double getMeanPrefetchOccupancy() {
+    if (prefetchTakes == 0)
+      return 0.0;
+    return (double) prefetchOccupancySum / prefetchTakes;
+  }
+
+  /**
+   * Returns how often publishing had to wait for the data generation.
+   *
+   * @return the number of times the prefetch buffer was empty
+   */
+  @Override
+  public long getPrefetchUnderruns() {
+    return prefetchUnderruns;
+  }
+
+  /**
+   * Returns how often the data generation had to wait for publishing.
+   *
+   * @return the number of times the prefetch buffer was full
+   */
+  @Override
+  public long getPrefetchOverruns() {
+    return prefetchOverruns;
+  }
+
+  /**
+   * Resets the counters and the histogram.
+   */
+  @Override
+  public void reset() {
+    itemsIn        = 0;
+    itemsOut       = 0;
+    dropped        = 0;
+    processingTime = 0;
+    histogram      = new long[NUM_BUCKETS];
+    prefetchOccupancySum = 0;
+    prefetchTakes        = 0;
+    prefetchUnderruns    = 0;
+    prefetchOverruns     = 0;
+  }
+
+  /**
+   * Returns a short description of the metrics.
+   *
+   * @return the description
+   */
+  @Override
+  public String toString() {
+    String	result;
+
+    result = "in=" + itemsIn
+      + ", out=" + itemsOut
+      + ", dropped=" + dropped
+      + ", time=" + (processingTime / 1000000) + "ms"
+      + ", median=" + getMedianServiceTime() + "ns"
+      + ", p99=" + getServiceTime99() + "ns"
+      + ", lag=" + getMaximumLag();
+    if (prefetchCapacity > 0)
+      result += String.format(", prefetch=%.1f/%d (underruns=%d, overruns=%d)",
+	getMeanPrefetchOccupancy(), prefetchCapacity, prefetchUnderruns, prefetchOverruns);
+
+    return result;
+  }
+
+  /**
+   * Generates the JMX name for the metrics of an operator.
+   *
+   * @param flowName the name of the flow
+   * @param index the index of the operator in the {@link Utils#toTree(Operator)} output
+   * @param op the operator
+   * @return the name
+   * @throws Exception if the name is invalid
+   */
+  public static ObjectName createName(String flowName, int index, Operator op) throws Exception {
+    return new ObjectName(DOMAIN
+      + ":type=OperatorMetrics"
+      + ",flow=" + ObjectName.quote(flowName)
+      + ",index=" + index
+      + ",operator=" + op.getClass().getSimpleName());
+  }
+
+  /**
+   * Registers the metrics of the operators as MBeans with the platform
+   * MBean server.
+   *
+   * @param flowName the name of the flow
+   * @param operators the operators, in the order of {@link Utils#toTree(Operator)}
+   * @return the names of the registered MBeans
+   * @throws Exception if registration fails
+   */
+  public static List<ObjectName> registerMBeans(String flowName, List<Operator> operators) throws Exception {
+    List<ObjectName>	result;
+    MBeanServer		server;
+    ObjectName		name;
+    int			i;
+
+    result = new ArrayList<>();
+    server = ManagementFactory.getPlatformMBeanServer();
+    for (i = 0; i < operators.size(); i++) {
+      if (!(operators.get(i) instanceof AbstractOperator))
+	continue;
+      try {
+	name = createName(flowName, i, operators.get(i));
+	server.registerMBean(((AbstractOperator) operators.get(i)).getMetrics(), name);
+	result.add(name);
+      }
+      catch (Exception e) {
+	unregisterMBeans(result);
+	throw e;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Unregisters the MBeans from the platform MBean server.
+   *
+   * @param names the names of the MBeans
+   */
+  public static void unregisterMBeans(List<ObjectName> names) {
+    MBeanServer		server;
+
+    server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name: names) {
+      try {
+	if (server.isRegistered(name))
+	  server.unregisterMBean(name);
+      }
+      catch (Exception e) {
+	// ignored
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * OperatorMetricsMBean.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+/**
+ * Management interface for exposing the metrics of an operator via JMX.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ * @see OperatorMetrics
+ */
+public interface OperatorMetricsMBean {
+
+  /**
+   * Returns the commandline of the operator.
+   *
+   * @return the commandline
+   */
+  public String getOperator();
+
+  /**
+   * Returns the number of data items received.
+   *
+   * @return the number of items
+   */
+  public long getItemsIn();
+
+  /**
+   * Returns the number of data items handed on.
+   *
+   * @return the number of items
+   */
+  public long getItemsOut();
+
+  /**
+   * Returns the number of data items that got discarded.
+   *
+   * @return the number of items
+   */
+  public long getDroppedItems();
+
+  /**
+   * Returns the time spent processing data.
+   *
+   * @return the time in nanoseconds
+   */
+  public long getProcessingTime();
+
+  /**
+   * Returns the mean processing time per data item.
+   *
+   * @return the time in nanoseconds
+   */
+  public double getMeanServiceTime();
+
+  /**
+   * Returns the (upper bound of the) median processing time per data item.
+   *
+   * @return the time in nanoseconds
+   */
+  public long getMedianServiceTime();
+
+  /**
+   * Returns the (upper bound of the) 99th percentile of the processing time
+   * per data item.
+   *
+   * @return the time in nanoseconds
+   */
+  public long getServiceTime99();
+
+  /**
+   * Returns the histogram of processing times per data item. Bucket i
+   * counts the items that took less than 2^i nanoseconds (and at least
+   * 2^(i-1) nanoseconds).
+   *
+   * @return the counts per bucket
+   */
+  public long[] getServiceTimeHistogram();
+
+  /**
+   * Returns the maximum number of items buffered but not yet consumed by
+   * any of the subscribers.
+   *
+   * @return the lag, 0 if not publishing
+   */
+  public int getMaximumLag();
+
+  /**
+   * Returns the minimum number of items requested but not yet received by
+   * any of the subscribers.
+   *
+   * @return the demand, 0 if not publishing
+   */
+  public long getMinimumDemand();
+
+  /**
+   * Returns the number of items currently in the prefetch buffer.
+   *
+   * @return the number of items, 0 if not prefetching
+   */
+  public int getPrefetchOccupancy();
+
+  /**
+   * Returns the capacity of the prefetch buffer.
+   *
+   * @return the capacity, 0 if not prefetching
+   */
+  public int getPrefetchCapacity();
+
+  /**
+   * Returns the mean number of items available in the prefetch buffer
+   * when the publishing thread took items from it.
+   *
+   * @return the mean occupancy
+   */
+  public double getMeanPrefetchOccupancy();
+
+  /**
+   * Returns how often publishing had to wait for the data generation.
+   *
+   * @return the number of times the prefetch buffer was empty
+   */
+  public long getPrefetchUnderruns();
+
+  /**
+   * Returns how often the data generation had to wait for publishing.
+   *
+   * @return the number of times the prefetch buffer was full
+   */
+  public long getPrefetchOverruns();
+
+  /**
+   * Resets the counters and the histogram.
+   */
+  public void reset();
+}
@@ -0,0 +1,294 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SeriesBuffer.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import java.util.Arrays;
+
+/**
+ * Stores x/y data points in primitive arrays of fixed capacity. Either as a
+ * sliding window, i.e., a ring buffer that overwrites the oldest points,
+ * or as the whole history, which gets downsampled to half the capacity
+ * whenever the buffer is full. Memory usage is therefore bounded either way.
+ * <br>
+ * Downsampling uses the largest-triangle-three-buckets (LTTB) algorithm,
+ * which retains the visual shape of the series.
+ * <br>
+ * Not thread-safe.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class SeriesBuffer {
+
+  /** the x values. */
+  protected double[] x;
+
+  /** the y values. */
+  protected double[] y;
+
+  /** the index of the oldest point. */
+  protected int head;
+
+  /** the number of points. */
+  protected int size;
+
+  /** whether to keep only the most recent points. */
+  protected boolean window;
+
+  /** the scratch array for downsampling. */
+  protected double[] tmpX;
+
+  /** the scratch array for downsampling. */
+  protected double[] tmpY;
+
+  /**
+   * Initializes the buffer.
+   *
+   * @param capacity the maximum number of points to store (at least 3 when not a window)
+   * @param window true to keep only the most recent points, false to
+   *               downsample the whole history
+   */
+  public SeriesBuffer(int capacity, boolean window) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+    if (!window && (capacity < 3))
+      throw new IllegalArgumentException("Capacity must be at least 3 for downsampling: " + capacity);
+    this.x      = new double[capacity];
+    this.y      = new double[capacity];
+    this.window = window;
+  }
+
+  /**
+   * Returns the capacity.
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return x.length;
+  }
+
+  /**
+   * Returns the number of stored points.
+   *
+   * @return the number of points
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all points.
+   */
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * Adds the point. Overwrites the oldest point (window) or downsamples
+   * the stored points (history) if the buffer is full.
+   *
+   * @param xValue the x value
+   * @param yValue the y value
+   */
+  public void add(double xValue, double yValue) {
+    int		index;
+
+    if (size == x.length) {
+      if (window) {
+	x[head] = xValue;
+	y[head] = yValue;
+	head = (head + 1) % x.length;
+	return;
+      }
+      compact();
+    }
+    index    = (head + size) % x.length;
+    x[index] = xValue;
+    y[index] = yValue;
+    size++;
+  }
+
+  /**
+   * Downsamples the stored points to half the capacity.
+   */
+  protected void compact() {
+    if (tmpX == null) {
+      tmpX = new double[x.length];
+      tmpY = new double[y.length];
+    }
+    copyTo(tmpX, tmpY);
+    size = downsample(tmpX, tmpY, size, Math.max(3, x.length / 2), x, y);
+    head = 0;
+  }
+
+  /**
+   * Returns the x value of the point.
+   *
+   * @param index the index of the point, 0 being the oldest
+   * @return the value
+   */
+  public double getX(int index) {
+    return x[(head + index) % x.length];
+  }
+
+  /**
+   * Returns the y value of the point.
+   *
+   * @param index the index of the point, 0 being the oldest
+   * @return the value
+   */
+  public double getY(int index) {
+    return y[(head + index) % y.length];
+  }
+
+  /**
+   * Copies the points in order into the arrays.
+   *
+   * @param destX the array for the x values, at least of length {@link #size()}
+   * @param destY the array for the y values, at least of length {@link #size()}
+   */
+  public void copyTo(double[] destX, double[] destY) {
+    int		first;
+
+    first = Math.min(size, x.length - head);
+    System.arraycopy(x, head, destX, 0, first);
+    System.arraycopy(y, head, destY, 0, first);
+    System.arraycopy(x, 0, destX, first, size - first);
+    System.arraycopy(y, 0, destY, first, size - first);
+  }
+
+  /**
+   * Returns the points, downsampled to at most the specified number.
+   *
+   * @param threshold the maximum number of points (< 1 for all)
+   * @return the x values (index 0) and y values (index 1)
+   */
+  public double[][] toArrays(int threshold) {
+    double[][]	result;
+    int		n;
+
+    if ((threshold < 1) || (size <= threshold)) {
+      result = new double[2][size];
+      copyTo(result[0], result[1]);
+      return result;
+    }
+
+    if (tmpX == null) {
+      tmpX = new double[x.length];
+      tmpY = new double[y.length];
+    }
+    copyTo(tmpX, tmpY);
+    result = new double[2][Math.max(threshold, Math.min(size, 2))];
+    n      = downsample(tmpX, tmpY, size, threshold, result[0], result[1]);
+    if (n < result[0].length) {
+      result[0] = Arrays.copyOf(result[0], n);
+      result[1] = Arrays.copyOf(result[1], n);
+    }
+    return result;
+  }
+
+  /**
+   * Downsamples the points using the largest-triangle-three-buckets
+   * algorithm, which always retains the first and last point.
+   *
+   * @param x the x values
+   * @param y the y values
+   * @param n the number of points
+   * @param threshold the maximum number of points to output
+   * @param outX for storing the x values, at least of length min(n, max(threshold, 2))
+   * @param outY for storing the y values, at least of length min(n, max(threshold, 2))
+   * @return the number of points output
+   */
+  public static int downsample(double[] x, double[] y, int n, int threshold, double[] outX, double[] outY) {
+    double	every;
+    int		a;
+    int		i;
+    int		j;
+    int		result;
+    int		avgStart;
+    int		avgEnd;
+    double	avgX;
+    double	avgY;
+    int		rangeStart;
+    int		rangeEnd;
+    double	area;
+    double	maxArea;
+    int		next;
+
+    if ((threshold >= n) || (n < 3)) {
+      System.arraycopy(x, 0, outX, 0, n);
+      System.arraycopy(y, 0, outY, 0, n);
+      return n;
+    }
+    if (threshold < 3) {
+      outX[0] = x[0];
+      outY[0] = y[0];
+      outX[1] = x[n - 1];
+      outY[1] = y[n - 1];
+      return 2;
+    }
+
+    every     = (double) (n - 2) / (threshold - 2);
+    a         = 0;
+    result    = 0;
+    outX[result] = x[a];
+    outY[result] = y[a];
+    result++;
+
+    for (i = 0; i < threshold - 2; i++) {
+      // average of the next bucket
+      avgStart = (int) Math.floor((i + 1) * every) + 1;
+      avgEnd   = Math.min((int) Math.floor((i + 2) * every) + 1, n);
+      avgX     = 0;
+      avgY     = 0;
+      for (j = avgStart; j < avgEnd; j++) {
+	avgX += x[j];
+	avgY += y[j];
+      }
+      avgX /= (avgEnd - avgStart);
+      avgY /= (avgEnd - avgStart);
+
+      // point of the current bucket with the largest triangle
+      rangeStart = (int) Math.floor(i * every) + 1;
+      rangeEnd   = (int) Math.floor((i + 1) * every) + 1;
+      maxArea    = -1;
+      next       = rangeStart;
+      for (j = rangeStart; j < rangeEnd; j++) {
+	area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a]));
+	if (area > maxArea) {
+	  maxArea = area;
+	  next    = j;
+	}
+      }
+
+      outX[result] = x[next];
+      outY[result] = y[next];
+      result++;
+      a = next;
+    }
+
+    outX[result] = x[n - 1];
+    outY[result] = y[n - 1];
+    result++;
+
+    return result;
+  }
+}
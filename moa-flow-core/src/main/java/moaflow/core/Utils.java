@@ -24,6 +24,10 @@ import moa.MOAObject;
 import moa.options.AbstractOptionHandler;
 import moa.options.OptionHandler;
 
+import java.util.List;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.SubmissionPublisher;
+
 /**
  * Helper class for waiting.
  *
@@ -146,4 +150,62 @@ public class Utils {
 
     return result.toString();
   }
+
+  /**
+   * Determines the subscriber that the publisher can invoke directly, i.e.,
+   * without a hand-off via its buffer and executor. This is only the case if
+   * the publisher has exactly one subscriber and that subscriber allows fusion.
+   * Waits for the subscriber to complete its subscription, as that happens
+   * asynchronously on the publisher's executor.
+   *
+   * @param publisher the publisher to inspect
+   * @param <T> the type of data being published
+   * @return the subscriber to invoke directly, null if not possible
+   * @see FusableSubscriber
+   */
+  public static <T> Subscriber<? super T> getFusionTarget(SubmissionPublisher<T> publisher) {
+    List<Subscriber<? super T>> subscribers;
+    FusableSubscriber<?>	fusable;
+
+    subscribers = publisher.getSubscribers();
+    if (subscribers.size() != 1)
+      return null;
+    if (!(subscribers.get(0) instanceof FusableSubscriber))
+      return null;
+    fusable = (FusableSubscriber<?>) subscribers.get(0);
+    if (!fusable.canFuse())
+      return null;
+    try {
+      fusable.awaitSubscription();
+    }
+    catch (InterruptedException e) {
+      // fall back on the publisher
+      Thread.currentThread().interrupt();
+      return null;
+    }
+
+    return subscribers.get(0);
+  }
+
+  /**
+   * Checks whether all subscribers of the publisher can handle batches.
+   *
+   * @param publisher the publisher to inspect
+   * @param <T> the type of data being published
+   * @return true if there is at least one subscriber and all can handle batches
+   * @see BatchSubscriber
+   */
+  public static <T> boolean acceptsBatches(SubmissionPublisher<T> publisher) {
+    List<Subscriber<? super T>> subscribers;
+
+    subscribers = publisher.getSubscribers();
+    if (subscribers.size() == 0)
+      return false;
+    for (Subscriber<? super T> subscriber: subscribers) {
+      if (!(subscriber instanceof BatchSubscriber))
+	return false;
+    }
+
+    return true;
+  }
 }
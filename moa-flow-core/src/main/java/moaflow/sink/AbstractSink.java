@@ -20,22 +20,43 @@
 
 package moaflow.sink;
 
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
 import moaflow.core.AbstractOperator;
+import moaflow.core.Batch;
+import moaflow.core.BatchSubscriber;
+import moaflow.core.DemandWindow;
+import moaflow.core.FusableSubscriber;
 
-import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.Flow.Subscription;
 
 /**
  * Ancestor for sinks.
+ * <br>
+ * A sink can only be subscribed to a single publisher, as
+ * data gets processed without locking.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public abstract class AbstractSink<I>
   extends AbstractOperator
-  implements Subscriber<I> {
+  implements FusableSubscriber<I>, BatchSubscriber<I> {
 
-  /** for managing the subscription. */
-  protected transient Subscription subscription;
+  public IntOption prefetch = new IntOption("prefetch", 'R', "The number of items to request in advance, replenished once half of them got processed (< 1 unbounded)", -1, -1, Integer.MAX_VALUE);
+
+  public FlagOption asyncBoundary = new FlagOption("asyncBoundary", 'A', "If set, data always gets received asynchronously, even if the publisher fuses its subscribers");
+
+  /** for managing the demand. */
+  protected transient DemandWindow demand;
+
+  /**
+   * For initializing members.
+   */
+  @Override
+  protected void init() {
+    super.init();
+    demand = new DemandWindow();
+  }
 
   /**
    * Method invoked prior to invoking any other Subscriber
@@ -50,8 +71,35 @@ public abstract class AbstractSink<I>
    */
   @Override
   public void onSubscribe(Subscription value) {
-    subscription = value;
-    subscription.request(Long.MAX_VALUE);
+    try {
+      demand.subscribe(value, prefetch.getValue());
+    }
+    finally {
+      demand.release();
+    }
+  }
+
+  /**
+   * Returns whether the subscriber can get invoked directly by its publisher.
+   *
+   * Only possible with unbounded demand and no asynchronous boundary.
+   *
+   * @return true if it can be fused, false if it requires an asynchronous boundary
+   */
+  @Override
+  public boolean canFuse() {
+    return DemandWindow.canFuse(asyncBoundary.isSet(), prefetch.getValue());
+  }
+
+  /**
+   * Waits until {@link #onSubscribe} has completed, i.e., until the
+   * subscriber can get invoked directly.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @Override
+  public void awaitSubscription() throws InterruptedException {
+    demand.awaitSubscription();
   }
 
   /**
@@ -61,16 +109,43 @@ public abstract class AbstractSink<I>
    */
   protected abstract void doProcess(I input);
 
+  /**
+   * For processing a batch of received input, item by item.
+   * <br>
+   * Derived classes can override this method to process the whole batch
+   * more efficiently, as long as the outcome is the same as processing the
+   * items individually.
+   *
+   * @param input the data to process
+   */
+  protected void doProcessBatch(Batch<I> input) {
+    for (I item: input)
+      doProcess(item);
+  }
+
   /**
    * Method invoked with a Subscription's next item.  If this
    * method throws an exception, resulting behavior is not
    * guaranteed, but may cause the Subscription to be cancelled.
+   * <br>
+   * Not synchronized, as the Flow specification guarantees that onNext
+   * gets invoked serially for a subscription (also when fused).
    *
    * @param item the item
    */
   @Override
-  public synchronized void onNext(I item) {
-    doProcess(item);
+  @SuppressWarnings("unchecked")
+  public void onNext(I item) {
+    long start = System.nanoTime();
+    if (item instanceof Batch) {
+      doProcessBatch((Batch<I>) item);
+      metrics.recordProcessing(((Batch<I>) item).size(), start);
+    }
+    else {
+      doProcess(item);
+      metrics.recordProcessing(1, start);
+    }
+    demand.requestNext();
   }
 
   /**
@@ -79,12 +154,15 @@ public abstract class AbstractSink<I>
    * methods are invoked by the Subscription.  If this method
    * itself throws an exception, resulting behavior is
    * undefined.
+   * <br>
+   * Derived classes must call this method when overriding it.
    *
    * @param throwable the exception
    */
   @Override
   public void onError(Throwable throwable) {
     throwable.printStackTrace();
+    completion.completeExceptionally(throwable);
   }
 
   /**
@@ -94,8 +172,11 @@ public abstract class AbstractSink<I>
    * other Subscriber methods are invoked by the Subscription.
    * If this method throws an exception, resulting behavior is
    * undefined.
+   * <br>
+   * Derived classes must call this method when overriding it.
    */
   @Override
   public void onComplete() {
+    completion.complete(null);
   }
 }
@@ -22,9 +22,27 @@ package moaflow.sink;
 
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
+import moaflow.core.ExecutorUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Just outputs the object on stdout.
+ * <br>
+ * By default, the objects get turned into strings on the flow's thread and
+ * then handed to a background thread via a bounded queue, which writes
+ * them in batches to stdout. The flow only waits if the queue is full.
+ * A queue size of 0 outputs the objects directly instead.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -35,16 +53,39 @@ public class Console
 
   public StringOption outputSeparator = new StringOption("outputSeparator", 's', "The separator to use between outputs", "");
 
+  public IntOption interval = new IntOption("interval", 'i', "The minimum time in msec between outputs, objects in between get skipped (0 = no limit)", 0, 0, Integer.MAX_VALUE);
+
+  public IntOption queueSize = new IntOption("queueSize", 'q', "The maximum number of outputs waiting for the background thread (0 = output directly)", 1024, 0, Integer.MAX_VALUE);
+
+  /** signals the end of the output to the background thread. */
+  protected static final String END = new String("");
+
   /** the counter for the objects. */
   protected int counter;
 
+  /** the time of the last output. */
+  protected transient long lastOutput;
+
+  /** the outputs waiting for the background thread. */
+  protected transient BlockingQueue<String> queue;
+
+  /** the background thread writing the outputs. */
+  protected transient ExecutorService writer;
+
+  /** whether writing to stdout failed. */
+  protected transient volatile boolean failed;
+
   /**
    * For initializing members.
    */
   @Override
   protected void init() {
     super.init();
-    counter = 0;
+    counter    = 0;
+    lastOutput = 0;
+    queue      = null;
+    writer     = null;
+    failed     = false;
   }
 
   /**
@@ -63,14 +104,146 @@ public class Console
    * @param input the data to process
    */
   protected void doProcess(Object input) {
+    long	now;
+
     counter++;
     if (counter == everyNth.getValue()) {
+      counter = 0;
 
-      if (!outputSeparator.getValue().isEmpty())
-        System.out.println(outputSeparator.getValue());
+      if (interval.getValue() > 0) {
+	now = System.currentTimeMillis();
+	if (now - lastOutput < interval.getValue())
+	  return;
+	lastOutput = now;
+      }
 
-      System.out.println(input);
-      counter = 0;
+      if (queueSize.getValue() == 0) {
+	if (!outputSeparator.getValue().isEmpty())
+	  System.out.println(outputSeparator.getValue());
+	System.out.println(input);
+	return;
+      }
+
+      if (writer == null) {
+	queue  = new ArrayBlockingQueue<>(queueSize.getValue());
+	writer = ExecutorUtils.newFixedPool(1, "moaflow-" + getClass().getSimpleName());
+	writer.execute(this::drain);
+      }
+      try {
+	if (!outputSeparator.getValue().isEmpty())
+	  queue.put(outputSeparator.getValue());
+	queue.put(String.valueOf(input));
+      }
+      catch (InterruptedException e) {
+	metrics.recordDropped(1);
+	Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Checks whether the batch contains the end marker, by identity, as an
+   * object can output an empty string as well.
+   *
+   * @param batch the batch to check
+   * @return true if the end marker is contained
+   */
+  protected static boolean containsEnd(List<String> batch) {
+    for (String line: batch) {
+      if (line == END)
+	return true;
     }
+    return false;
+  }
+
+  /**
+   * Writes the queued outputs to stdout until the end gets signalled,
+   * flushing once per batch. Gets called by the background thread.
+   * <br>
+   * As stdout never throws an exception, its error state gets checked
+   * after every batch. After an error, the outputs get discarded, so that
+   * the flow doesn't block on a full queue.
+   */
+  protected void drain() {
+    Writer		out;
+    List<String>	batch;
+    boolean		end;
+
+    out   = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), 65536);
+    batch = new ArrayList<>();
+    end   = false;
+    while (!end) {
+      try {
+	batch.add(queue.take());
+      }
+      catch (InterruptedException e) {
+	return;
+      }
+      queue.drainTo(batch);
+      if (failed) {
+	end = containsEnd(batch);
+	batch.clear();
+	continue;
+      }
+      try {
+	for (String line: batch) {
+	  if (line == END) {
+	    end = true;
+	    break;
+	  }
+	  out.write(line);
+	  out.write(System.lineSeparator());
+	}
+	out.flush();
+	failed = System.out.checkError();
+      }
+      catch (IOException e) {
+	failed = true;
+      }
+      if (failed)
+	end = containsEnd(batch);
+      batch.clear();
+    }
+  }
+
+  /**
+   * Waits for the background thread to output the remaining objects.
+   */
+  protected void awaitWriter() {
+    if (writer == null)
+      return;
+    try {
+      queue.put(END);
+      writer.shutdown();
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer = null;
+  }
+
+  /**
+   * Outputs the remaining objects, before outputting the error.
+   *
+   * @param throwable the exception
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    awaitWriter();
+    super.onError(throwable);
+  }
+
+  /**
+   * Outputs the remaining objects, before completing. Fails if writing
+   * to stdout failed.
+   */
+  @Override
+  public void onComplete() {
+    awaitWriter();
+    if (failed)
+      super.onError(new IOException("Failed to output objects to stdout"));
+    else
+      super.onComplete();
   }
 }
@@ -2,6 +2,8 @@ package moaflow.sink;
 
 /**
  * Prints the learning curve to a table form.
+ * The column widths and separator lines get computed once, from the header,
+ * and only updated when a value doesn't fit its column.
  *
  * @author Truong To (todinhtruong at gmail dot com)
  * Simplifies the implementation of Flip Tables (Github project https://github.com/JakeWharton/flip-tables)
@@ -10,40 +12,93 @@ public class DrawTable {
     protected int[] columnWidths = null;
     String[] dataRow = null;
 
+    /** the line below each body line, null if it needs to be (re)computed **/
+    protected String bodySeparator = null;
+
     /** sets the width of each column**/
     private void setColumnWidth(){
         this.columnWidths = new int[this.dataRow.length];
         for (int i = 0; i < this.dataRow.length; i++) {
             this.columnWidths[i] = this.dataRow[i].length() > 25 ? this.dataRow[i].length() : 25;
         }
+        this.bodySeparator = null;
+    }
+
+    /** Appends a line across all columns, e.g., "╔═╤═╗"
+     * @param output the buffer to append to
+     * @param format the characters for left border, filler, column separator, filler, right border
+     * **/
+    protected void separatorLine(StringBuilder output, String format){
+        for (int col = 0; col < this.columnWidths.length; col++) {
+            output.append(col == 0 ? format.charAt(0) : format.charAt(2));
+            pad(output, format.charAt(1), this.columnWidths[col] + 2);
+        }
+        output.append(format.charAt(4)).append('\n');
+    }
+
+    /** Appends the character n times
+     * @param output the buffer to append to
+     * @param c the character to append
+     * @param n how often to append it
+     * **/
+    protected static void pad(StringBuilder output, char c, int n){
+        for (int i = 0; i < n; i++)
+            output.append(c);
+    }
+
+    /** Ends the cell that starts at the specified position, widening the column if necessary
+     * @param output the buffer containing the cell
+     * @param col the column of the cell
+     * @param start the start of the cell's content in the buffer
+     * **/
+    protected void endCell(StringBuilder output, int col, int start){
+        int len = output.length() - start;
+        if (len > this.columnWidths[col]) {
+            this.columnWidths[col] = len;
+            this.bodySeparator = null;
+        }
+        pad(output, ' ', this.columnWidths[col] - len + 1);
+    }
+
+    /** Appends the end of a body line, including the line below it
+     * @param output the buffer to append to
+     * **/
+    protected void endBodyLine(StringBuilder output){
+        output.append("║\n");
+        if (this.bodySeparator == null) {
+            StringBuilder line = new StringBuilder();
+            separatorLine(line, "╙─┴─╜");
+            this.bodySeparator = line.toString();
+        }
+        output.append(this.bodySeparator);
     }
 
     /** Gets the header of learning curve
      * @return the output string in table form
      * **/
     public StringBuilder headerLine(String str){
-        this.dataRow = str.split(",");
+        return headerLine(str.split(","));
+    }
+
+    /** Gets the header of learning curve
+     * @param names the names of the columns
+     * @return the output string in table form
+     * **/
+    public StringBuilder headerLine(String[] names){
+        this.dataRow = names;
         setColumnWidth();
         StringBuilder output = new StringBuilder();
-        String format = "╔═╤═╗";
-        for (int col = 0; col < this.dataRow.length; col++) {
-            output.append(col == 0 ? format.charAt(0) : format.charAt(2));
-            output.append(String.format(" %1$-" + columnWidths[col] + "s ", "").replace(' ', format.charAt(1)));
-        }
-        output.append(format.charAt(4)).append('\n');
+        separatorLine(output, "╔═╤═╗");
 
         for (int col = 0; col < this.dataRow.length; col++) {
-            output.append(col == 0 ? '║' : '│');
-            output.append(String.format(" %1$-" + this.columnWidths[col] + "s ", this.dataRow[col]));
+            output.append(col == 0 ? '║' : '│').append(' ');
+            int start = output.length();
+            output.append(this.dataRow[col]);
+            endCell(output, col, start);
         }
         output.append("║\n");
 
-        format = "╚═╧═╝";
-        for (int col = 0; col < this.dataRow.length; col++) {
-            output.append(col == 0 ? format.charAt(0) : format.charAt(2));
-            output.append(String.format(" %1$-" + columnWidths[col] + "s ", "").replace(' ', format.charAt(1)));
-        }
-        output.append(format.charAt(4)).append('\n');
+        separatorLine(output, "╚═╧═╝");
 
         return output;
     }
@@ -55,23 +110,32 @@ public class DrawTable {
         this.dataRow = str.split(",");
         StringBuilder output = new StringBuilder();
         for (int col = 0; col < this.dataRow.length; col++) {
-            output.append(col == 0 ? '║' : '│');
-            if(this.dataRow[col].length() > this.columnWidths[col])
-                this.columnWidths[col] = this.dataRow[col].length();
-            output.append(String.format(" %1$-" + this.columnWidths[col] + "s ", this.dataRow[col]));
+            output.append(col == 0 ? '║' : '│').append(' ');
+            int start = output.length();
+            output.append(this.dataRow[col]);
+            endCell(output, col, start);
         }
+        endBodyLine(output);
 
-        output.append("║\n");
-
-        String format = "╙─┴─╜";
+        return output;
+    }
 
-        for (int col = 0; col < this.dataRow.length; col++) {
-            output.append(col == 0 ? format.charAt(0) : format.charAt(2));
-            output.append(String.format(" %1$-" + columnWidths[col] + "s ", "").replace(' ', format.charAt(1)));
+    /** Appends a body line of learning curve, formatting the values directly into the buffer.
+     * Missing values are output as "?", like {@link moa.evaluation.preview.LearningCurve#entryToString(int)}.
+     * @param values the values of the row, one per column of the header
+     * @param output the buffer to append to
+     * **/
+    public void bodyLine(double[] values, StringBuilder output){
+        for (int col = 0; col < this.columnWidths.length; col++) {
+            output.append(col == 0 ? '║' : '│').append(' ');
+            int start = output.length();
+            if ((col < values.length) && !Double.isNaN(values[col]))
+                output.append(values[col]);
+            else
+                output.append('?');
+            endCell(output, col, start);
         }
-        output.append(format.charAt(4)).append('\n');
-
-        return output;
+        endBodyLine(output);
     }
 }
 
@@ -0,0 +1,284 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * InstancesToBinary.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+import moa.core.Example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records instances in a binary file, for replaying them with
+ * {@link moaflow.source.BinaryInstanceSource}.
+ * <br>
+ * The file uses little-endian byte order. It starts with a header:
+ * <ul>
+ *   <li>int: magic number {@link #MAGIC}</li>
+ *   <li>int: format version {@link #VERSION}</li>
+ *   <li>int: number of attributes</li>
+ *   <li>int: length of the serialized header</li>
+ *   <li>bytes: the serialized {@link InstancesHeader} of the first instance</li>
+ * </ul>
+ * This is followed by one record per instance:
+ * <ul>
+ *   <li>byte: {@link #DENSE} or {@link #SPARSE}</li>
+ *   <li>double: weight</li>
+ *   <li>dense: one double per attribute</li>
+ *   <li>sparse: int: number of values, followed by the int indices and then the double values</li>
+ * </ul>
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class InstancesToBinary
+  extends AbstractSink<Example<Instance>> {
+
+  /** the magic number identifying the format ("MFIB"). */
+  public static final int MAGIC = 0x4249464D;
+
+  /** the version of the format. */
+  public static final int VERSION = 1;
+
+  /** the size of the fixed part of the header. */
+  public static final int HEADER_SIZE = 16;
+
+  /** the record type for dense instances. */
+  public static final byte DENSE = 0;
+
+  /** the record type for sparse instances. */
+  public static final byte SPARSE = 1;
+
+  public FileOption outputFile = new FileOption("outputFile", 'f', "The file to record the instances in", ".", ".bin", true);
+
+  public IntOption bufferSize = new IntOption("bufferSize", 'b', "The size of the write buffer in KB", 1024, 1, 1024 * 1024);
+
+  /** the actual output file. */
+  protected transient File actualOutputFile;
+
+  /** the channel for writing the file, null if not opened yet. */
+  protected transient FileChannel channel;
+
+  /** the write buffer. */
+  protected transient ByteBuffer buffer;
+
+  /** the number of attributes. */
+  protected transient int numAttributes;
+
+  /** whether writing failed, in which case further instances get discarded. */
+  protected transient boolean failed;
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Records the instances in the specified binary file, for replaying them.";
+  }
+
+  /**
+   * For initializing members.
+   */
+  @Override
+  protected void init() {
+    super.init();
+    actualOutputFile = null;
+    channel          = null;
+    buffer           = null;
+    failed           = false;
+  }
+
+  /**
+   * Serializes the header of the instance.
+   *
+   * @param inst the instance to get the header from
+   * @return the serialized header
+   * @throws IOException if serialization fails
+   */
+  public static byte[] serializeHeader(Instance inst) throws IOException {
+    ByteArrayOutputStream	bytes;
+
+    bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(new InstancesHeader(inst.dataset()));
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Opens the output file, replacing any existing one, and writes the header.
+   *
+   * @param inst the instance to obtain the header from
+   * @throws IOException if opening fails
+   */
+  protected void open(Instance inst) throws IOException {
+    byte[]	header;
+
+    if (inst.dataset() == null)
+      throw new IllegalStateException("Instance has no dataset, cannot record header!");
+    header        = serializeHeader(inst);
+    numAttributes = inst.numAttributes();
+    channel       = FileChannel.open(actualOutputFile.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    buffer        = ByteBuffer.allocateDirect(Math.max(bufferSize.getValue() * 1024, HEADER_SIZE + header.length)).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(numAttributes);
+    buffer.putInt(header.length);
+    buffer.put(header);
+  }
+
+  /**
+   * Writes the buffered data to the file.
+   *
+   * @throws IOException if writing fails
+   */
+  protected void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * Makes sure that the buffer can take the specified number of bytes.
+   *
+   * @param size the number of bytes
+   * @throws IOException if writing fails
+   */
+  protected void ensure(int size) throws IOException {
+    if (buffer.remaining() >= size)
+      return;
+    flush();
+    if (buffer.capacity() < size)
+      buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Flushes and closes the output, if open.
+   *
+   * @throws IOException if closing fails
+   */
+  protected void close() throws IOException {
+    if (channel == null)
+      return;
+    try {
+      flush();
+      channel.close();
+    }
+    finally {
+      channel = null;
+      buffer  = null;
+    }
+  }
+
+  /**
+   * For processing the received input.
+   *
+   * @param input the data to process
+   */
+  @Override
+  protected void doProcess(Example<Instance> input) {
+    Instance	inst;
+    int		n;
+    int		i;
+
+    if (failed)
+      return;
+    if (actualOutputFile == null)
+      actualOutputFile = outputFile.getFile();
+    if (actualOutputFile.isDirectory())
+      throw new IllegalStateException("Output file is a directory: " + outputFile);
+
+    inst = input.getData();
+    try {
+      if (channel == null)
+	open(inst);
+      if (inst.numAttributes() != numAttributes)
+	throw new IllegalStateException("Number of attributes differs: " + inst.numAttributes() + " != " + numAttributes);
+
+      if (inst instanceof SparseInstance) {
+	n = inst.numValues();
+	ensure(1 + 8 + 4 + n * 12);
+	buffer.put(SPARSE);
+	buffer.putDouble(inst.weight());
+	buffer.putInt(n);
+	for (i = 0; i < n; i++)
+	  buffer.putInt(inst.index(i));
+	for (i = 0; i < n; i++)
+	  buffer.putDouble(inst.valueSparse(i));
+      }
+      else {
+	ensure(1 + 8 + numAttributes * 8);
+	buffer.put(DENSE);
+	buffer.putDouble(inst.weight());
+	for (i = 0; i < numAttributes; i++)
+	  buffer.putDouble(inst.value(i));
+      }
+    }
+    catch (Exception e) {
+      onError(new Exception("Failed to record instances in: " + outputFile, e));
+    }
+  }
+
+  /**
+   * Closes the output.
+   *
+   * @param throwable the exception
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    failed = true;
+    try {
+      close();
+    }
+    catch (Exception e) {
+      // ignored
+    }
+    super.onError(throwable);
+  }
+
+  /**
+   * Closes the output, writing the buffered instances.
+   */
+  @Override
+  public void onComplete() {
+    try {
+      close();
+    }
+    catch (Exception e) {
+      onError(new Exception("Failed to record instances in: " + outputFile, e));
+      return;
+    }
+    super.onComplete();
+  }
+}
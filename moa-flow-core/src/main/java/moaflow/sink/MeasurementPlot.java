@@ -24,15 +24,21 @@ import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
 import moa.core.Measurement;
 import moa.evaluation.LearningEvaluation;
-import org.knowm.xchart.SwingWrapper;
+import moaflow.core.SeriesBuffer;
+import org.knowm.xchart.XChartPanel;
 import org.knowm.xchart.XYChart;
 
 import javax.swing.JFrame;
-import java.util.ArrayList;
-import java.util.List;
+import javax.swing.Timer;
 
 /**
  * Plots a measurement over time.
+ * <br>
+ * The data points are stored in a buffer of bounded size. Once the buffer
+ * is full, the history gets downsampled when the number of points is
+ * unlimited. The plot gets redrawn on the Swing event dispatch thread at a
+ * limited frame rate, displaying the points downsampled to the specified
+ * number, so that the evaluation never waits for the plot.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -53,11 +59,29 @@ public class MeasurementPlot
 
   public IntOption maxPoints = new IntOption("maxPoints", 'p', "The maximum number of data points (< 1 unlimited)", -1, -1, Integer.MAX_VALUE);
 
-  /** the x data. */
-  protected List<Double> xData;
+  public IntOption historySize = new IntOption("historySize", 'b', "The number of data points to keep if unlimited, the history gets downsampled to half of it when exceeded", 10000, 3, Integer.MAX_VALUE);
 
-  /** the y data. */
-  protected List<Double> yData;
+  public IntOption displayPoints = new IntOption("displayPoints", 'd', "The maximum number of data points to display, downsampled if necessary (< 1 uses the width of the plot)", -1, -1, Integer.MAX_VALUE);
+
+  public IntOption maxFPS = new IntOption("maxFPS", 'f', "The maximum number of times per second to redraw the plot", 10, 1, 1000);
+
+  /** the data points. */
+  protected transient SeriesBuffer series;
+
+  /** for synchronizing access to the data points. */
+  protected transient Object lock;
+
+  /** whether the data points changed since the last redraw. */
+  protected transient boolean dirty;
+
+  /** whether the stream has completed. */
+  protected transient boolean completed;
+
+  /** the index of the measurement, -1 if not determined. */
+  protected transient int index;
+
+  /** the timer for redrawing the plot. */
+  protected transient Timer timer;
 
   /** the chart. */
   protected transient XYChart chart;
@@ -84,8 +108,25 @@ public class MeasurementPlot
   @Override
   protected void init() {
     super.init();
-    xData = new ArrayList<>();
-    yData = new ArrayList<>();
+    series    = null;
+    lock      = new Object();
+    dirty     = false;
+    completed = false;
+    index     = -1;
+  }
+
+  /**
+   * Locates the measurement.
+   *
+   * @param measurements the measurements to search
+   * @return the index, -1 if not found
+   */
+  protected int indexOf(Measurement[] measurements) {
+    for (int i = 0; i < measurements.length; i++) {
+      if (measurements[i].getName().equals(measurement.getValue()))
+	return i;
+    }
+    return -1;
   }
 
   /**
@@ -95,37 +136,82 @@ public class MeasurementPlot
    */
   @Override
   protected void doProcess(LearningEvaluation input) {
-    Double value = null;
-    for (Measurement m: input.getMeasurements()) {
-      if (m.getName().equals(measurement.getValue())) {
-        value = m.getValue();
-        break;
+    Measurement[]	measurements;
+
+    measurements = input.getMeasurements();
+    if ((index < 0) || (index >= measurements.length) || !measurements[index].getName().equals(measurement.getValue()))
+      index = indexOf(measurements);
+    if (index < 0)
+      return;
+
+    synchronized (lock) {
+      if (series == null) {
+	if (maxPoints.getValue() > 0)
+	  series = new SeriesBuffer(maxPoints.getValue(), true);
+	else
+	  series = new SeriesBuffer(historySize.getValue(), false);
       }
-    }
-    if (value != null) {
       xCounter++;
-      xData.add((double) xCounter);
-      yData.add(value);
+      series.add(xCounter, measurements[index].getValue());
+      dirty = true;
     }
-    if (maxPoints.getValue() > 0) {
-      while (xData.size() > maxPoints.getValue()) {
-        xData.remove(0);
-        yData.remove(0);
+
+    if (timer == null) {
+      timer = new Timer(1000 / maxFPS.getValue(), (e) -> redraw());
+      timer.setInitialDelay(0);
+      timer.start();
+    }
+  }
+
+  /**
+   * Updates the plot with the current data points, if they changed.
+   * Gets executed on the event dispatch thread.
+   */
+  protected void redraw() {
+    double[][]	data;
+
+    synchronized (lock) {
+      if (!dirty) {
+	if (completed)
+	  timer.stop();
+	return;
       }
+      dirty = false;
+      data  = series.toArrays((displayPoints.getValue() > 0) ? displayPoints.getValue() : width.getValue());
     }
 
-    if (chart == null) {
-      chart = new XYChart(width.getValue(), height.getValue());
-      chart.setTitle(title.getValue());
-      chart.setXAxisTitle(xAxis.getValue());
-      chart.setYAxisTitle(yAxis.getValue());
-      chart.addSeries(measurement.getValue(), xData, yData);
-      frame = new SwingWrapper(chart).displayChart();
-      frame.setTitle("Measurement plot");
+    try {
+      if (chart == null) {
+	chart = new XYChart(width.getValue(), height.getValue());
+	chart.setTitle(title.getValue());
+	chart.setXAxisTitle(xAxis.getValue());
+	chart.setYAxisTitle(yAxis.getValue());
+	chart.addSeries(measurement.getValue(), data[0], data[1]);
+	frame = new JFrame("Measurement plot");
+	frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+	frame.add(new XChartPanel<>(chart));
+	frame.pack();
+	frame.setVisible(true);
+      }
+      else {
+	chart.updateXYSeries(measurement.getValue(), data[0], data[1], null);
+	frame.repaint();
+      }
+    }
+    catch (Throwable t) {
+      timer.stop();
+      onError(t);
     }
-    else {
-      chart.updateXYSeries(measurement.getValue(), xData, yData, null);
-      frame.repaint();
+  }
+
+  /**
+   * Draws any outstanding data points before the redrawing stops.
+   */
+  @Override
+  public void onComplete() {
+    synchronized (lock) {
+      completed = true;
     }
+    super.onComplete();
   }
 }
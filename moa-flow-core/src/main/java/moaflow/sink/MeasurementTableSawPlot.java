@@ -22,16 +22,13 @@ package moaflow.sink;
 
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
-import com.yahoo.labs.samoa.instances.Instance;
-import moa.core.Example;
 import moa.core.Measurement;
 import moa.evaluation.LearningEvaluation;
-import moa.evaluation.LearningPerformanceEvaluator;
+import moaflow.core.SeriesBuffer;
 
 import java.util.Map;
 import java.util.UUID;
 
-import moa.evaluation.preview.LearningCurve;
 import tech.tablesaw.plotly.components.*;
 import tech.tablesaw.plotly.components.Figure;
 import tech.tablesaw.plotly.traces.ScatterTrace;
@@ -42,6 +39,11 @@ import static io.github.spencerpark.ijava.runtime.Display.*;
 /**
  * Plots a measurement over time. This class is used for plotting realtime chart
  * on web-browser using Jupyter Notebook and IJava
+ * <br>
+ * The data points are kept in a buffer of bounded size (the history gets
+ * downsampled if the number of points is unlimited). The chart gets redrawn
+ * at most once per interval, in place of the previous one, using the points
+ * downsampled to the specified number.
  *
  * @author Truong To (todinhtruong at gmail dot com)
  */
@@ -54,15 +56,62 @@ public class MeasurementTableSawPlot
 
     public IntOption maxPoints = new IntOption("maxPoints", 'p', "The maximum number of data points (< 1 unlimited)", -1, -1, Integer.MAX_VALUE);
 
+    public IntOption historySize = new IntOption("historySize", 'b', "The number of data points to keep if unlimited, the history gets downsampled to half of it when exceeded", 10000, 3, Integer.MAX_VALUE);
+
+    public IntOption displayPoints = new IntOption("displayPoints", 'd', "The maximum number of data points to display, downsampled if necessary (< 1 for all)", 1000, -1, Integer.MAX_VALUE);
+
+    public IntOption interval = new IntOption("interval", 'i', "The minimum time in msec between redrawing the chart", 1000, 0, Integer.MAX_VALUE);
+
+    /** whether the renderer has been registered with the kernel **/
+    protected static boolean registered;
+
     /** By default, plots the data at the column with index 4 **/
     int index = 4;
 
-    /** Stores the learning curve **/
-    protected LearningCurve learningCurve;
+    /** the title of the chart, the name of the measurement once found, otherwise the title option **/
+    protected transient String plotTitle;
+
+    /** whether the index of the measurement has been determined **/
+    protected transient boolean indexResolved;
+
+    /** the data points **/
+    protected transient SeriesBuffer series;
+
+    /** whether there are data points that haven't been drawn yet **/
+    protected transient boolean dirty;
+
+    /** the time the chart was last drawn **/
+    protected transient long lastDisplay;
+
+    /** the id of the output in the notebook, null if not displayed yet **/
+    protected transient String displayId;
 
     /** id of the chart**/
     protected String id = UUID.randomUUID().toString().replace("-", "");
 
+    /**
+     * Container for a figure and the id of the chart to render it into.
+     */
+    public static class PlotFigure {
+
+        /** the figure **/
+        public final Figure figure;
+
+        /** id of the chart **/
+        public final String id;
+
+        /**
+         * Initializes the container.
+         *
+         * @param figure the figure
+         * @param id the id of the chart
+         */
+        public PlotFigure(Figure figure, String id) {
+            this.figure = figure;
+            this.id = id;
+        }
+    }
+
     /**
      * Gets the purpose of this object
      *
@@ -79,30 +128,36 @@ public class MeasurementTableSawPlot
     @Override
     protected void init() {
         super.init();
-        learningCurve = new LearningCurve("learning evaluation instances");
+        indexResolved = false;
+        plotTitle = null;
+        series = null;
+        dirty = false;
+        lastDisplay = 0;
+        displayId = null;
     }
 
     /**
-     * For processing the received input.
+     * Registers the renderer for {@link PlotFigure} with the kernel, if not already done.
      * The code for rendering a chart in Jupyter Notebook and IJava is provided by SpencerPark - the author of IJava
      * https://stackoverflow.com/questions/54654434/how-to-embed-tablesaw-graph-in-jupyter-notebook-with-ijava-kernel?answertab=oldest#tab-top
-     * @param input the data to process
      */
-    @Override
-    protected void doProcess(Object input) {
+    protected static synchronized void registerRenderer() {
+        if (registered)
+            return;
+
         IJava.getKernelInstance().getRenderer()
-                .createRegistration(tech.tablesaw.plotly.components.Figure.class)
+                .createRegistration(PlotFigure.class)
                 .preferring(io.github.spencerpark.jupyter.kernel.display.mime.MIMEType.TEXT_HTML)
-                .register((figure, ctx) -> {
+                .register((plot, ctx) -> {
                     ctx.renderIfRequested(io.github.spencerpark.jupyter.kernel.display.mime.MIMEType.TEXT_HTML, () -> {
 
-                        figure.asJavascript(this.id);
-                        Map<String, Object> context = figure.getContext();
+                        plot.figure.asJavascript(plot.id);
+                        Map<String, Object> context = plot.figure.getContext();
 
                         StringBuilder html = new StringBuilder();
-                        html.append("<div id=\"").append(this.id).append("\"></div>\n");
+                        html.append("<div id=\"").append(plot.id).append("\"></div>\n");
                         html.append("<script>require(['https://cdn.plot.ly/plotly-1.44.4.min.js'], Plotly => {\n");
-                        html.append("var target_").append(this.id).append(" = document.getElementById('").append(this.id).append("');\n");
+                        html.append("var target_").append(plot.id).append(" = document.getElementById('").append(plot.id).append("');\n");
                         html.append(context.get("figure")).append('\n');
                         html.append(context.get("plotFunction")).append('\n');
                         html.append("})</script>\n");
@@ -110,26 +165,71 @@ public class MeasurementTableSawPlot
                     });
                 });
 
-        learningCurve.insertEntry((LearningEvaluation) input);
-        double[] xData = new double[learningCurve.numEntries()];
-        double[] yData = new double[learningCurve.numEntries()];
-        String[] hStr = learningCurve.headerToString().split(",");
-        for (int i =0; i<hStr.length;i++) {
-            if (hStr[i].equals(measurement.getValue())) {
-                title.setValue(measurement.getValue());
-                index = i;
-                break;
+        registered = true;
+    }
+
+    /**
+     * For processing the received input.
+     * Only appends the data point, the chart gets redrawn at most once per interval.
+     *
+     * @param input the data to process
+     */
+    @Override
+    protected void doProcess(Object input) {
+        Measurement[] measurements = ((LearningEvaluation) input).getMeasurements();
+
+        if (!indexResolved) {
+            for (int i = 0; i < measurements.length; i++) {
+                if (measurements[i].getName().equals(measurement.getValue())) {
+                    plotTitle = measurement.getValue();
+                    index = i;
+                    break;
+                }
             }
+            indexResolved = true;
         }
-
-        for (int i = 0; i < learningCurve.numEntries(); i++) {
-            String[] eStr = learningCurve.entryToString(i).split(",");
-            xData[i]= Double.valueOf(eStr[1]);
-            yData[i]= Double.valueOf(eStr[index]);
+        if (measurements.length <= Math.max(1, index))
+            return;
+
+        if (series == null) {
+            if (maxPoints.getValue() > 0)
+                series = new SeriesBuffer(maxPoints.getValue(), true);
+            else
+                series = new SeriesBuffer(historySize.getValue(), false);
         }
+        series.add(measurements[1].getValue(), measurements[index].getValue());
+        dirty = true;
 
-        Layout layout = Layout.builder().title(title.getValue()).build();
-        ScatterTrace trace = ScatterTrace.builder(xData, yData).mode(ScatterTrace.Mode.LINE).build();
-        display(new Figure(layout, trace), "text/html");
+        if (System.currentTimeMillis() - lastDisplay >= interval.getValue())
+            render();
+    }
+
+    /**
+     * Draws the chart, replacing the previous one.
+     */
+    protected void render() {
+        registerRenderer();
+
+        double[][] data = series.toArrays(displayPoints.getValue());
+        Layout layout = Layout.builder().title((plotTitle == null) ? title.getValue() : plotTitle).build();
+        ScatterTrace trace = ScatterTrace.builder(data[0], data[1]).mode(ScatterTrace.Mode.LINE).build();
+        PlotFigure plot = new PlotFigure(new Figure(layout, trace), id);
+        if (displayId == null)
+            displayId = display(plot, "text/html");
+        else
+            updateDisplay(displayId, plot, "text/html");
+
+        lastDisplay = System.currentTimeMillis();
+        dirty = false;
+    }
+
+    /**
+     * Draws any data points that haven't been drawn yet.
+     */
+    @Override
+    public void onComplete() {
+        if (dirty)
+            render();
+        super.onComplete();
     }
 }
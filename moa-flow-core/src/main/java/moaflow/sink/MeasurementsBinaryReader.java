@@ -0,0 +1,395 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MeasurementsBinaryReader.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the files generated by {@link MeasurementsToBinary}, providing
+ * random access to values and columns via memory-mapping. The blocks get
+ * mapped on demand. Files that are still being written can be read as well,
+ * with {@link #refresh()} updating the number of available rows.
+ * <br>
+ * Not thread-safe.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class MeasurementsBinaryReader
+  implements Closeable {
+
+  /** the file being read. */
+  protected File file;
+
+  /** the channel for reading the file. */
+  protected FileChannel channel;
+
+  /** the header. */
+  protected ByteBuffer header;
+
+  /** the names of the columns. */
+  protected String[] names;
+
+  /** the number of rows per block. */
+  protected int rowsPerBlock;
+
+  /** the offset of the first block. */
+  protected int dataOffset;
+
+  /** the number of rows. */
+  protected long numRows;
+
+  /** the mapped blocks, null if not mapped yet. */
+  protected List<DoubleBuffer> blocks;
+
+  /**
+   * Opens the file and reads the header.
+   *
+   * @param filename the file to read
+   * @throws IOException if opening fails or not a valid file
+   */
+  public MeasurementsBinaryReader(String filename) throws IOException {
+    this(new File(filename));
+  }
+
+  /**
+   * Opens the file and reads the header.
+   *
+   * @param file the file to read
+   * @throws IOException if opening fails or not a valid file
+   */
+  public MeasurementsBinaryReader(File file) throws IOException {
+    ByteBuffer	buffer;
+    byte[]	name;
+    int		i;
+
+    this.file    = file;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.blocks  = new ArrayList<>();
+    try {
+      buffer = ByteBuffer.allocate(MeasurementsToBinary.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(buffer, 0);
+      if (buffer.getInt(0) != MeasurementsToBinary.MAGIC)
+	throw new IOException("Not a binary measurements file: " + file);
+      if (buffer.getInt(4) != MeasurementsToBinary.VERSION)
+	throw new IOException("Unsupported version " + buffer.getInt(4) + ": " + file);
+      names        = new String[buffer.getInt(MeasurementsToBinary.POS_NUM_COLUMNS)];
+      rowsPerBlock = buffer.getInt(MeasurementsToBinary.POS_BLOCK_ROWS);
+      dataOffset   = buffer.getInt(MeasurementsToBinary.POS_DATA_OFFSET);
+
+      header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(header, 0);
+      header.position(MeasurementsToBinary.HEADER_SIZE);
+      for (i = 0; i < names.length; i++) {
+	name = new byte[header.getInt()];
+	header.get(name);
+	names[i] = new String(name, StandardCharsets.UTF_8);
+      }
+      numRows = header.getLong(MeasurementsToBinary.POS_NUM_ROWS);
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Fills the buffer from the specified position in the file.
+   *
+   * @param buffer the buffer to fill
+   * @param position the position in the file
+   * @throws IOException if reading fails or end of file reached
+   */
+  protected void readFully(ByteBuffer buffer, long position) throws IOException {
+    int		read;
+
+    buffer.clear();
+    while (buffer.hasRemaining()) {
+      read = channel.read(buffer, position + buffer.position());
+      if (read < 0)
+	throw new IOException("Premature end of file: " + file);
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Returns the file being read.
+   *
+   * @return the file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Re-reads the number of rows, for files that are still being written.
+   *
+   * @return the number of rows
+   * @throws IOException if reading fails
+   */
+  public long refresh() throws IOException {
+    ByteBuffer	buffer;
+
+    buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(buffer, MeasurementsToBinary.POS_NUM_ROWS);
+    numRows = buffer.getLong(0);
+    return numRows;
+  }
+
+  /**
+   * Returns the number of rows.
+   *
+   * @return the number of rows
+   */
+  public long getNumRows() {
+    return numRows;
+  }
+
+  /**
+   * Returns the number of columns.
+   *
+   * @return the number of columns
+   */
+  public int getNumColumns() {
+    return names.length;
+  }
+
+  /**
+   * Returns the name of the column.
+   *
+   * @param col the index of the column
+   * @return the name
+   */
+  public String getColumnName(int col) {
+    return names[col];
+  }
+
+  /**
+   * Returns the names of the columns.
+   *
+   * @return the names
+   */
+  public String[] getColumnNames() {
+    return names.clone();
+  }
+
+  /**
+   * Returns the index of the column.
+   *
+   * @param name the name of the column
+   * @return the index, -1 if not found
+   */
+  public int indexOf(String name) {
+    int		i;
+
+    for (i = 0; i < names.length; i++) {
+      if (names[i].equals(name))
+	return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the block, maps it if necessary.
+   *
+   * @param index the index of the block
+   * @return the block
+   * @throws IOException if mapping fails
+   */
+  protected DoubleBuffer getBlock(int index) throws IOException {
+    long	size;
+    DoubleBuffer	block;
+
+    while (blocks.size() <= index)
+      blocks.add(null);
+    block = blocks.get(index);
+    if (block == null) {
+      size  = MeasurementsToBinary.getBlockSize(rowsPerBlock, names.length);
+      block = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + index * size, size)
+	.order(ByteOrder.LITTLE_ENDIAN)
+	.asDoubleBuffer();
+      blocks.set(index, block);
+    }
+    return block;
+  }
+
+  /**
+   * Checks the row and column indices.
+   *
+   * @param col the index of the column
+   * @param from the first row (incl)
+   * @param to the last row (excl)
+   */
+  protected void check(int col, long from, long to) {
+    if ((col < 0) || (col >= names.length))
+      throw new IndexOutOfBoundsException("Invalid column: " + col);
+    if ((from < 0) || (to > numRows) || (from > to))
+      throw new IndexOutOfBoundsException("Invalid rows: " + from + "-" + to + " (available: " + numRows + ")");
+  }
+
+  /**
+   * Returns the value at the specified position.
+   *
+   * @param row the index of the row
+   * @param col the index of the column
+   * @return the value
+   * @throws IOException if mapping fails
+   */
+  public double getValue(long row, int col) throws IOException {
+    check(col, row, row + 1);
+    return getBlock((int) (row / rowsPerBlock)).get(col * rowsPerBlock + (int) (row % rowsPerBlock));
+  }
+
+  /**
+   * Returns the values of the row.
+   *
+   * @param row the index of the row
+   * @return the values
+   * @throws IOException if mapping fails
+   */
+  public double[] getRow(long row) throws IOException {
+    double[]	result;
+    DoubleBuffer	block;
+    int		offset;
+    int		i;
+
+    check(0, row, row + 1);
+    result = new double[names.length];
+    block  = getBlock((int) (row / rowsPerBlock));
+    offset = (int) (row % rowsPerBlock);
+    for (i = 0; i < result.length; i++)
+      result[i] = block.get(i * rowsPerBlock + offset);
+    return result;
+  }
+
+  /**
+   * Copies the values of the column for the specified range of rows.
+   *
+   * @param col the index of the column
+   * @param from the first row (incl)
+   * @param to the last row (excl)
+   * @param dest the array to copy the values to
+   * @param offset the offset in the array
+   * @throws IOException if mapping fails
+   */
+  public void getColumn(int col, long from, long to, double[] dest, int offset) throws IOException {
+    DoubleBuffer	block;
+    long	row;
+    int		start;
+    int		len;
+
+    check(col, from, to);
+    row = from;
+    while (row < to) {
+      start = (int) (row % rowsPerBlock);
+      len   = (int) Math.min(rowsPerBlock - start, to - row);
+      block = getBlock((int) (row / rowsPerBlock)).duplicate();
+      block.position(col * rowsPerBlock + start);
+      block.get(dest, offset, len);
+      offset += len;
+      row    += len;
+    }
+  }
+
+  /**
+   * Returns the values of the column for the specified range of rows.
+   *
+   * @param col the index of the column
+   * @param from the first row (incl)
+   * @param to the last row (excl)
+   * @return the values
+   * @throws IOException if mapping fails
+   */
+  public double[] getColumn(int col, long from, long to) throws IOException {
+    double[]	result;
+
+    check(col, from, to);
+    if (to - from > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException("Too many rows for an array: " + (to - from));
+    result = new double[(int) (to - from)];
+    getColumn(col, from, to, result, 0);
+    return result;
+  }
+
+  /**
+   * Returns all the values of the column.
+   *
+   * @param col the index of the column
+   * @return the values
+   * @throws IOException if mapping fails
+   */
+  public double[] getColumn(int col) throws IOException {
+    return getColumn(col, 0, numRows);
+  }
+
+  /**
+   * Closes the file.
+   *
+   * @throws IOException if closing fails
+   */
+  @Override
+  public void close() throws IOException {
+    blocks.clear();
+    channel.close();
+  }
+
+  /**
+   * Outputs the file as CSV on stdout.
+   *
+   * @param args the file to output
+   * @throws Exception if reading fails
+   */
+  public static void main(String[] args) throws Exception {
+    StringBuilder	line;
+    long		row;
+    double[]		values;
+    int			i;
+
+    if (args.length != 1) {
+      System.err.println("Usage: " + MeasurementsBinaryReader.class.getName() + " <file>");
+      System.exit(1);
+    }
+
+    try (MeasurementsBinaryReader reader = new MeasurementsBinaryReader(args[0])) {
+      System.out.println(String.join(",", reader.getColumnNames()));
+      line = new StringBuilder();
+      for (row = 0; row < reader.getNumRows(); row++) {
+	values = reader.getRow(row);
+	line.setLength(0);
+	for (i = 0; i < values.length; i++) {
+	  if (i > 0)
+	    line.append(",");
+	  line.append(values[i]);
+	}
+	System.out.println(line);
+      }
+    }
+  }
+}
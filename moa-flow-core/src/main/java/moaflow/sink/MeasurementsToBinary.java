@@ -0,0 +1,307 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MeasurementsToBinary.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import moa.core.Measurement;
+import moa.evaluation.LearningEvaluation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes measurements to a columnar binary file, which avoids formatting
+ * the values as text. Use {@link MeasurementsBinaryReader} for reading them.
+ * <br>
+ * The file uses little-endian byte order. It starts with a header of
+ * {@link #HEADER_SIZE} bytes:
+ * <ul>
+ *   <li>int: magic number {@link #MAGIC}</li>
+ *   <li>int: format version {@link #VERSION}</li>
+ *   <li>long: number of rows written so far</li>
+ *   <li>int: number of columns</li>
+ *   <li>int: number of rows per block</li>
+ *   <li>int: offset of the first block</li>
+ *   <li>int: reserved</li>
+ * </ul>
+ * This is followed by the measurement names (int: number of bytes, UTF-8
+ * bytes), padded to a multiple of 8 bytes. The values are stored in blocks
+ * of fixed size. Each block contains the specified number of rows, stored
+ * column by column as doubles, i.e., the value of row r and column c is
+ * located at: offset + (r / rows) * (rows * columns * 8) + (c * rows + r % rows) * 8.
+ * The last block is always allocated fully, the number of rows in the header
+ * determines how much of it is in use.
+ * <br>
+ * The blocks get appended via memory-mapping, with the row count in the
+ * header updated after each row.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class MeasurementsToBinary
+  extends AbstractSink<LearningEvaluation> {
+
+  /** the magic number identifying the format ("MFMB"). */
+  public static final int MAGIC = 0x424D464D;
+
+  /** the version of the format. */
+  public static final int VERSION = 1;
+
+  /** the size of the fixed part of the header. */
+  public static final int HEADER_SIZE = 32;
+
+  /** the position of the number of rows in the header. */
+  public static final int POS_NUM_ROWS = 8;
+
+  /** the position of the number of columns in the header. */
+  public static final int POS_NUM_COLUMNS = 16;
+
+  /** the position of the number of rows per block in the header. */
+  public static final int POS_BLOCK_ROWS = 20;
+
+  /** the position of the offset of the first block in the header. */
+  public static final int POS_DATA_OFFSET = 24;
+
+  public FileOption outputFile = new FileOption("outputFile", 'f', "The file to output the measurements to", ".", ".bin", true);
+
+  public IntOption blockRows = new IntOption("blockRows", 'b', "The number of rows per block, i.e., the number of rows that the file grows by", 4096, 1, Integer.MAX_VALUE);
+
+  /** the actual output file. */
+  protected transient File actualOutputFile;
+
+  /** the channel for writing the file, null if not opened yet. */
+  protected transient FileChannel channel;
+
+  /** the header. */
+  protected transient MappedByteBuffer header;
+
+  /** the current block. */
+  protected transient MappedByteBuffer block;
+
+  /** the offset of the first block. */
+  protected transient int dataOffset;
+
+  /** the number of columns. */
+  protected transient int numColumns;
+
+  /** the number of rows per block. */
+  protected transient int rowsPerBlock;
+
+  /** the number of rows written. */
+  protected transient long numRows;
+
+  /** whether writing failed, in which case further rows get discarded. */
+  protected transient boolean failed;
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Stores the measures in the specified columnar binary file.";
+  }
+
+  /**
+   * For initializing members.
+   */
+  @Override
+  protected void init() {
+    super.init();
+    actualOutputFile = null;
+    channel          = null;
+    header           = null;
+    block            = null;
+    failed           = false;
+  }
+
+  /**
+   * Returns the size of a block in bytes.
+   *
+   * @param rows the number of rows per block
+   * @param columns the number of columns
+   * @return the size
+   */
+  public static long getBlockSize(int rows, int columns) {
+    return (long) rows * columns * 8;
+  }
+
+  /**
+   * Opens the output file, replacing any existing one, and writes the header.
+   *
+   * @param measurements the measurements to obtain the column names from
+   * @throws IOException if opening fails
+   */
+  protected void open(Measurement[] measurements) throws IOException {
+    byte[][]	names;
+    int		size;
+    int		i;
+    ByteBuffer	buffer;
+
+    numColumns   = measurements.length;
+    rowsPerBlock = blockRows.getValue();
+    numRows      = 0;
+    if (getBlockSize(rowsPerBlock, numColumns) > Integer.MAX_VALUE)
+      throw new IllegalStateException("Block too large, reduce the number of rows per block: " + rowsPerBlock);
+
+    names = new byte[numColumns][];
+    size  = HEADER_SIZE;
+    for (i = 0; i < numColumns; i++) {
+      names[i] = measurements[i].getName().getBytes(StandardCharsets.UTF_8);
+      size    += 4 + names[i].length;
+    }
+    dataOffset = (size + 7) / 8 * 8;
+
+    buffer = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putLong(0);
+    buffer.putInt(numColumns);
+    buffer.putInt(rowsPerBlock);
+    buffer.putInt(dataOffset);
+    buffer.putInt(0);
+    for (i = 0; i < numColumns; i++) {
+      buffer.putInt(names[i].length);
+      buffer.put(names[i]);
+    }
+    buffer.rewind();
+
+    channel = FileChannel.open(actualOutputFile.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+      StandardOpenOption.READ, StandardOpenOption.WRITE);
+    channel.write(buffer, 0);
+    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Maps the block that the next row goes into, growing the file.
+   *
+   * @throws IOException if mapping fails
+   */
+  protected void nextBlock() throws IOException {
+    long	size;
+
+    if (block != null)
+      block.force();
+    size  = getBlockSize(rowsPerBlock, numColumns);
+    block = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + (numRows / rowsPerBlock) * size, size);
+    block.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Flushes and closes the output, if open.
+   *
+   * @throws IOException if closing fails
+   */
+  protected void close() throws IOException {
+    if (channel == null)
+      return;
+    try {
+      if (block != null)
+	block.force();
+      header.force();
+      channel.close();
+    }
+    finally {
+      channel = null;
+      header  = null;
+      block   = null;
+    }
+  }
+
+  /**
+   * For processing the received input.
+   *
+   * @param input the data to process
+   */
+  @Override
+  protected void doProcess(LearningEvaluation input) {
+    Measurement[]	measurements;
+    int			row;
+    int			i;
+
+    if (failed)
+      return;
+    if (actualOutputFile == null)
+      actualOutputFile = outputFile.getFile();
+    if (actualOutputFile.isDirectory())
+      throw new IllegalStateException("Output file is a directory: " + outputFile);
+
+    measurements = input.getMeasurements();
+    try {
+      if (channel == null)
+	open(measurements);
+      if (measurements.length != numColumns)
+	throw new IllegalStateException("Number of measurements differs: " + measurements.length + " != " + numColumns);
+
+      row = (int) (numRows % rowsPerBlock);
+      if (row == 0)
+	nextBlock();
+      for (i = 0; i < numColumns; i++)
+	block.putDouble((i * rowsPerBlock + row) * 8, measurements[i].getValue());
+      numRows++;
+      header.putLong(POS_NUM_ROWS, numRows);
+    }
+    catch (Exception e) {
+      onError(new Exception("Failed to write measurements to: " + outputFile, e));
+    }
+  }
+
+  /**
+   * Closes the output.
+   *
+   * @param throwable the exception
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    failed = true;
+    try {
+      close();
+    }
+    catch (Exception e) {
+      // ignored
+    }
+    super.onError(throwable);
+  }
+
+  /**
+   * Closes the output.
+   */
+  @Override
+  public void onComplete() {
+    try {
+      close();
+    }
+    catch (Exception e) {
+      onError(new Exception("Failed to write measurements to: " + outputFile, e));
+      return;
+    }
+    super.onComplete();
+  }
+}
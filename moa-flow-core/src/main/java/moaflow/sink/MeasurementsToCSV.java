@@ -21,15 +21,28 @@
 package moaflow.sink;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
+import moa.core.Measurement;
 import moa.evaluation.LearningEvaluation;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Writes measurements to a CSV file.
+ * <br>
+ * The file is kept open for the whole run and the buffered rows get flushed
+ * every n rows and/or after the specified time, as well as when the stream
+ * completes.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -40,12 +53,27 @@ public class MeasurementsToCSV
 
   public StringOption separator = new StringOption("separator", 's', "The separator to use for the cells", ",");
 
-  /** whether this is the first output. */
-  protected boolean first;
+  public IntOption flushRows = new IntOption("flushRows", 'n', "Flushes the output after this many rows (0 = only when the buffer is full)", 100, 0, Integer.MAX_VALUE);
+
+  public IntOption flushInterval = new IntOption("flushInterval", 'i', "Flushes the output when a row arrives and this many msec have passed since the last flush (0 = no time-based flushing)", 1000, 0, Integer.MAX_VALUE);
+
+  public FlagOption gzip = new FlagOption("gzip", 'g', "If set, the output gets compressed with GZIP (flushed data remains readable)");
 
   /** the actual output file. */
   protected transient File actualOutputFile;
 
+  /** the writer for the output, null if not opened yet. */
+  protected transient Writer writer;
+
+  /** the number of rows since the last flush. */
+  protected transient int rowsSinceFlush;
+
+  /** the time of the last flush. */
+  protected transient long lastFlush;
+
+  /** whether writing failed, in which case further rows get discarded. */
+  protected transient boolean failed;
+
   /**
    * Gets the purpose of this object
    *
@@ -62,8 +90,72 @@ public class MeasurementsToCSV
   @Override
   protected void init() {
     super.init();
-    first = true;
     actualOutputFile = null;
+    writer           = null;
+    failed           = false;
+  }
+
+  /**
+   * Opens the output file, replacing any existing one, and writes the header.
+   *
+   * @param measurements the measurements to obtain the column names from
+   * @throws IOException if opening fails
+   */
+  protected void open(Measurement[] measurements) throws IOException {
+    OutputStream	out;
+
+    out = new FileOutputStream(actualOutputFile);
+    if (gzip.isSet())
+      out = new GZIPOutputStream(out, 65536, true);
+    writer = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), 65536);
+
+    for (int i = 0; i < measurements.length; i++) {
+      if (i > 0)
+	writer.write(separator.getValue());
+      writer.write(measurements[i].getName());
+    }
+    writer.write("\n");
+
+    rowsSinceFlush = 0;
+    lastFlush      = System.currentTimeMillis();
+  }
+
+  /**
+   * Flushes the output if enough rows were written or enough time has passed.
+   *
+   * @throws IOException if flushing fails
+   */
+  protected void flushIfNecessary() throws IOException {
+    boolean	flush;
+    long	now;
+
+    rowsSinceFlush++;
+    flush = (flushRows.getValue() > 0) && (rowsSinceFlush >= flushRows.getValue());
+    if (!flush && (flushInterval.getValue() > 0)) {
+      now   = System.currentTimeMillis();
+      flush = (now - lastFlush >= flushInterval.getValue());
+    }
+    if (flush) {
+      writer.flush();
+      rowsSinceFlush = 0;
+      lastFlush      = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Flushes and closes the output, if open.
+   *
+   * @throws IOException if closing fails
+   */
+  protected void close() throws IOException {
+    if (writer == null)
+      return;
+    try {
+      writer.close();
+    }
+    finally {
+      writer = null;
+    }
   }
 
   /**
@@ -73,44 +165,64 @@ public class MeasurementsToCSV
    */
   @Override
   protected void doProcess(LearningEvaluation input) {
+    Measurement[]	measurements;
+
+    if (failed)
+      return;
     if (actualOutputFile == null)
       actualOutputFile = outputFile.getFile();
     if (actualOutputFile.isDirectory())
       throw new IllegalStateException("Output file is a directory: " + outputFile);
 
-    StringBuilder content = new StringBuilder();
-
-    if (first) {
-      if (actualOutputFile.exists()) {
-        if (!actualOutputFile.delete())
-          System.out.println("Failed to delete existing output file: " + outputFile);
-      }
-      first = false;
-    }
+    measurements = input.getMeasurements();
+    try {
+      if (writer == null)
+	open(measurements);
 
-    // header?
-    if (!actualOutputFile.exists()) {
-      for (int i = 0; i < input.getMeasurements().length; i++) {
+      // values
+      for (int i = 0; i < measurements.length; i++) {
 	if (i > 0)
-	  content.append(separator.getValue());
-	content.append(input.getMeasurements()[i].getName());
+	  writer.write(separator.getValue());
+	writer.write(Double.toString(measurements[i].getValue()));
       }
-      content.append("\n");
+      writer.write("\n");
+
+      flushIfNecessary();
+    }
+    catch (Exception e) {
+      onError(new Exception("Failed to write measurements to: " + outputFile, e));
     }
+  }
 
-    // values
-    for (int i = 0; i < input.getMeasurements().length; i++) {
-      if (i > 0)
-	content.append(separator.getValue());
-      content.append(input.getMeasurements()[i].getValue());
+  /**
+   * Closes the output, writing the buffered rows.
+   *
+   * @param throwable the exception
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    failed = true;
+    try {
+      close();
     }
-    content.append("\n");
+    catch (Exception e) {
+      // ignored
+    }
+    super.onError(throwable);
+  }
 
+  /**
+   * Closes the output, writing the buffered rows.
+   */
+  @Override
+  public void onComplete() {
     try {
-      Files.write(actualOutputFile.toPath(), content.toString().getBytes(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      close();
     }
     catch (Exception e) {
       onError(new Exception("Failed to write measurements to: " + outputFile, e));
+      return;
     }
+    super.onComplete();
   }
 }
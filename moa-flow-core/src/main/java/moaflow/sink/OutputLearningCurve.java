@@ -20,28 +20,47 @@
 
 package moaflow.sink;
 
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.StringOption;
+import moa.core.Measurement;
 import moa.evaluation.LearningEvaluation;
 import moa.evaluation.preview.LearningCurve;
 
-import java.util.concurrent.TimeUnit;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 /**
  * Outputs the whole learning curve of MOA in the table format
+ * <br>
+ * The rows get formatted into a reusable buffer and written to stdout via
+ * a buffered writer. With an interval, at most one row per interval gets
+ * output (plus the last one when the stream completes). The learning curve
+ * itself only gets stored if requested.
  *
  * @author Truong To (todinhtruong at gmail dot com)
  */
 public class OutputLearningCurve
         extends AbstractSink<Object> {
 
+    /** the minimum time in msec between flushing the output, when outputting all rows. */
+    public static final int FLUSH_INTERVAL = 1000;
+
     public IntOption everyNth = new IntOption("everyNth", 'n', "Every n-th object will get output on the console", 1, 1, Integer.MAX_VALUE);
 
     public StringOption outputSeparator = new StringOption("outputSeparator", 's', "The separator to use between outputs", "");
 
+    public IntOption interval = new IntOption("interval", 'i', "The minimum time in msec between outputting rows (0 = output all rows)", 0, 0, Integer.MAX_VALUE);
+
+    public FlagOption keepHistory = new FlagOption("keepHistory", 'k', "If set, the whole learning curve gets stored, see getLearningCurve()");
+
     /** the counter for the objects. */
     protected int counter;
 
+    /** the learning curve, only used if history is kept. */
     protected LearningCurve learningCurve;
 
     protected boolean first;
@@ -49,6 +68,25 @@ public class OutputLearningCurve
     /** the table form object**/
 
     protected DrawTable table;
+
+    /** the values of the current row. */
+    protected transient double[] values;
+
+    /** whether the current row hasn't been output yet. */
+    protected transient boolean pending;
+
+    /** the time the last row was output. */
+    protected transient long lastOutput;
+
+    /** the buffer for formatting the output. */
+    protected transient StringBuilder buffer;
+
+    /** the time the output was last flushed. */
+    protected transient long lastFlush;
+
+    /** the writer for stdout, null if not created yet. */
+    protected transient Writer out;
+
     /**
      * For initializing members.
      */
@@ -59,6 +97,11 @@ public class OutputLearningCurve
         learningCurve = new LearningCurve("learning evaluation instances");
         first = true;
         table = new DrawTable();
+        values = null;
+        pending = false;
+        buffer = new StringBuilder();
+        lastFlush = 0;
+        out = null;
     }
 
     /**
@@ -71,6 +114,15 @@ public class OutputLearningCurve
         return "Outputs the objects it receives on stdout";
     }
 
+    /**
+     * Returns the learning curve, only filled if history is kept.
+     *
+     * @return the learning curve
+     */
+    public LearningCurve getLearningCurve() {
+        return learningCurve;
+    }
+
     /**
      * For processing the received input.
      *
@@ -78,21 +130,75 @@ public class OutputLearningCurve
      */
     protected void doProcess(Object input) {
         counter++;
-        if (counter == everyNth.getValue()) {
-            learningCurve.insertEntry((LearningEvaluation) input);
-            if (first) {
-                /** delays outputting the table 1 second to print out the chart first **/
-                try {
-                    TimeUnit.MILLISECONDS.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                System.out.print(table.headerLine(learningCurve.headerToString()));
-                first = false;
+        if (counter < everyNth.getValue())
+            return;
+        counter = 0;
+
+        LearningEvaluation evaluation = (LearningEvaluation) input;
+        if (keepHistory.isSet())
+            learningCurve.insertEntry(evaluation);
+
+        Measurement[] measurements = evaluation.getMeasurements();
+        if (first) {
+            String[] names = new String[measurements.length];
+            for (int i = 0; i < measurements.length; i++)
+                names[i] = measurements[i].getName();
+            buffer.append(table.headerLine(names));
+        }
+        if ((values == null) || (values.length != measurements.length))
+            values = new double[measurements.length];
+        for (int i = 0; i < measurements.length; i++)
+            values[i] = measurements[i].getValue();
+        pending = true;
+
+        long now = System.currentTimeMillis();
+        if (first || (interval.getValue() == 0) || (now - lastOutput >= interval.getValue())) {
+            output();
+            lastOutput = now;
+        }
+        first = false;
+    }
+
+    /**
+     * Outputs the current row, along with anything else in the buffer.
+     * The output gets flushed at most once per interval (at least
+     * {@link #FLUSH_INTERVAL} msec apart) and on completion.
+     */
+    protected void output() {
+        table.bodyLine(values, buffer);
+        pending = false;
+        try {
+            if (out == null)
+                out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), 65536);
+            out.append(buffer);
+            long now = System.currentTimeMillis();
+            if (now - lastFlush >= Math.max(interval.getValue(), FLUSH_INTERVAL)) {
+                out.flush();
+                lastFlush = now;
             }
-            System.out.print(table.bodyLine(learningCurve.entryToString(learningCurve.numEntries()-1)));
-            counter = 0;
         }
-        counter = 0;
+        catch (IOException e) {
+            onError(e);
+        }
+        buffer.setLength(0);
+    }
+
+    /**
+     * Outputs the last row, if it hasn't been output yet, and flushes the output.
+     */
+    @Override
+    public void onComplete() {
+        if (pending)
+            output();
+        if (out != null) {
+            try {
+                out.flush();
+            }
+            catch (IOException e) {
+                onError(e);
+                return;
+            }
+        }
+        super.onComplete();
     }
 }
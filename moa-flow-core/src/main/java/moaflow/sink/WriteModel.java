@@ -21,29 +21,107 @@
 package moaflow.sink;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import moa.core.Example;
 import moa.learners.Learner;
-import weka.core.SerializationHelper;
+import moaflow.core.ExecutorUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Stores the model on disk.
+ * <br>
+ * The models get serialized and written by a background thread. If a newer
+ * model arrives before the previous one got written, only the newer one gets
+ * written. The sink completes once the last model has been written.
+ * <br>
+ * Writes can be made atomic (temp file and rename), rate-limited (minimum
+ * interval and/or maximum throughput, coalescing the models in between),
+ * compressed (use {@link #readModel(String)} for reading such files) and
+ * previous versions can be kept, named after their sequence number, e.g.,
+ * "model-000041.model" for "model.model".
+ * <br>
+ * Models get serialized while synchronized on them, as publishers like
+ * {@link moaflow.transformer.TrainClassifier} and {@link moaflow.transformer.TrainRegressor}
+ * keep training the forwarded model while synchronized on it. In order to
+ * not block the training while writing, either use the snapshot option of
+ * the publisher or the one of this sink (not both, as the model would get
+ * copied twice).
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public class WriteModel
   extends AbstractSink<Learner<Example<Instance>>> {
 
+  /** no compression. */
+  public static final int COMPRESSION_NONE = 0;
+
+  /** GZIP compression. */
+  public static final int COMPRESSION_GZIP = 1;
+
+  /** deflate compression. */
+  public static final int COMPRESSION_DEFLATE = 2;
+
   public FileOption modelFile = new FileOption("modelFile", 'f', "The file to write the model to", ".", ".model", true);
 
-  /** the learner that was last received. */
-  protected transient Learner<Example<Instance>> model;
+  public FlagOption snapshot = new FlagOption("snapshot", 's', "If set, copies the incoming model (synchronized on it) before handing it to the background thread, for publishers that keep modifying the model");
+
+  public FlagOption atomic = new FlagOption("atomic", 'a', "If set, writes the model to a temporary file first and then renames it, so that readers never see a partially written model");
+
+  public IntOption minInterval = new IntOption("minInterval", 'i', "The minimum time in msec between writes, only the most recent model gets written (0 = no limit)", 0, 0, Integer.MAX_VALUE);
+
+  public IntOption maxThroughput = new IntOption("maxThroughput", 'r', "The maximum average write rate in KB/sec, delaying the next write according to the size of the previous one (0 = no limit)", 0, 0, Integer.MAX_VALUE);
+
+  public MultiChoiceOption compression = new MultiChoiceOption("compression", 'c', "The compression to apply", new String[]{"None", "GZIP", "Deflate"}, new String[]{"No compression", "GZIP compression", "Deflate (zlib) compression"}, COMPRESSION_NONE);
+
+  public IntOption retention = new IntOption("retention", 'n', "The number of previous versions to keep, named after their sequence number (0 = overwrite)", 0, 0, Integer.MAX_VALUE);
+
+  /** the model waiting to be written, null if none. */
+  protected transient AtomicReference<Learner<Example<Instance>>> latest;
+
+  /** the background thread writing the models. */
+  protected transient ExecutorService writer;
 
   /** the actual model file. */
   protected transient File actualModelFile;
 
+  /** the sequence number of the last write. */
+  protected transient int sequence;
+
+  /** the earliest time for the next write. */
+  protected transient long nextWrite;
+
+  /** whether to write the remaining model without waiting. */
+  protected transient boolean flushing;
+
+  /** for waiting between writes. */
+  protected transient Object flushLock;
+
+  /** whether writing failed, in which case further models get discarded. */
+  protected transient volatile boolean failed;
+
   /**
    * Gets the purpose of this object
    *
@@ -60,7 +138,13 @@ public class WriteModel
   @Override
   protected void init() {
     super.init();
-    model = null;
+    latest    = new AtomicReference<>();
+    writer    = null;
+    sequence  = 0;
+    nextWrite = 0;
+    flushing  = false;
+    flushLock = new Object();
+    failed    = false;
   }
 
   /**
@@ -69,24 +153,258 @@ public class WriteModel
    * @param input the data to process
    */
   @Override
+  @SuppressWarnings("unchecked")
   protected void doProcess(Learner<Example<Instance>> input) {
-    model = input;
+    Learner<Example<Instance>>	model;
+
+    if (failed)
+      return;
+
     if (actualModelFile == null)
       actualModelFile = modelFile.getFile();
 
-    if (!actualModelFile.isDirectory()) {
-      synchronized (model) {
+    if (actualModelFile.isDirectory()) {
+      failed = true;
+      onError(new IllegalStateException("Model file points to directory: " + modelFile.getValue()));
+      return;
+    }
+
+    if (writer == null)
+      writer = ExecutorUtils.newFixedPool(1, "moaflow-" + getClass().getSimpleName());
+
+    if (snapshot.isSet()) {
+      synchronized (input) {
+	model = (Learner<Example<Instance>>) input.copy();
+      }
+    }
+    else {
+      model = input;
+    }
+    // only schedule a write if there is none pending, otherwise the pending one picks up this model
+    if (latest.getAndSet(model) == null)
+      writer.execute(this::writeLatest);
+  }
+
+  /**
+   * Writes the most recent model, if any. Gets called by the background thread.
+   */
+  protected void writeLatest() {
+    Learner<Example<Instance>>	model;
+    long			size;
+    long			delay;
+
+    awaitNextWrite();
+    model = latest.getAndSet(null);
+    if ((model == null) || failed)
+      return;
+    try {
+      size  = write(model);
+      delay = minInterval.getValue();
+      if (maxThroughput.getValue() > 0)
+	delay = Math.max(delay, size * 1000 / (maxThroughput.getValue() * 1024L));
+      nextWrite = System.currentTimeMillis() + delay;
+      System.out.println("Model written to: " + modelFile.getValue());
+    }
+    catch (Exception e) {
+      failed = true;
+      onError(new Exception("Failed to write model to: " + modelFile.getValue(), e));
+    }
+  }
+
+  /**
+   * Waits until the next write is allowed, unless flushing. Newer models
+   * replace the pending one in the meantime.
+   */
+  protected void awaitNextWrite() {
+    long	wait;
+
+    synchronized (flushLock) {
+      wait = nextWrite - System.currentTimeMillis();
+      while (!flushing && (wait > 0)) {
 	try {
-	  SerializationHelper.write(actualModelFile.getAbsolutePath(), model);
-	  System.out.println("Model written to: " + modelFile.getValue());
+	  flushLock.wait(wait);
 	}
-	catch (Exception e) {
-	  onError(new Exception("Failed to write model to: " + modelFile.getValue(), e));
+	catch (InterruptedException e) {
+	  return;
 	}
+	wait = nextWrite - System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+   * Returns the file for the specified version of the model.
+   *
+   * @param seq the sequence number
+   * @return the file
+   */
+  protected File getVersionFile(int seq) {
+    String	name;
+    int		pos;
+
+    name = actualModelFile.getName();
+    pos  = name.lastIndexOf('.');
+    if (pos > 0)
+      name = name.substring(0, pos) + String.format("-%06d", seq) + name.substring(pos);
+    else
+      name = name + String.format("-%06d", seq);
+
+    return new File(actualModelFile.getAbsoluteFile().getParentFile(), name);
+  }
+
+  /**
+   * Keeps the current model file as version, if versions are to be kept,
+   * and removes the versions that are too old.
+   *
+   * @param replace whether the model file gets replaced afterwards, i.e., a link suffices
+   * @throws IOException if rotating fails
+   */
+  protected void rotate(boolean replace) throws IOException {
+    File	version;
+
+    if ((retention.getValue() == 0) || (sequence < 2) || !actualModelFile.exists())
+      return;
+
+    version = getVersionFile(sequence - 1);
+    Files.deleteIfExists(version.toPath());
+    if (replace) {
+      try {
+	// the model file stays in place until it gets replaced
+	Files.createLink(version.toPath(), actualModelFile.toPath());
+      }
+      catch (IOException | UnsupportedOperationException e) {
+	Files.move(actualModelFile.toPath(), version.toPath());
       }
     }
     else {
-      onError(new IllegalStateException("Model file points to directory: " + modelFile.getValue()));
+      Files.move(actualModelFile.toPath(), version.toPath());
+    }
+
+    if (sequence - 1 - retention.getValue() > 0)
+      Files.deleteIfExists(getVersionFile(sequence - 1 - retention.getValue()).toPath());
+  }
+
+  /**
+   * Opens the stream for writing the model, applying compression if necessary.
+   *
+   * @param file the file to write to
+   * @return the stream
+   * @throws IOException if opening fails
+   */
+  protected OutputStream openStream(File file) throws IOException {
+    OutputStream	result;
+
+    result = new BufferedOutputStream(new FileOutputStream(file), 65536);
+    switch (compression.getChosenIndex()) {
+      case COMPRESSION_GZIP:
+	result = new GZIPOutputStream(result, 65536);
+	break;
+      case COMPRESSION_DEFLATE:
+	result = new DeflaterOutputStream(result);
+	break;
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the model to the model file.
+   *
+   * @param model the model to write
+   * @return the number of bytes written
+   * @throws Exception if writing fails
+   */
+  protected long write(Learner<Example<Instance>> model) throws Exception {
+    File	target;
+
+    sequence++;
+    if (atomic.isSet())
+      target = File.createTempFile("." + actualModelFile.getName() + "-", ".tmp", actualModelFile.getAbsoluteFile().getParentFile());
+    else
+      target = actualModelFile;
+
+    try {
+      if (!atomic.isSet())
+	rotate(false);
+      try (ObjectOutputStream oos = new ObjectOutputStream(openStream(target))) {
+	synchronized (model) {
+	  oos.writeObject(model);
+	}
+      }
+      if (atomic.isSet()) {
+	rotate(true);
+	try {
+	  Files.move(target.toPath(), actualModelFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	catch (AtomicMoveNotSupportedException e) {
+	  Files.move(target.toPath(), actualModelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+      }
+    }
+    finally {
+      if (atomic.isSet())
+	Files.deleteIfExists(target.toPath());
+    }
+
+    return actualModelFile.length();
+  }
+
+  /**
+   * Reads a model written by this sink, detecting the compression.
+   *
+   * @param filename the file to read
+   * @return the model
+   * @throws Exception if reading fails
+   */
+  public static Object readModel(String filename) throws Exception {
+    InputStream		in;
+    int			b0;
+    int			b1;
+
+    in = new BufferedInputStream(new FileInputStream(filename), 65536);
+    try {
+      in.mark(2);
+      b0 = in.read();
+      b1 = in.read();
+      in.reset();
+      if ((b0 == 0x1f) && (b1 == 0x8b))
+	in = new GZIPInputStream(in, 65536);
+      else if (((b0 & 0x0f) == 8) && (((b0 << 8) | b1) % 31 == 0))
+	in = new InflaterInputStream(in);
+      try (ObjectInputStream ois = new ObjectInputStream(in)) {
+	return ois.readObject();
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Waits for the background thread to write the remaining model.
+   */
+  protected void awaitWriter() {
+    if (writer == null)
+      return;
+    writer.shutdown();
+    try {
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      // ignored
+    }
+  }
+
+  /**
+   * Waits for the remaining model to be written, before completing.
+   */
+  @Override
+  public void onComplete() {
+    synchronized (flushLock) {
+      flushing = true;
+      flushLock.notifyAll();
     }
+    awaitWriter();
+    super.onComplete();
   }
 }
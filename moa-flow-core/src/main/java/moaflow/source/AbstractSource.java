@@ -20,16 +20,37 @@
 
 package moaflow.source;
 
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
 import moaflow.core.AbstractOperator;
+import moaflow.core.Batch;
+import moaflow.core.ExecutorUtils;
 import moaflow.core.SubscriberManager;
 import moaflow.core.Utils;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
 import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Ancestor for sources.
+ * <br>
+ * With a prefetch depth, the data gets generated by a background thread into
+ * a bounded buffer, from which the thread that started the source publishes
+ * it. The data gets handed over in chunks, to keep the synchronization
+ * overhead low. That way, publishing does not have to wait for slow items to get
+ * generated (as long as the buffer has data) and the generation does not have
+ * to wait for the subscribers (as long as the buffer has space).
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -37,12 +58,76 @@ public abstract class AbstractSource<O>
   extends AbstractOperator
   implements SubscriberManager<O> {
 
+  public MultiChoiceOption executor = new MultiChoiceOption("executor", 'E', "The executor for delivering the data to the subscribers", ExecutorUtils.EXECUTOR_LABELS, ExecutorUtils.EXECUTOR_DESCRIPTIONS, ExecutorUtils.COMMON_POOL);
+
+  public IntOption numThreads = new IntOption("numThreads", 'T', "The number of threads for the Fixed and Shared executors", Runtime.getRuntime().availableProcessors(), 1, Integer.MAX_VALUE);
+
+  public StringOption poolName = new StringOption("poolName", 'P', "The name of the pool for the Shared executor", "default");
+
+  public IntOption maxBufferCapacity = new IntOption("maxBufferCapacity", 'B', "The maximum number of buffered data items per subscriber (rounded up to power of 2)", Flow.defaultBufferSize(), 1, Integer.MAX_VALUE);
+
+  public FlagOption fuse = new FlagOption("fuse", 'F', "If there is only a single subscriber and it allows it, invokes it directly on the current thread instead of using the executor");
+
+  public IntOption batchSize = new IntOption("batchSize", 'Z', "The (maximum) number of data items to hand on in one go, if the subscribers support batches (1 = no batching)", 1, 1, Integer.MAX_VALUE);
+
+  public FlagOption adaptiveBatchSize = new FlagOption("adaptiveBatchSize", 'D', "If set, the batch size adapts to the lag of the subscribers, up to the specified batch size");
+
+  public IntOption prefetchDepth = new IntOption("prefetchDepth", 'Q', "The number of data items to generate in advance on a background thread (0 = generate on the publishing thread)", 0, 0, Integer.MAX_VALUE);
+
+  /** the maximum number of prefetched data items handed over in one go. */
+  public static final int PREFETCH_CHUNK_SIZE = 64;
+
+  /** the marker for the end of the prefetched data. */
+  protected static final List<Object> END = new ArrayList<>();
+
   /** for managing subscribers and publishing data. */
   protected transient SubmissionPublisher<O> publisher;
 
   /** flag whether the execution was stopped. */
   protected boolean stopped;
 
+  /** whether the fusion target has been determined. */
+  protected transient boolean fusionChecked;
+
+  /** the subscriber to invoke directly, null if not fused. */
+  protected transient Subscriber<? super O> fused;
+
+  /** whether the fused subscriber failed, in which case data gets discarded. */
+  protected transient boolean fusionFailed;
+
+  /** whether it has been determined if the subscribers accept batches. */
+  protected transient boolean batchesChecked;
+
+  /** whether all subscribers accept batches. */
+  protected transient boolean batchesAccepted;
+
+  /** the batch currently being filled. */
+  protected transient Batch<O> batch;
+
+  /** the current batch size. */
+  protected transient int currentBatchSize;
+
+  /** the buffer for the prefetched chunks of data, null if not prefetching. */
+  protected transient volatile BlockingQueue<List<Object>> prefetchBuffer;
+
+  /** the chunk currently being filled by the generating thread. */
+  protected transient List<Object> prefetchChunk;
+
+  /** the number of data items per chunk. */
+  protected transient int prefetchChunkSize;
+
+  /** the number of data items in the prefetch buffer. */
+  protected transient AtomicInteger prefetchCount;
+
+  /** whether the publishing thread is waiting for data. */
+  protected transient volatile boolean prefetchWaiting;
+
+  /** whether publishing the prefetched data has been aborted. */
+  protected transient volatile boolean prefetchAborted;
+
+  /** the error that made the data generation fail while prefetching, if any. */
+  protected transient volatile Throwable prefetchFailure;
+
   /**
    * For initializing members.
    */
@@ -50,8 +135,29 @@ public abstract class AbstractSource<O>
   protected void init() {
     super.init();
 
-    publisher = new SubmissionPublisher<>();
-    stopped   = false;
+    publisher     = null;
+    stopped       = false;
+    fusionChecked = false;
+    fused         = null;
+    fusionFailed  = false;
+    batchesChecked  = false;
+    batchesAccepted = false;
+    batch           = null;
+  }
+
+  /**
+   * Returns the publisher, creates it if necessary using the current
+   * executor and buffer settings. Therefore, these settings must be
+   * configured before subscribing other operators.
+   *
+   * @return the publisher
+   */
+  protected synchronized SubmissionPublisher<O> getPublisher() {
+    if (publisher == null) {
+      publisher = ExecutorUtils.newPublisher(this, executor.getChosenIndex(), numThreads.getValue(), poolName.getValue(), maxBufferCapacity.getValue());
+      metrics.setPublisher(publisher);
+    }
+    return publisher;
   }
 
   /**
@@ -60,25 +166,334 @@ public abstract class AbstractSource<O>
   protected abstract void run();
 
   /**
-   * Whether a new data item can be generated.
+   * Whether a new data item can be published without blocking, i.e.,
+   * whether every subscriber has free space in its buffer.
    *
    * @return true if a new item can be generated
    */
   protected boolean canProduceNext() {
-    return (publisher.estimateMaximumLag() == 0);
+    return (publisher.estimateMaximumLag() < publisher.getMaxBufferCapacity());
+  }
+
+  /**
+   * Publishes the data item. When prefetching, the item gets added to the
+   * current chunk, which gets handed over to the publishing thread once full
+   * or as soon as that thread is waiting for data. Blocks while the prefetch
+   * buffer is full. Once publishing got aborted, the items get discarded.
+   *
+   * @param item the item to publish
+   * @see #publishNow(Object)
+   */
+  protected void publish(O item) {
+    // generator still running after publishing got aborted
+    if (prefetchAborted)
+      return;
+    if (prefetchBuffer == null) {
+      publishNow(item);
+      return;
+    }
+    prefetchChunk.add(item);
+    if (prefetchWaiting) {
+      // a single hand-over suffices to wake up the publishing thread
+      prefetchWaiting = false;
+      handOver();
+    }
+    else if (prefetchChunk.size() >= prefetchChunkSize) {
+      handOver();
+    }
+  }
+
+  /**
+   * Hands the current chunk over to the publishing thread, blocking while
+   * the prefetch buffer is full. Gets called by the generating thread.
+   */
+  protected void handOver() {
+    List<Object>	chunk;
+
+    if (prefetchChunk.isEmpty())
+      return;
+    chunk         = prefetchChunk;
+    prefetchChunk = new ArrayList<>(prefetchChunkSize);
+    prefetchCount.addAndGet(chunk.size());
+    if (prefetchBuffer.offer(chunk))
+      return;
+    metrics.recordPrefetchOverrun();
+    try {
+      prefetchBuffer.put(chunk);
+    }
+    catch (InterruptedException e) {
+      // publishing got aborted
+      prefetchAborted = true;
+    }
   }
 
   /**
-   * Starts the data generation.
+   * Generates the data on a background thread via {@link #run()} and
+   * publishes it from the prefetch buffer, chunk by chunk. Rethrows the
+   * error that made the generation fail, if any.
+   */
+  @SuppressWarnings("unchecked")
+  protected void runPrefetched() {
+    ExecutorService	producer;
+    List<Object>	chunk;
+    boolean		finished;
+
+    // at least two chunks, so that generating and publishing can overlap
+    prefetchChunkSize = Math.max(1, Math.min(PREFETCH_CHUNK_SIZE, prefetchDepth.getValue() / 2));
+    prefetchChunk     = new ArrayList<>(prefetchChunkSize);
+    prefetchBuffer    = new ArrayBlockingQueue<>(Math.max(1, prefetchDepth.getValue() / prefetchChunkSize));
+    prefetchCount     = new AtomicInteger();
+    prefetchWaiting   = false;
+    prefetchFailure   = null;
+    metrics.setPrefetchBuffer(prefetchCount::get, prefetchDepth.getValue());
+    producer = ExecutorUtils.newFixedPool(1, "moaflow-" + getClass().getSimpleName() + "-prefetch");
+    producer.execute(this::generate);
+    finished = false;
+    try {
+      while (!finished && !isStopped()) {
+	chunk = prefetchBuffer.poll();
+	if (chunk == null) {
+	  metrics.recordPrefetchUnderrun();
+	  prefetchWaiting = true;
+	  chunk = prefetchBuffer.take();
+	}
+	if (chunk == END) {
+	  finished = true;
+	  break;
+	}
+	metrics.recordPrefetchTake(prefetchCount.getAndAdd(-chunk.size()));
+	for (Object item: chunk) {
+	  if (isStopped())
+	    break;
+	  publishNow((O) item);
+	}
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      // releases a generator that is still running, it discards its remaining data
+      if (!finished)
+	prefetchAborted = true;
+      prefetchBuffer.clear();
+      producer.shutdownNow();
+      try {
+	producer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+	Thread.currentThread().interrupt();
+      }
+      prefetchBuffer = null;
+      metrics.setPrefetchBuffer(null, prefetchDepth.getValue());
+    }
+
+    if (finished && (prefetchFailure != null)) {
+      if (prefetchFailure instanceof RuntimeException)
+	throw (RuntimeException) prefetchFailure;
+      if (prefetchFailure instanceof Error)
+	throw (Error) prefetchFailure;
+      throw new IllegalStateException("Failed to generate data", prefetchFailure);
+    }
+  }
+
+  /**
+   * Generates the data into the prefetch buffer, followed by the end marker.
+   * Gets called by the background thread.
+   */
+  protected void generate() {
+    BlockingQueue<List<Object>>	buffer;
+
+    buffer = prefetchBuffer;
+    try {
+      run();
+    }
+    catch (Throwable t) {
+      prefetchFailure = t;
+    }
+    if (prefetchAborted)
+      return;
+    // the data generated so far, like when not prefetching
+    handOver();
+    try {
+      buffer.put(END);
+    }
+    catch (InterruptedException e) {
+      // publishing got aborted
+    }
+  }
+
+  /**
+   * Publishes the data item on the current thread. If batching is enabled
+   * and all subscribers support it, the item gets added to the current batch
+   * and the batch only gets handed on once full.
+   *
+   * @param item the item to publish
+   * @see #flush()
+   */
+  protected void publishNow(O item) {
+    metrics.recordOutput(1);
+    if (batchSize.getValue() < 2) {
+      deliver(item);
+      return;
+    }
+    if (!batchesChecked) {
+      batchesAccepted  = Utils.acceptsBatches(publisher);
+      batchesChecked   = true;
+      currentBatchSize = adaptiveBatchSize.isSet() ? 1 : batchSize.getValue();
+    }
+    if (!batchesAccepted) {
+      deliver(item);
+      return;
+    }
+    if (batch == null)
+      batch = new Batch<>(currentBatchSize);
+    batch.add(item);
+    if (batch.size() >= currentBatchSize)
+      flush();
+  }
+
+  /**
+   * Hands on the current batch, if any. In adaptive mode, the size of the
+   * next batch is doubled if the subscribers are lagging behind by more
+   * than half their buffer capacity and halved if they are idle.
+   */
+  @SuppressWarnings("unchecked")
+  protected void flush() {
+    Batch<O>	current;
+    int		lag;
+
+    if ((batch == null) || batch.isEmpty())
+      return;
+
+    current = batch;
+    batch   = null;
+    if (current.size() == 1)
+      deliver(current.get(0));
+    else
+      deliver((O) current);
+
+    if (adaptiveBatchSize.isSet()) {
+      lag = publisher.estimateMaximumLag();
+      if (lag > publisher.getMaxBufferCapacity() / 2)
+	currentBatchSize = Math.min(batchSize.getValue(), currentBatchSize * 2);
+      else if (lag == 0)
+	currentBatchSize = Math.max(1, currentBatchSize / 2);
+    }
+  }
+
+  /**
+   * Hands the data item on to the subscribers: either directly to the fused
+   * subscriber or via the publisher. The latter blocks while the buffer of
+   * any subscriber is full. The publisher wakes up the waiting thread as soon
+   * as the subscriber consumes an item, i.e., no polling is involved.
+   *
+   * @param item the item to hand on
+   */
+  protected void deliver(O item) {
+    if (!fusionChecked) {
+      fused = fuse.isSet() ? Utils.getFusionTarget(publisher) : null;
+      fusionChecked = true;
+    }
+    if (fused == null) {
+      publisher.submit(item);
+    }
+    else if (!fusionFailed) {
+      try {
+	fused.onNext(item);
+      }
+      catch (Throwable t) {
+	// like the publisher, stop delivering to subscribers that failed
+	fusionFailed = true;
+	publisher.closeExceptionally(t);
+      }
+    }
+    else {
+      metrics.recordDropped((item instanceof Batch) ? ((Batch<?>) item).size() : 1);
+    }
+  }
+
+  /**
+   * Waits for the subscribers to complete, i.e., to process all the data
+   * that got handed on before the publisher got closed. Only subscribers
+   * that are operators can be waited for. Failed subscribers count as
+   * completed.
+   *
+   * @param subscribers the subscribers to wait for
+   */
+  protected void waitForSubscribers(List<Subscriber<? super O>> subscribers) {
+    List<CompletableFuture<?>>	completions;
+
+    completions = new ArrayList<>();
+    for (Subscriber<? super O> subscriber: subscribers) {
+      if (subscriber instanceof AbstractOperator)
+	completions.add(((AbstractOperator) subscriber).getCompletion());
+    }
+    CompletableFuture
+      .allOf(completions.toArray(new CompletableFuture<?>[0]))
+      .handle((v, t) -> null)
+      .join();
+  }
+
+  /**
+   * Starts the data generation. Returns once all data has been generated
+   * and the direct subscribers have completed, i.e., processed it (only
+   * subscribers that are operators can be waited for); use
+   * {@link moaflow.core.FlowRunner} to wait for the whole flow.
+   * <br>
+   * The processing time of a source is the time spent generating and
+   * handing on the data.
    */
   public void start() {
-    stopped = false;
-    run();
-    if (!isStopped()) {
-      while (!canProduceNext())
-	Utils.wait(this, 1000, 100);
+    long			start;
+    List<Subscriber<? super O>>	subscribers;
+
+    stopped        = false;
+    fusionChecked  = false;
+    batchesChecked = false;
+    batch          = null;
+    prefetchAborted = false;
+    start          = System.nanoTime();
+    getPublisher();
+    try {
+      if (prefetchDepth.getValue() > 0)
+	runPrefetched();
+      else
+	run();
+      flush();
+    }
+    catch (RuntimeException | Error e) {
+      closePublisher(e);
+      completion.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      metrics.recordTime(System.nanoTime() - start);
     }
-    publisher.close();
+    // closing delivers the buffered items before completing the subscribers
+    subscribers = getSubscribers();
+    closePublisher(null);
+    completion.complete(null);
+    waitForSubscribers(subscribers);
+  }
+
+  /**
+   * Closes the publisher, normally or with the error, and shuts down its
+   * executor once the subscribers have completed, if owned by this operator.
+   *
+   * @param error the error, null if completed normally
+   */
+  protected void closePublisher(Throwable error) {
+    SubmissionPublisher<O>	current;
+    List<Subscriber<? super O>>	subscribers;
+
+    current     = getPublisher();
+    subscribers = current.getSubscribers();
+    if (error == null)
+      current.close();
+    else
+      current.closeExceptionally(error);
+    ExecutorUtils.shutdownWhenDone(current, executor.getChosenIndex(), subscribers);
   }
 
   /**
@@ -89,12 +504,13 @@ public abstract class AbstractSource<O>
   }
 
   /**
-   * Whether the data generation has been stopped.
+   * Whether the data generation has been stopped, or publishing the
+   * prefetched data got aborted.
    *
    * @return true if stopped
    */
   public boolean isStopped() {
-    return stopped;
+    return stopped || prefetchAborted;
   }
 
   /**
@@ -103,7 +519,7 @@ public abstract class AbstractSource<O>
    * @param subscriber the object to subscribe
    */
   public void subscribe(Subscriber<? super O> subscriber) {
-    publisher.subscribe(subscriber);
+    getPublisher().subscribe(subscriber);
   }
 
   /**
@@ -113,7 +529,9 @@ public abstract class AbstractSource<O>
    *
    * @return list of current subscribers
    */
-  public List<Subscriber<? super O>> getSubscribers() {
+  public synchronized List<Subscriber<? super O>> getSubscribers() {
+    if (publisher == null)
+      return new ArrayList<>();
     return publisher.getSubscribers();
   }
 }
@@ -0,0 +1,273 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DataSource.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.source;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+import moa.core.Example;
+import moa.core.InstanceExample;
+import moaflow.sink.InstancesToBinary;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays the instances recorded with {@link InstancesToBinary}, reading
+ * the file via NIO.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BinaryInstanceSource
+  extends AbstractSource<Example<Instance>> {
+
+  public FileOption file = new FileOption("file", 'f', "The file with the recorded instances", null, "bin", false);
+
+  public IntOption numInstances = new IntOption("numInstances", 'i', "The maximum number of instances to replay (< 1 for all)", -1, -1, Integer.MAX_VALUE);
+
+  public IntOption bufferSize = new IntOption("bufferSize", 'b', "The size of the read buffer in KB", 1024, 1, 1024 * 1024);
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Replays the instances recorded in the specified binary file.";
+  }
+
+  /**
+   * Makes sure that the buffer contains the specified number of bytes,
+   * reading more data if necessary.
+   *
+   * @param channel the channel to read from
+   * @param buffer the buffer to fill, must be able to hold the bytes
+   * @param size the number of bytes
+   * @return true if available, false if the end of the file was reached before reading anything
+   * @throws IOException if reading fails or the file is truncated
+   */
+  protected boolean ensure(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+    boolean	empty;
+
+    if (buffer.remaining() >= size)
+      return true;
+    if (buffer.capacity() < size)
+      throw new IOException("Record of " + size + " bytes exceeds buffer: " + file.getFile());
+    empty = !buffer.hasRemaining();
+    buffer.compact();
+    while (buffer.position() < size) {
+      if (channel.read(buffer) == -1) {
+	buffer.flip();
+	if (empty && !buffer.hasRemaining())
+	  return false;
+	throw new EOFException("Truncated file: " + file.getFile());
+      }
+    }
+    buffer.flip();
+    return true;
+  }
+
+  /**
+   * Makes sure that the buffer contains the specified number of bytes of
+   * the current record, whose start has been read already.
+   *
+   * @param channel the channel to read from
+   * @param buffer the buffer to fill, must be able to hold the bytes
+   * @param size the number of bytes
+   * @throws IOException if reading fails or the file is truncated
+   */
+  protected void ensureRecord(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+    if (!ensure(channel, buffer, size))
+      throw new EOFException("Truncated file: " + file.getFile());
+  }
+
+  /**
+   * Fills the array with the next bytes, reading them in chunks that fit
+   * into the buffer.
+   *
+   * @param channel the channel to read from
+   * @param buffer the buffer to read via
+   * @param bytes the array to fill
+   * @throws IOException if reading fails or the file is truncated
+   */
+  protected void readFully(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+    int		offset;
+    int		n;
+
+    offset = 0;
+    while (offset < bytes.length) {
+      n = Math.min(bytes.length - offset, buffer.capacity());
+      ensureRecord(channel, buffer, n);
+      buffer.get(bytes, offset, n);
+      offset += n;
+    }
+  }
+
+  /**
+   * Reads the header of the file.
+   *
+   * @param channel the channel to read from
+   * @param buffer the buffer to read via
+   * @return the header
+   * @throws IOException if reading fails or not a valid file
+   */
+  protected InstancesHeader readHeader(FileChannel channel, ByteBuffer buffer) throws IOException {
+    byte[]	bytes;
+
+    if (!ensure(channel, buffer, InstancesToBinary.HEADER_SIZE) || (buffer.getInt() != InstancesToBinary.MAGIC))
+      throw new IOException("Not a binary instances file: " + file.getFile());
+    if (buffer.getInt() != InstancesToBinary.VERSION)
+      throw new IOException("Unsupported version: " + file.getFile());
+    buffer.getInt();
+    bytes = new byte[buffer.getInt()];
+    readFully(channel, buffer, bytes);
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (InstancesHeader) in.readObject();
+    }
+    catch (ClassNotFoundException e) {
+      throw new IOException("Failed to deserialize header: " + file.getFile(), e);
+    }
+  }
+
+  /**
+   * Returns the header of the file.
+   *
+   * @return the header
+   * @throws IOException if reading fails or not a valid file
+   */
+  public InstancesHeader getHeader() throws IOException {
+    ByteBuffer	buffer;
+
+    try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ)) {
+      buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.flip();
+      return readHeader(channel, buffer);
+    }
+  }
+
+  /**
+   * Returns the maximum size of a record, i.e., of a dense or sparse
+   * instance with all attributes.
+   *
+   * @param header the header of the instances
+   * @return the size in bytes
+   */
+  protected int maxRecordSize(InstancesHeader header) {
+    return 1 + 8 + Math.max(header.numAttributes() * 8, 4 + header.numAttributes() * 12);
+  }
+
+  /**
+   * Reads the next instance.
+   *
+   * @param channel the channel to read from
+   * @param buffer the buffer to read via, must be able to hold a record
+   * @param header the header for the instance
+   * @return the instance, null if no more data
+   * @throws IOException if reading fails
+   * @see #maxRecordSize(InstancesHeader)
+   */
+  protected Instance readInstance(FileChannel channel, ByteBuffer buffer, InstancesHeader header) throws IOException {
+    Instance	result;
+    byte	type;
+    double	weight;
+    double[]	values;
+    int[]	indices;
+    int		n;
+    int		i;
+
+    if (!ensure(channel, buffer, 1 + 8))
+      return null;
+    type   = buffer.get();
+    weight = buffer.getDouble();
+    if (type == InstancesToBinary.DENSE) {
+      values = new double[header.numAttributes()];
+      ensureRecord(channel, buffer, values.length * 8);
+      for (i = 0; i < values.length; i++)
+	values[i] = buffer.getDouble();
+      result = new DenseInstance(weight, values);
+    }
+    else if (type == InstancesToBinary.SPARSE) {
+      ensureRecord(channel, buffer, 4);
+      n       = buffer.getInt();
+      indices = new int[n];
+      values  = new double[n];
+      ensureRecord(channel, buffer, n * 12);
+      for (i = 0; i < n; i++)
+	indices[i] = buffer.getInt();
+      for (i = 0; i < n; i++)
+	values[i] = buffer.getDouble();
+      result = new SparseInstance(weight, values, indices, header.numAttributes());
+    }
+    else {
+      throw new IOException("Unknown record type " + type + ": " + file.getFile());
+    }
+    result.setDataset(header);
+
+    return result;
+  }
+
+  /**
+   * Replays the instances.
+   */
+  @Override
+  protected void run() {
+    ByteBuffer		buffer;
+    ByteBuffer		larger;
+    InstancesHeader	header;
+    Instance		inst;
+    int			count;
+
+    try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ)) {
+      buffer = ByteBuffer.allocateDirect(bufferSize.getValue() * 1024).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.flip();
+      header = readHeader(channel, buffer);
+      // the buffer must be able to hold any record
+      if (buffer.capacity() < maxRecordSize(header)) {
+	larger = ByteBuffer.allocateDirect(maxRecordSize(header)).order(ByteOrder.LITTLE_ENDIAN);
+	larger.put(buffer);
+	larger.flip();
+	buffer = larger;
+      }
+      count = 0;
+      while (!isStopped() && ((numInstances.getValue() < 1) || (count < numInstances.getValue()))) {
+	inst = readInstance(channel, buffer, header);
+	if (inst == null)
+	  break;
+	// blocks while downstream is busy
+	publish(new InstanceExample(inst));
+	count++;
+      }
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Failed to replay instances from: " + file.getFile(), e);
+    }
+  }
+}
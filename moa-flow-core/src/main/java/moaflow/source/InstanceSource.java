@@ -20,32 +20,75 @@
 
 package moaflow.source;
 
-import moaflow.core.Utils;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.Option;
 import com.yahoo.labs.samoa.instances.Instance;
+import moa.MOAObject;
 import moa.core.Example;
 import moa.options.ClassOption;
 import moa.options.OptionHandler;
 import moa.streams.InstanceStream;
 import moa.streams.generators.RandomRBFGenerator;
+import moaflow.core.ExecutorUtils;
+import moaflow.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Generates instances using the specified generator.
+ * <br>
+ * With more than one shard, copies of the generator get run in parallel,
+ * each with its own instance seed derived deterministically from the
+ * configured one (shard 0 uses the configured seed). The generators must
+ * offer an "instanceRandomSeed" or "randomSeed" option for this, directly or
+ * in nested streams. The outputs of the shards get merged either round-robin,
+ * which results in the same sequence of instances for every run, or in the
+ * order they become available, for maximum throughput.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public class InstanceSource
   extends AbstractSource<Example<Instance>> {
 
+  /** merges the shards round-robin. */
+  public static final int MERGE_ROUND_ROBIN = 0;
+
+  /** merges the shards in the order their instances become available. */
+  public static final int MERGE_FIRST_AVAILABLE = 1;
+
+  /** the names of the seed options that get derived for the shards. */
+  public static final String[] SEED_OPTIONS = new String[]{"instanceRandomSeed", "randomSeed"};
+
+  /** the number of instances a shard hands on in one go. */
+  public static final int CHUNK_SIZE = 64;
+
   public ClassOption generator = new ClassOption("generator", 'g', "The data stream generator to use", InstanceStream.class, RandomRBFGenerator.class.getName());
 
   public IntOption numInstances = new IntOption("numInstances", 'i', "The number of instances to generate", 10000, 1, Integer.MAX_VALUE);
 
-  public IntOption checkInterval = new IntOption("checkInterval", 'c', "The interval of generated instances to check for backpressure", 1000, 1, Integer.MAX_VALUE);
+  public IntOption checkInterval = new IntOption("checkInterval", 'c', "Deprecated, no longer used: backpressure is demand-driven", 1000, 1, Integer.MAX_VALUE);
+
+  public IntOption numShards = new IntOption("numShards", 'n', "The number of generator copies to run in parallel, each with a seed derived from the generator's one (1 = no sharding)", 1, 1, Integer.MAX_VALUE);
+
+  public MultiChoiceOption merge = new MultiChoiceOption("merge", 'm', "How to merge the instances of the shards", new String[]{"RoundRobin", "FirstAvailable"}, new String[]{"Takes an instance from each shard in turn (reproducible)", "Takes the instances in the order the shards generate them (throughput)"}, MERGE_ROUND_ROBIN);
+
+  public IntOption shardBufferSize = new IntOption("shardBufferSize", 'q', "The maximum number of instances buffered per shard (rounded up to multiple of " + CHUNK_SIZE + ")", 1024, 1, Integer.MAX_VALUE);
+
+  /** the marker for a shard that has finished. */
+  protected static final List<Example<Instance>> END = new ArrayList<>();
 
   /** the number of instances generated so far. */
   protected int numGenerated;
 
+  /** the error that made a shard fail, if any. */
+  protected transient volatile Throwable shardFailure;
+
   /**
    * Gets the purpose of this object
    *
@@ -53,7 +96,7 @@ public class InstanceSource
    */
   @Override
   public String getPurposeString() {
-    return "Outputs a maximum number of Instance objects with the specified stream generator.";
+    return "Outputs a maximum number of Instance objects with the specified stream generator, optionally using several generators in parallel.";
   }
 
   /**
@@ -65,24 +108,275 @@ public class InstanceSource
     generator.setCurrentObject(Utils.fromCommandLine(InstanceStream.class, value));
   }
 
+  /**
+   * Prepares the generator for use.
+   *
+   * @param stream the generator to prepare
+   */
+  protected void prepare(InstanceStream stream) {
+    if (stream instanceof OptionHandler)
+      ((OptionHandler) stream).prepareForUse();
+    else
+      stream.restart();
+  }
+
   protected void run() {
     numGenerated = 0;
     InstanceStream actualGenerator = (InstanceStream) generator.getPreMaterializedObject();
-    if (actualGenerator instanceof OptionHandler)
-      ((OptionHandler) actualGenerator).prepareForUse();
-    else
-      actualGenerator.restart();
+    if (numShards.getValue() > 1) {
+      runShards(actualGenerator);
+      return;
+    }
+    prepare(actualGenerator);
     while (!isStopped() && actualGenerator.hasMoreInstances() && (numGenerated < numInstances.getValue())) {
-      // check for backpressure
-      if (numGenerated % checkInterval.getValue() == 0) {
-	while (!isStopped() && !canProduceNext() && actualGenerator.hasMoreInstances()) {
-	  Utils.wait(this, 10, 10);
+      // blocks while downstream is busy
+      publish(actualGenerator.nextInstance());
+      numGenerated++;
+    }
+  }
+
+  /**
+   * Derives the seed for a shard, using the SplitMix64 finalizer.
+   * Shard 0 keeps the seed.
+   *
+   * @param seed the configured seed
+   * @param shard the index of the shard
+   * @return the derived seed
+   */
+  public static int deriveSeed(int seed, int shard) {
+    long	z;
+
+    if (shard == 0)
+      return seed;
+    z = seed + shard * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (int) (z & 0x7FFFFFFF);
+  }
+
+  /**
+   * Sets the derived seeds in the options of the object and its nested objects.
+   *
+   * @param obj the object to update
+   * @param shard the index of the shard
+   * @return the number of seeds that got set
+   */
+  protected int deriveSeeds(Object obj, int shard) {
+    int		result;
+    Object	nested;
+
+    result = 0;
+    if (!(obj instanceof OptionHandler))
+      return result;
+
+    for (Option option: ((OptionHandler) obj).getOptions().getOptionArray()) {
+      if (option instanceof IntOption) {
+	for (String name: SEED_OPTIONS) {
+	  if (option.getName().equals(name)) {
+	    ((IntOption) option).setValue(deriveSeed(((IntOption) option).getValue(), shard));
+	    result++;
+	  }
+	}
+      }
+      else if (option instanceof ClassOption) {
+	nested = ((ClassOption) option).getPreMaterializedObject();
+	result += deriveSeeds(nested, shard);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Creates the generator for a shard.
+   *
+   * @param base the configured generator
+   * @param shard the index of the shard
+   * @return the prepared generator
+   */
+  protected InstanceStream createShard(InstanceStream base, int shard) {
+    InstanceStream	result;
+
+    result = (InstanceStream) ((MOAObject) base).copy();
+    if (deriveSeeds(result, shard) == 0)
+      throw new IllegalStateException("Generator offers no seed to derive the shard seeds from: " + base.getClass().getName());
+    prepare(result);
+
+    return result;
+  }
+
+  /**
+   * Generates the instances of a shard and hands them on in chunks.
+   * Gets called by the shard's thread.
+   *
+   * @param stream the generator of the shard
+   * @param quota the number of instances to generate
+   * @param queue the queue to hand on the chunks
+   */
+  protected void generateShard(InstanceStream stream, int quota, BlockingQueue<List<Example<Instance>>> queue) {
+    List<Example<Instance>>	chunk;
+    int				count;
+
+    count = 0;
+    try {
+      try {
+	while (!isStopped() && (count < quota) && stream.hasMoreInstances()) {
+	  chunk = new ArrayList<>(Math.min(CHUNK_SIZE, quota - count));
+	  while ((chunk.size() < CHUNK_SIZE) && (count < quota) && stream.hasMoreInstances()) {
+	    chunk.add(stream.nextInstance());
+	    count++;
+	  }
+	  queue.put(chunk);
+	}
+      }
+      catch (InterruptedException e) {
+	return;
+      }
+      catch (Throwable t) {
+	shardFailure = t;
+      }
+      queue.put(END);
+    }
+    catch (InterruptedException e) {
+      // stopped
+    }
+  }
+
+  /**
+   * Starts the generation of a shard's instances.
+   *
+   * @param pool the pool to run the shard with
+   * @param stream the generator of the shard
+   * @param quota the number of instances to generate
+   * @param queue the queue to hand on the chunks
+   */
+  protected void startShard(ExecutorService pool, InstanceStream stream, int quota, BlockingQueue<List<Example<Instance>>> queue) {
+    pool.execute(() -> generateShard(stream, quota, queue));
+  }
+
+  /**
+   * Generates the instances with several generators in parallel and merges them.
+   *
+   * @param base the configured generator
+   */
+  protected void runShards(InstanceStream base) {
+    List<BlockingQueue<List<Example<Instance>>>>	queues;
+    ExecutorService					pool;
+    int							n;
+    int							capacity;
+    int							i;
+    int							quota;
+    InstanceStream					stream;
+    BlockingQueue<List<Example<Instance>>>		queue;
+
+    n            = numShards.getValue();
+    capacity     = Math.max(1, (shardBufferSize.getValue() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    shardFailure = null;
+    queues       = new ArrayList<>();
+    pool         = ExecutorUtils.newFixedPool(n, "moaflow-" + getClass().getSimpleName() + "-shard");
+    try {
+      for (i = 0; i < n; i++) {
+	// the first shards generate the remainder
+	quota = numInstances.getValue() / n + ((i < numInstances.getValue() % n) ? 1 : 0);
+	stream = createShard(base, i);
+	if (merge.getChosenIndex() == MERGE_ROUND_ROBIN)
+	  queue = new ArrayBlockingQueue<>(capacity);
+	else if (i == 0)
+	  queue = new ArrayBlockingQueue<>(capacity * n);
+	else
+	  queue = queues.get(0);
+	queues.add(queue);
+	startShard(pool, stream, quota, queue);
+      }
+      if (merge.getChosenIndex() == MERGE_ROUND_ROBIN)
+	mergeRoundRobin(queues);
+      else
+	mergeFirstAvailable(queues.get(0), n);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Publishes the instances of the shards in turn, skipping the ones that have finished.
+   *
+   * @param queues the queues of the shards
+   * @throws InterruptedException if interrupted while waiting for a shard
+   */
+  protected void mergeRoundRobin(List<BlockingQueue<List<Example<Instance>>>> queues) throws InterruptedException {
+    List<List<Example<Instance>>>	chunks;
+    List<Example<Instance>>		chunk;
+    int[]				pos;
+    int					active;
+    int					i;
+
+    chunks = new ArrayList<>(Collections.nCopies(queues.size(), null));
+    pos    = new int[queues.size()];
+    active = queues.size();
+    while (!isStopped() && (active > 0)) {
+      for (i = 0; i < chunks.size(); i++) {
+	chunk = chunks.get(i);
+	if (chunk == END)
+	  continue;
+	if ((chunk == null) || (pos[i] == chunk.size())) {
+	  chunk = queues.get(i).take();
+	  chunks.set(i, chunk);
+	  pos[i] = 0;
+	  if (chunk == END) {
+	    checkShardFailure();
+	    active--;
+	    continue;
+	  }
 	}
+	publish(chunk.get(pos[i]++));
+	numGenerated++;
       }
-      if (actualGenerator.hasMoreInstances()) {
-	publisher.submit(actualGenerator.nextInstance());
+    }
+  }
+
+  /**
+   * Publishes the instances of the shards in the order they become available.
+   *
+   * @param queue the queue shared by the shards
+   * @param numShards the number of shards
+   * @throws InterruptedException if interrupted while waiting for the shards
+   */
+  protected void mergeFirstAvailable(BlockingQueue<List<Example<Instance>>> queue, int numShards) throws InterruptedException {
+    List<Example<Instance>>	chunk;
+    int				active;
+
+    active = numShards;
+    while (!isStopped() && (active > 0)) {
+      chunk = queue.take();
+      if (chunk == END) {
+	checkShardFailure();
+	active--;
+	continue;
+      }
+      for (Example<Instance> inst: chunk) {
+	if (isStopped())
+	  break;
+	publish(inst);
 	numGenerated++;
       }
     }
   }
+
+  /**
+   * Throws the error that made a shard fail, if any.
+   */
+  protected void checkShardFailure() {
+    if (shardFailure == null)
+      return;
+    if (shardFailure instanceof RuntimeException)
+      throw (RuntimeException) shardFailure;
+    if (shardFailure instanceof Error)
+      throw (Error) shardFailure;
+    throw new IllegalStateException("Failed to generate instances", shardFailure);
+  }
 }
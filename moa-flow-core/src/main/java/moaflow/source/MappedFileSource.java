@@ -0,0 +1,800 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DataSource.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.source;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.core.Example;
+import moa.core.InstanceExample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads instances from an ARFF or CSV file, which gets memory-mapped in
+ * chunks. Numeric values and unquoted nominal labels get parsed directly from
+ * the bytes, without creating strings. The header gets determined once per
+ * file and reused for further runs, as long as the file doesn't change.
+ * <br>
+ * For ARFF files, the header gets interpreted like {@link moa.streams.ArffFileStream}
+ * does, i.e., the instances are the same. Sparse instances, string and date
+ * attributes are not supported.
+ * <br>
+ * For CSV files, the first row contains the attribute names. All attributes
+ * are numeric, apart from the ones specified as nominal, whose labels get
+ * determined with a first pass over the file. Empty cells and "?" are missing
+ * values.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class MappedFileSource
+  extends AbstractSource<Example<Instance>> {
+
+  /** determines the format from the file extension. */
+  public static final int FORMAT_AUTO = 0;
+
+  /** ARFF format. */
+  public static final int FORMAT_ARFF = 1;
+
+  /** CSV format. */
+  public static final int FORMAT_CSV = 2;
+
+  /** the powers of ten that can be represented exactly. */
+  protected static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+  }
+
+  public FileOption file = new FileOption("file", 'f', "The ARFF or CSV file to read", null, "arff", false);
+
+  public MultiChoiceOption format = new MultiChoiceOption("format", 't', "The format of the file", new String[]{"Auto", "ARFF", "CSV"}, new String[]{"Determined by the extension (.csv or ARFF)", "ARFF", "CSV, with the attribute names in the first row"}, FORMAT_AUTO);
+
+  public IntOption classIndex = new IntOption("classIndex", 'c', "Class index of data. 0 for none or -1 for last attribute in file.", -1, -1, Integer.MAX_VALUE);
+
+  public IntOption numInstances = new IntOption("numInstances", 'i', "The maximum number of instances to read (< 1 for all)", -1, -1, Integer.MAX_VALUE);
+
+  public StringOption separator = new StringOption("separator", 's', "The separator of the cells (CSV only)", ",");
+
+  public StringOption nominal = new StringOption("nominal", 'n', "The comma-separated 1-based indices of the nominal attributes, 'last' for the last one (CSV only)", "");
+
+  public IntOption chunkSize = new IntOption("chunkSize", 'k', "The size of the chunks to memory-map in MB", 64, 1, 1024);
+
+  /**
+   * Maps labels to their index, looking them up directly from bytes.
+   */
+  protected static class LabelIndex {
+
+    /** the labels as bytes. */
+    protected List<byte[]> labels = new ArrayList<>();
+
+    /** the hash table, containing index+1 of the labels, 0 if empty. */
+    protected int[] table = new int[16];
+
+    /**
+     * Computes the hash of the bytes.
+     *
+     * @param buffer the buffer with the bytes
+     * @param start the first byte (incl)
+     * @param end the last byte (excl)
+     * @return the hash
+     */
+    protected static int hash(ByteBuffer buffer, int start, int end) {
+      int	result;
+
+      result = 1;
+      for (int i = start; i < end; i++)
+	result = 31 * result + buffer.get(i);
+      return result ^ (result >>> 16);
+    }
+
+    /**
+     * Returns the index of the label.
+     *
+     * @param buffer the buffer with the bytes
+     * @param start the first byte of the label (incl)
+     * @param end the last byte of the label (excl)
+     * @return the index, -1 if not found
+     */
+    public int indexOf(ByteBuffer buffer, int start, int end) {
+      int	pos;
+      int	entry;
+
+      pos = hash(buffer, start, end) & (table.length - 1);
+      while ((entry = table[pos]) != 0) {
+	if (matches(labels.get(entry - 1), buffer, start, end))
+	  return entry - 1;
+	pos = (pos + 1) & (table.length - 1);
+      }
+      return -1;
+    }
+
+    /**
+     * Checks whether the label matches the bytes.
+     *
+     * @param label the label
+     * @param buffer the buffer with the bytes
+     * @param start the first byte (incl)
+     * @param end the last byte (excl)
+     * @return true if the same
+     */
+    protected static boolean matches(byte[] label, ByteBuffer buffer, int start, int end) {
+      if (label.length != end - start)
+	return false;
+      for (int i = 0; i < label.length; i++) {
+	if (label[i] != buffer.get(start + i))
+	  return false;
+      }
+      return true;
+    }
+
+    /**
+     * Adds the label, if not present yet.
+     *
+     * @param label the label to add
+     * @return the index of the label
+     */
+    public int add(byte[] label) {
+      int	result;
+
+      result = indexOf(ByteBuffer.wrap(label), 0, label.length);
+      if (result > -1)
+	return result;
+
+      labels.add(label);
+      result = labels.size() - 1;
+      if (labels.size() * 2 > table.length) {
+	table = new int[table.length * 2];
+	for (int i = 0; i < labels.size(); i++)
+	  insert(i);
+      }
+      else {
+	insert(result);
+      }
+      return result;
+    }
+
+    /**
+     * Inserts the label in the hash table.
+     *
+     * @param index the index of the label
+     */
+    protected void insert(int index) {
+      byte[]	label;
+      int	pos;
+
+      label = labels.get(index);
+      pos   = hash(ByteBuffer.wrap(label), 0, label.length) & (table.length - 1);
+      while (table[pos] != 0)
+	pos = (pos + 1) & (table.length - 1);
+      table[pos] = index + 1;
+    }
+
+    /**
+     * Returns the labels.
+     *
+     * @return the labels
+     */
+    public List<String> getLabels() {
+      List<String>	result;
+
+      result = new ArrayList<>();
+      for (byte[] label: labels)
+	result.add(new String(label, StandardCharsets.UTF_8));
+      return result;
+    }
+  }
+
+  /** the file the header was determined from. */
+  protected transient File headerFile;
+
+  /** the modification time of the file when the header was determined. */
+  protected transient long headerStamp;
+
+  /** the cached header. */
+  protected transient InstancesHeader header;
+
+  /** the offset of the first data row. */
+  protected transient long dataOffset;
+
+  /** the label indices per attribute, null for numeric attributes. */
+  protected transient LabelIndex[] labelIndices;
+
+  /** the separator of the cells. */
+  protected transient byte sep;
+
+  /** whether the file is ARFF. */
+  protected transient boolean arff;
+
+  /** the number of the current line in the data section, for error messages. */
+  protected transient long lineNo;
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Outputs the instances of a memory-mapped ARFF or CSV file.";
+  }
+
+  /**
+   * Returns whether the file is to be read as ARFF.
+   *
+   * @param f the file
+   * @return true if ARFF, false if CSV
+   */
+  protected boolean isArff(File f) {
+    switch (format.getChosenIndex()) {
+      case FORMAT_ARFF:
+	return true;
+      case FORMAT_CSV:
+	return false;
+      default:
+	return !f.getName().toLowerCase().endsWith(".csv");
+    }
+  }
+
+  /**
+   * Returns the header of the file, determines it if necessary.
+   *
+   * @return the header
+   * @throws IOException if reading the file fails
+   */
+  public synchronized InstancesHeader getHeader() throws IOException {
+    File	f;
+
+    f = file.getFile();
+    if ((header == null) || !f.equals(headerFile) || (f.lastModified() != headerStamp)) {
+      arff = isArff(f);
+      try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+	if (arff)
+	  readArffHeader(channel);
+	else
+	  readCsvHeader(channel);
+      }
+      headerFile  = f;
+      headerStamp = f.lastModified();
+    }
+    return header;
+  }
+
+  /**
+   * Maps a chunk of the file, at most up to the end of the file.
+   *
+   * @param channel the channel to map
+   * @param pos the start of the chunk
+   * @param size the size of the chunk
+   * @return the mapped chunk
+   * @throws IOException if mapping fails
+   */
+  protected ByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size, channel.size() - pos));
+  }
+
+  /**
+   * Returns the end of the line, i.e., the position of the newline or the
+   * end of the buffer.
+   *
+   * @param buffer the buffer to search
+   * @param pos the start of the line
+   * @return the position of the newline, -1 if none found
+   */
+  protected static int findLineEnd(ByteBuffer buffer, int pos) {
+    int		limit;
+
+    limit = buffer.limit();
+    while (pos < limit) {
+      if (buffer.get(pos) == '\n')
+	return pos;
+      pos++;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the first line of the file that isn't empty, decoded.
+   *
+   * @param channel the channel to read from
+   * @param pos the position to start from
+   * @param lines for storing the lines up to and including the non-empty one
+   * @return the position after the line, -1 if end of file reached
+   * @throws IOException if reading fails
+   */
+  protected long readLine(FileChannel channel, long pos, StringBuilder lines) throws IOException {
+    ByteBuffer	buffer;
+    long	size;
+    int		end;
+    byte[]	bytes;
+
+    size = 64 * 1024;
+    while (pos < channel.size()) {
+      buffer = map(channel, pos, size);
+      end    = findLineEnd(buffer, 0);
+      if ((end == -1) && (pos + buffer.limit() < channel.size())) {
+	size *= 2;
+	continue;
+      }
+      if (end == -1)
+	end = buffer.limit();
+      bytes = new byte[end];
+      buffer.get(bytes);
+      lines.append(new String(bytes, Charset.defaultCharset())).append('\n');
+      return pos + end + 1;
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the ARFF header, interpreting it like {@link moa.streams.ArffFileStream}.
+   *
+   * @param channel the channel to read from
+   * @throws IOException if reading fails or no data section found
+   */
+  protected void readArffHeader(FileChannel channel) throws IOException {
+    StringBuilder	text;
+    long		pos;
+    int			start;
+    String		line;
+    Instances		data;
+    int			i;
+
+    text = new StringBuilder();
+    pos  = 0;
+    while (true) {
+      start = text.length();
+      pos   = readLine(channel, pos, text);
+      if (pos == -1)
+	throw new IOException("No @data section found: " + file.getFile());
+      line = text.substring(start).trim().toLowerCase();
+      if (line.startsWith("@data"))
+	break;
+    }
+
+    data = new Instances(new StringReader(text.toString()), 1, classIndex.getValue());
+    if (classIndex.getValue() < 0)
+      data.setClassIndex(data.numAttributes() - 1);
+    else if (classIndex.getValue() > 0)
+      data.setClassIndex(classIndex.getValue() - 1);
+
+    labelIndices = new LabelIndex[data.numAttributes()];
+    for (i = 0; i < data.numAttributes(); i++) {
+      if (data.attribute(i).isNominal()) {
+	labelIndices[i] = new LabelIndex();
+	for (String label: data.attribute(i).getAttributeValues())
+	  labelIndices[i].add(label.getBytes(StandardCharsets.UTF_8));
+      }
+      else if (!data.attribute(i).isNumeric()) {
+	throw new IOException("Unsupported type of attribute '" + data.attribute(i).name() + "': " + file.getFile());
+      }
+    }
+    header     = new InstancesHeader(data);
+    dataOffset = pos;
+    sep        = ',';
+  }
+
+  /**
+   * Reads the CSV header, determining the labels of the nominal attributes
+   * with a pass over the data.
+   *
+   * @param channel the channel to read from
+   * @throws IOException if reading fails
+   */
+  protected void readCsvHeader(FileChannel channel) throws IOException {
+    StringBuilder	text;
+    String[]		names;
+    Set<Integer>	nominals;
+    List<Attribute>	atts;
+    Instances		data;
+    int			i;
+
+    if (separator.getValue().length() != 1)
+      throw new IllegalStateException("Separator must be a single character: " + separator.getValue());
+    sep = (byte) separator.getValue().charAt(0);
+
+    text       = new StringBuilder();
+    dataOffset = readLine(channel, 0, text);
+    if (dataOffset == -1)
+      throw new IOException("No header row found: " + file.getFile());
+    names = text.toString().trim().split(Pattern.quote(separator.getValue()), -1);
+    for (i = 0; i < names.length; i++)
+      names[i] = unquote(names[i].trim());
+
+    nominals = new HashSet<>();
+    for (String index: nominal.getValue().split(",")) {
+      index = index.trim();
+      if (index.isEmpty())
+	continue;
+      if (index.equalsIgnoreCase("last"))
+	nominals.add(names.length - 1);
+      else
+	nominals.add(Integer.parseInt(index) - 1);
+    }
+
+    labelIndices = new LabelIndex[names.length];
+    for (int index: nominals)
+      labelIndices[index] = new LabelIndex();
+    if (!nominals.isEmpty())
+      parse(channel, null);
+
+    atts = new ArrayList<>();
+    for (i = 0; i < names.length; i++) {
+      if (labelIndices[i] != null)
+	atts.add(new Attribute(names[i], labelIndices[i].getLabels()));
+      else
+	atts.add(new Attribute(names[i]));
+    }
+    data = new Instances(file.getFile().getName().replaceAll("\\.[^.]*$", ""), atts, 0);
+    if (classIndex.getValue() < 0)
+      data.setClassIndex(data.numAttributes() - 1);
+    else if (classIndex.getValue() > 0)
+      data.setClassIndex(classIndex.getValue() - 1);
+    header = new InstancesHeader(data);
+  }
+
+  /**
+   * Removes surrounding quotes and escaping.
+   *
+   * @param s the string to process
+   * @return the processed string
+   */
+  protected String unquote(String s) {
+    char	quote;
+    StringBuilder	result;
+    int		i;
+
+    if ((s.length() < 2) || ((s.charAt(0) != '"') && (s.charAt(0) != '\'')) || (s.charAt(s.length() - 1) != s.charAt(0)))
+      return s;
+    quote  = s.charAt(0);
+    result = new StringBuilder();
+    for (i = 1; i < s.length() - 1; i++) {
+      if (arff && (s.charAt(i) == '\\') && (i < s.length() - 2))
+	i++;
+      else if (!arff && (s.charAt(i) == quote) && (i < s.length() - 2) && (s.charAt(i + 1) == quote))
+	i++;
+      result.append(s.charAt(i));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Parses a number directly from the bytes. Uses exact floating-point
+   * arithmetic for up to 18 significant digits and exponents up to 22,
+   * otherwise falls back on {@link Double#parseDouble(String)}.
+   *
+   * @param buffer the buffer with the bytes
+   * @param start the first byte (incl)
+   * @param end the last byte (excl)
+   * @return the number
+   */
+  protected static double parseNumber(ByteBuffer buffer, int start, int end) {
+    int		i;
+    boolean	negative;
+    long	mantissa;
+    int		digits;
+    int		exponent;
+    int		exp;
+    boolean	expNegative;
+    boolean	any;
+    byte	c;
+    double	result;
+
+    i        = start;
+    negative = false;
+    mantissa = 0;
+    digits   = 0;
+    exponent = 0;
+    any      = false;
+    if (i < end) {
+      c = buffer.get(i);
+      if ((c == '-') || (c == '+')) {
+	negative = (c == '-');
+	i++;
+      }
+    }
+    // integer part
+    while (i < end) {
+      c = buffer.get(i);
+      if ((c < '0') || (c > '9'))
+	break;
+      any = true;
+      if ((mantissa > 0) || (c != '0')) {
+	mantissa = mantissa * 10 + (c - '0');
+	digits++;
+      }
+      i++;
+    }
+    // fraction
+    if ((i < end) && (buffer.get(i) == '.')) {
+      i++;
+      while (i < end) {
+	c = buffer.get(i);
+	if ((c < '0') || (c > '9'))
+	  break;
+	any = true;
+	if ((mantissa > 0) || (c != '0')) {
+	  mantissa = mantissa * 10 + (c - '0');
+	  digits++;
+	}
+	exponent--;
+	i++;
+      }
+    }
+    // exponent
+    if (any && (i < end) && ((buffer.get(i) == 'e') || (buffer.get(i) == 'E'))) {
+      i++;
+      expNegative = false;
+      if ((i < end) && ((buffer.get(i) == '-') || (buffer.get(i) == '+'))) {
+	expNegative = (buffer.get(i) == '-');
+	i++;
+      }
+      exp = 0;
+      if (i == end)
+	any = false;
+      while ((i < end) && (exp < 10000)) {
+	c = buffer.get(i);
+	if ((c < '0') || (c > '9'))
+	  break;
+	exp = exp * 10 + (c - '0');
+	i++;
+      }
+      exponent += expNegative ? -exp : exp;
+    }
+
+    if (!any || (i != end) || (digits > 18) || (mantissa > (1L << 53)) || (exponent < -22) || (exponent > 22))
+      return Double.parseDouble(decode(buffer, start, end, StandardCharsets.ISO_8859_1));
+
+    if (exponent < 0)
+      result = mantissa / POWERS_OF_TEN[-exponent];
+    else
+      result = mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -result : result;
+  }
+
+  /**
+   * Decodes the bytes.
+   *
+   * @param buffer the buffer with the bytes
+   * @param start the first byte (incl)
+   * @param end the last byte (excl)
+   * @param charset the charset to use
+   * @return the string
+   */
+  protected static String decode(ByteBuffer buffer, int start, int end, Charset charset) {
+    byte[]	bytes;
+
+    bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = buffer.get(start + i);
+    return new String(bytes, charset);
+  }
+
+  /**
+   * Parses the cell.
+   *
+   * @param buffer the buffer with the bytes
+   * @param start the first byte (incl)
+   * @param end the last byte (excl)
+   * @param att the index of the attribute
+   * @param quoted whether the cell is quoted
+   * @param collect whether to collect the labels rather than look them up
+   * @return the value
+   */
+  protected double parseCell(ByteBuffer buffer, int start, int end, int att, boolean quoted, boolean collect) {
+    String	value;
+    int		index;
+
+    if (!quoted) {
+      if ((end - start == 1) && (buffer.get(start) == '?'))
+	return Double.NaN;
+      if (!arff && (end == start))
+	return Double.NaN;
+    }
+
+    if (labelIndices[att] == null) {
+      if (collect)
+	return 0;
+      try {
+	if (quoted)
+	  return Double.parseDouble(unquote(decode(buffer, start, end, StandardCharsets.UTF_8)));
+	return parseNumber(buffer, start, end);
+      }
+      catch (NumberFormatException e) {
+	throw new IllegalStateException("Invalid number '" + decode(buffer, start, end, StandardCharsets.UTF_8) + "' for attribute " + (att + 1) + " in data line " + lineNo + ": " + file.getFile());
+      }
+    }
+
+    if (quoted) {
+      value = unquote(decode(buffer, start, end, StandardCharsets.UTF_8));
+      if (collect)
+	return labelIndices[att].add(value.getBytes(StandardCharsets.UTF_8));
+      index = header.attribute(att).indexOfValue(value);
+    }
+    else {
+      if (collect)
+	return labelIndices[att].add(decode(buffer, start, end, StandardCharsets.ISO_8859_1).getBytes(StandardCharsets.ISO_8859_1));
+      index = labelIndices[att].indexOf(buffer, start, end);
+    }
+    if (index == -1)
+      throw new IllegalStateException("Unknown label '" + decode(buffer, start, end, StandardCharsets.UTF_8) + "' for attribute " + (att + 1) + " in data line " + lineNo + ": " + file.getFile());
+    return index;
+  }
+
+  /**
+   * Parses the line.
+   *
+   * @param buffer the buffer with the bytes
+   * @param start the start of the line (incl)
+   * @param end the end of the line (excl)
+   * @param values for storing the values
+   * @param collect whether to collect the labels rather than look them up
+   * @return true if the line contained an instance, false if empty or comment
+   */
+  protected boolean parseLine(ByteBuffer buffer, int start, int end, double[] values, boolean collect) {
+    int		att;
+    int		cellStart;
+    int		cellEnd;
+    int		next;
+    boolean	quoted;
+    byte	c;
+    byte	quote;
+
+    // trim
+    while ((end > start) && ((c = buffer.get(end - 1)) == '\r' || c == ' ' || c == '\t'))
+      end--;
+    while ((start < end) && ((c = buffer.get(start)) == ' ' || c == '\t'))
+      start++;
+    if (start == end)
+      return false;
+    if (arff) {
+      if (buffer.get(start) == '%')
+	return false;
+      if (buffer.get(start) == '{')
+	throw new IllegalStateException("Sparse instances are not supported, data line " + lineNo + ": " + file.getFile());
+    }
+
+    next = start;
+    for (att = 0; att < values.length; att++) {
+      if (next > end)
+	throw new IllegalStateException("Too few values in data line " + lineNo + ": " + file.getFile());
+      cellStart = next;
+      while ((cellStart < end) && ((c = buffer.get(cellStart)) == ' ' || c == '\t'))
+	cellStart++;
+      quoted  = false;
+      cellEnd = cellStart;
+      if ((cellEnd < end) && (((c = buffer.get(cellEnd)) == '"') || (arff && (c == '\'')))) {
+	quoted = true;
+	quote  = c;
+	cellEnd++;
+	while (cellEnd < end) {
+	  c = buffer.get(cellEnd);
+	  if (arff && (c == '\\'))
+	    cellEnd++;
+	  else if (c == quote)
+	    break;
+	  cellEnd++;
+	}
+	cellEnd++;
+      }
+      while ((cellEnd < end) && (buffer.get(cellEnd) != sep))
+	cellEnd++;
+      next = cellEnd + 1;
+      while ((cellEnd > cellStart) && ((c = buffer.get(cellEnd - 1)) == ' ' || c == '\t'))
+	cellEnd--;
+      values[att] = parseCell(buffer, cellStart, cellEnd, att, quoted, collect);
+    }
+    // like ArffLoader, ignore a trailing separator
+    if ((next <= end) && !(arff && (next == end)))
+      throw new IllegalStateException("Too many values in data line " + lineNo + ": " + file.getFile());
+
+    return true;
+  }
+
+  /**
+   * Parses the data rows, publishing the instances.
+   *
+   * @param channel the channel to read from
+   * @param data the header for the instances, null for just collecting the labels
+   * @throws IOException if reading fails
+   */
+  protected void parse(FileChannel channel, Instances data) throws IOException {
+    long	size;
+    long	pos;
+    long	chunk;
+    ByteBuffer	buffer;
+    int		start;
+    int		end;
+    double[]	values;
+    int		count;
+    Instance	inst;
+
+    size   = channel.size();
+    pos    = dataOffset;
+    chunk  = chunkSize.getValue() * 1024L * 1024L;
+    values = new double[labelIndices.length];
+    count  = 0;
+    lineNo = 0;
+    while ((pos < size) && !isStopped()) {
+      buffer = map(channel, pos, chunk);
+      start  = 0;
+      while ((start < buffer.limit()) && !isStopped()) {
+	end = findLineEnd(buffer, start);
+	if (end == -1) {
+	  if (pos + buffer.limit() < size)
+	    break;
+	  end = buffer.limit();
+	}
+	lineNo++;
+	if (parseLine(buffer, start, end, values, data == null) && (data != null)) {
+	  inst = new DenseInstance(1.0, values.clone());
+	  inst.setDataset(data);
+	  // blocks while downstream is busy
+	  publish(new InstanceExample(inst));
+	  count++;
+	  if ((numInstances.getValue() > 0) && (count >= numInstances.getValue()))
+	    return;
+	}
+	start = end + 1;
+      }
+      if (start == 0)
+	chunk *= 2;  // line longer than the chunk
+      pos += Math.min(start, buffer.limit());
+    }
+  }
+
+  /**
+   * Reads the file and publishes the instances.
+   */
+  @Override
+  protected void run() {
+    InstancesHeader	data;
+
+    try {
+      data = getHeader();
+      try (FileChannel channel = FileChannel.open(headerFile.toPath(), StandardOpenOption.READ)) {
+	parse(channel, data);
+      }
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Failed to read: " + file.getFile(), e);
+    }
+  }
+}
@@ -28,6 +28,7 @@ import moa.evaluation.LearningEvaluation;
 import moa.evaluation.LearningPerformanceEvaluator;
 import moa.learners.Learner;
 import moa.options.ClassOption;
+import moaflow.core.Batch;
 import moaflow.core.Utils;
 import moaflow.transformer.evaluate.EvaluationScheme;
 import moaflow.transformer.evaluate.Prequential;
@@ -68,6 +69,19 @@ public abstract class AbstractEvaluate
     evaluationScheme.setCurrentObject(Utils.fromCommandLine(EvaluationScheme.class, value));
   }
 
+  /**
+   * Initialises the evaluation scheme on the first instance.
+   *
+   * @param input the first instance
+   */
+  protected void initEvaluationScheme(Example<Instance> input) {
+    actualEvaluationScheme = (EvaluationScheme) evaluationScheme.getPreMaterializedObject();
+    actualEvaluationScheme.initialise(
+      getLearner(new InstancesHeader(input.getData().dataset())),
+      getEvaluator()
+    );
+  }
+
   /**
    * Transforms the input data.
    *
@@ -76,13 +90,8 @@ public abstract class AbstractEvaluate
    */
   protected LearningEvaluation doProcess(Example<Instance> input) {
     // Initialise on the first instance
-    if (actualEvaluationScheme == null) {
-      actualEvaluationScheme = (EvaluationScheme) evaluationScheme.getPreMaterializedObject();
-      actualEvaluationScheme.initialise(
-        getLearner(new InstancesHeader(input.getData().dataset())),
-	getEvaluator()
-      );
-    }
+    if (actualEvaluationScheme == null)
+      initEvaluationScheme(input);
 
     // Evaluate using the scheme
     actualEvaluationScheme.evaluate(input);
@@ -93,6 +102,42 @@ public abstract class AbstractEvaluate
       null;
   }
 
+  /**
+   * Transforms a batch of input data. Hands the instances to the evaluation
+   * scheme in ranges that end at the every-n-th boundaries, so that the
+   * evaluations are the same as when processing instance by instance.
+   *
+   * @param input the input data
+   * @return the generated output data, can be empty
+   */
+  @Override
+  protected Batch<LearningEvaluation> doProcessBatch(Batch<Example<Instance>> input) {
+    Batch<LearningEvaluation>	result;
+    int				from;
+    int				to;
+    int				nth;
+
+    result = new Batch<>();
+    if (input.isEmpty())
+      return result;
+
+    // Initialise on the first instance
+    if (actualEvaluationScheme == null)
+      initEvaluationScheme(input.get(0));
+
+    nth  = everyNth.getValue();
+    from = 0;
+    while (from < input.size()) {
+      to = Math.min(input.size(), from + nth - actualEvaluationScheme.numInstancesProcessed() % nth);
+      actualEvaluationScheme.evaluate(input, from, to);
+      if (actualEvaluationScheme.numInstancesProcessed() % nth == 0)
+	result.add(actualEvaluationScheme.getEvaluation());
+      from = to;
+    }
+
+    return result;
+  }
+
   /**
    * Gets the learner to evaluate.
    *
@@ -107,4 +152,32 @@ public abstract class AbstractEvaluate
    */
   protected abstract LearningPerformanceEvaluator<Example<Instance>> getEvaluator();
 
+  /**
+   * Finishes the evaluation scheme, if any.
+   */
+  protected void finishEvaluationScheme() {
+    if (actualEvaluationScheme != null)
+      actualEvaluationScheme.finish();
+  }
+
+  /**
+   * Finishes the evaluation scheme before passing on the error.
+   *
+   * @param throwable the exception
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    finishEvaluationScheme();
+    super.onError(throwable);
+  }
+
+  /**
+   * Finishes the evaluation scheme before completing.
+   */
+  @Override
+  public void onComplete() {
+    finishEvaluationScheme();
+    super.onComplete();
+  }
+
 }
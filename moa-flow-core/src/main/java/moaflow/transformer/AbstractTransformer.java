@@ -20,10 +20,22 @@
 
 package moaflow.transformer;
 
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
 import moaflow.core.AbstractOperator;
+import moaflow.core.Batch;
+import moaflow.core.BatchSubscriber;
+import moaflow.core.DemandWindow;
+import moaflow.core.ExecutorUtils;
+import moaflow.core.FusableSubscriber;
 import moaflow.core.SubscriberManager;
+import moaflow.core.Utils;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Flow;
 import java.util.concurrent.Flow.Processor;
 import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.Flow.Subscription;
@@ -31,18 +43,50 @@ import java.util.concurrent.SubmissionPublisher;
 
 /**
  * Ancestor for transformers.
+ * <br>
+ * A transformer can only be subscribed to a single publisher, as
+ * data gets processed without locking.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public abstract class AbstractTransformer<I, O>
   extends AbstractOperator
-  implements SubscriberManager<O>, Processor<I, O> {
+  implements SubscriberManager<O>, Processor<I, O>, FusableSubscriber<I>, BatchSubscriber<I> {
+
+  public MultiChoiceOption executor = new MultiChoiceOption("executor", 'E', "The executor for delivering the data to the subscribers", ExecutorUtils.EXECUTOR_LABELS, ExecutorUtils.EXECUTOR_DESCRIPTIONS, ExecutorUtils.COMMON_POOL);
+
+  public IntOption numThreads = new IntOption("numThreads", 'T', "The number of threads for the Fixed and Shared executors", Runtime.getRuntime().availableProcessors(), 1, Integer.MAX_VALUE);
+
+  public StringOption poolName = new StringOption("poolName", 'P', "The name of the pool for the Shared executor", "default");
+
+  public IntOption maxBufferCapacity = new IntOption("maxBufferCapacity", 'B', "The maximum number of buffered data items per subscriber (rounded up to power of 2)", Flow.defaultBufferSize(), 1, Integer.MAX_VALUE);
+
+  public FlagOption fuse = new FlagOption("fuse", 'F', "If there is only a single subscriber and it allows it, invokes it directly on the current thread instead of using the executor");
+
+  public IntOption prefetch = new IntOption("prefetch", 'R', "The number of items to request in advance, replenished once half of them got processed (< 1 unbounded)", -1, -1, Integer.MAX_VALUE);
+
+  public FlagOption asyncBoundary = new FlagOption("asyncBoundary", 'A', "If set, data always gets received asynchronously, even if the publisher fuses its subscribers");
 
   /** for managing subscribers and publishing data. */
   protected transient SubmissionPublisher<O> publisher;
 
-  /** the current subscription. */
-  protected transient Subscription subscription;
+  /** for managing the demand. */
+  protected transient DemandWindow demand;
+
+  /** whether the fusion target has been determined. */
+  protected transient boolean fusionChecked;
+
+  /** the subscriber to invoke directly, null if not fused. */
+  protected transient Subscriber<? super O> fused;
+
+  /** whether the fused subscriber failed, in which case data gets discarded. */
+  protected transient boolean fusionFailed;
+
+  /** whether it has been determined if the subscribers accept batches. */
+  protected transient boolean batchesChecked;
+
+  /** whether all subscribers accept batches. */
+  protected transient boolean batchesAccepted;
 
   /**
    * For initializing members.
@@ -50,7 +94,28 @@ public abstract class AbstractTransformer<I, O>
   @Override
   protected void init() {
     super.init();
-    publisher = new SubmissionPublisher<>();
+    publisher     = null;
+    fusionChecked = false;
+    fused         = null;
+    fusionFailed  = false;
+    batchesChecked  = false;
+    batchesAccepted = false;
+    demand          = new DemandWindow();
+  }
+
+  /**
+   * Returns the publisher, creates it if necessary using the current
+   * executor and buffer settings. Therefore, these settings must be
+   * configured before subscribing other operators.
+   *
+   * @return the publisher
+   */
+  protected synchronized SubmissionPublisher<O> getPublisher() {
+    if (publisher == null) {
+      publisher = ExecutorUtils.newPublisher(this, executor.getChosenIndex(), numThreads.getValue(), poolName.getValue(), maxBufferCapacity.getValue());
+      metrics.setPublisher(publisher);
+    }
+    return publisher;
   }
 
   /**
@@ -66,8 +131,36 @@ public abstract class AbstractTransformer<I, O>
    */
   @Override
   public void onSubscribe(Subscription value) {
-    subscription = value;
-    subscription.request(Long.MAX_VALUE);
+    try {
+      getPublisher();
+      demand.subscribe(value, prefetch.getValue());
+    }
+    finally {
+      demand.release();
+    }
+  }
+
+  /**
+   * Returns whether the subscriber can get invoked directly by its publisher.
+   *
+   * Only possible with unbounded demand and no asynchronous boundary.
+   *
+   * @return true if it can be fused, false if it requires an asynchronous boundary
+   */
+  @Override
+  public boolean canFuse() {
+    return DemandWindow.canFuse(asyncBoundary.isSet(), prefetch.getValue());
+  }
+
+  /**
+   * Waits until {@link #onSubscribe} has completed, i.e., until the
+   * subscriber can get invoked directly.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @Override
+  public void awaitSubscription() throws InterruptedException {
+    demand.awaitSubscription();
   }
 
   /**
@@ -78,19 +171,107 @@ public abstract class AbstractTransformer<I, O>
    */
   protected abstract O doProcess(I input);
 
+  /**
+   * Transforms a batch of input data, item by item.
+   * <br>
+   * Derived classes can override this method to process the whole batch
+   * more efficiently, as long as the outcome is the same as processing the
+   * items individually.
+   *
+   * @param input the input data
+   * @return the generated output data, can be empty
+   */
+  protected Batch<O> doProcessBatch(Batch<I> input) {
+    Batch<O> result = new Batch<>(input.size());
+    for (I item: input) {
+      O output = doProcess(item);
+      if (output != null)
+	result.add(output);
+    }
+    return result;
+  }
+
   /**
    * Method invoked with a Subscription's next item.  If this
    * method throws an exception, resulting behavior is not
    * guaranteed, but may cause the Subscription to be cancelled.
+   * <br>
+   * Not synchronized, as the Flow specification guarantees that onNext
+   * gets invoked serially for a subscription (also when fused).
    *
    * @param input the item
    */
   @Override
-  public synchronized void onNext(I input) {
-    O output = doProcess(input);
-    if (output != null)
-      publisher.submit(output);
-    subscription.request(Long.MAX_VALUE);
+  @SuppressWarnings("unchecked")
+  public void onNext(I input) {
+    long start = System.nanoTime();
+    if (input instanceof Batch) {
+      Batch<O> output = doProcessBatch((Batch<I>) input);
+      metrics.recordProcessing(((Batch<I>) input).size(), start);
+      if (!output.isEmpty()) {
+	metrics.recordOutput(output.size());
+	submitBatch(output);
+      }
+    }
+    else {
+      O output = doProcess(input);
+      metrics.recordProcessing(1, start);
+      if (output != null) {
+	metrics.recordOutput(1);
+	submit(output);
+      }
+    }
+    demand.requestNext();
+  }
+
+  /**
+   * Hands the batch on to the subscribers: as a whole if all of them can
+   * handle batches, otherwise item by item.
+   *
+   * @param batch the batch to hand on
+   */
+  @SuppressWarnings("unchecked")
+  protected void submitBatch(Batch<O> batch) {
+    if (!batchesChecked) {
+      batchesAccepted = Utils.acceptsBatches(publisher);
+      batchesChecked  = true;
+    }
+    if ((batch.size() > 1) && batchesAccepted) {
+      submit((O) batch);
+    }
+    else {
+      for (O item: batch)
+	submit(item);
+    }
+  }
+
+  /**
+   * Hands the data item on to the subscribers: either directly to the fused
+   * subscriber or via the publisher.
+   *
+   * @param item the item to hand on
+   */
+  protected void submit(O item) {
+    if (!fusionChecked) {
+      fused = fuse.isSet() ? Utils.getFusionTarget(publisher) : null;
+      fusionChecked = true;
+    }
+    if (fused == null) {
+      publisher.submit(item);
+    }
+    else if (!fusionFailed) {
+      try {
+	fused.onNext(item);
+      }
+      catch (Throwable t) {
+	// like the publisher, stop delivering to subscribers that failed
+	fusionFailed = true;
+	publisher.closeExceptionally(t);
+      }
+    }
+    else {
+      metrics.recordDropped((item instanceof Batch) ? ((Batch<?>) item).size() : 1);
+    }
   }
 
   /**
@@ -99,12 +280,19 @@ public abstract class AbstractTransformer<I, O>
    * methods are invoked by the Subscription.  If this method
    * itself throws an exception, resulting behavior is
    * undefined.
+   * <br>
+   * Passes the error on to the subscribers, so that the whole flow
+   * terminates. Only outputs the error if there are no subscribers.
+   * Derived classes must call this method when overriding it.
    *
    * @param throwable the exception
    */
   @Override
   public void onError(Throwable throwable) {
-    throwable.printStackTrace();
+    if (!getPublisher().hasSubscribers())
+      throwable.printStackTrace();
+    closePublisher(throwable);
+    completion.completeExceptionally(throwable);
   }
 
   /**
@@ -114,10 +302,32 @@ public abstract class AbstractTransformer<I, O>
    * other Subscriber methods are invoked by the Subscription.
    * If this method throws an exception, resulting behavior is
    * undefined.
+   * <br>
+   * Derived classes must call this method when overriding it.
    */
   @Override
   public void onComplete() {
-    publisher.close();
+    closePublisher(null);
+    completion.complete(null);
+  }
+
+  /**
+   * Closes the publisher, normally or with the error, and shuts down its
+   * executor once the subscribers have completed, if owned by this operator.
+   *
+   * @param error the error, null if completed normally
+   */
+  protected void closePublisher(Throwable error) {
+    SubmissionPublisher<O>	current;
+    List<Subscriber<? super O>>	subscribers;
+
+    current     = getPublisher();
+    subscribers = current.getSubscribers();
+    if (error == null)
+      current.close();
+    else
+      current.closeExceptionally(error);
+    ExecutorUtils.shutdownWhenDone(current, executor.getChosenIndex(), subscribers);
   }
 
   /**
@@ -126,7 +336,7 @@ public abstract class AbstractTransformer<I, O>
    * @param subscriber the object to subscribe
    */
   public void subscribe(Subscriber<? super O> subscriber) {
-    publisher.subscribe(subscriber);
+    getPublisher().subscribe(subscriber);
   }
 
   /**
@@ -136,7 +346,9 @@ public abstract class AbstractTransformer<I, O>
    *
    * @return list of current subscribers
    */
-  public List<Subscriber<? super O>> getSubscribers() {
+  public synchronized List<Subscriber<? super O>> getSubscribers() {
+    if (publisher == null)
+      return new ArrayList<>();
     return publisher.getSubscribers();
   }
 }
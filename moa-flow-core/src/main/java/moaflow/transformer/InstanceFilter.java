@@ -20,6 +20,11 @@
 
 package moaflow.transformer;
 
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import moaflow.core.Batch;
+import moaflow.core.ExecutorUtils;
 import moaflow.core.Utils;
 import com.yahoo.labs.samoa.instances.Instance;
 import moa.core.Example;
@@ -28,19 +33,64 @@ import moa.options.ClassOption;
 import moa.streams.filters.AddNoiseFilter;
 import moa.streams.filters.StreamFilter;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 /**
  * Filters instances.
+ * <br>
+ * Stateless filters can be applied in parallel, with each thread using its
+ * own copy of the filter. The filtered instances get handed on in the order
+ * they were received, using a bounded buffer of instances being filtered.
+ * Only filters that are known or declared to be stateless get applied in
+ * parallel, all others are considered stateful and either get applied
+ * sequentially or are refused, depending on the policy.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public class InstanceFilter
   extends AbstractTransformer<Example<Instance>, Example<Instance>> {
 
+  /**
+   * the classnames of filters that are known to be stateless. None of the
+   * MOA filters qualify, as they all (lazily) maintain state, e.g., the
+   * header or random projections initialized from the first instance.
+   */
+  public static final Set<String> STATELESS_FILTERS = new HashSet<>();
+
+  /** falling back on sequential filtering for stateful filters. */
+  public static final int POLICY_FALLBACK = 0;
+
+  /** refusing to filter in parallel with stateful filters. */
+  public static final int POLICY_REFUSE = 1;
+
   public ClassOption filter = new ClassOption("filter", 'f', "The filter to apply to the data stream", StreamFilter.class, AddNoiseFilter.class.getName());
 
+  public IntOption numFilterThreads = new IntOption("numFilterThreads", 't', "The number of threads for applying the filter in parallel, stateless filters only (1 = sequential)", 1, 1, Integer.MAX_VALUE);
+
+  public IntOption reorderBufferSize = new IntOption("reorderBufferSize", 'b', "The maximum number of instances being filtered in parallel, before waiting for the oldest one", 1024, 1, Integer.MAX_VALUE);
+
+  public FlagOption stateless = new FlagOption("stateless", 's', "Declares the filter as stateless, i.e., it can be applied in parallel using a copy per thread");
+
+  public MultiChoiceOption statefulPolicy = new MultiChoiceOption("statefulPolicy", 'p', "What to do when filtering in parallel with a stateful filter", new String[]{"Fallback", "Refuse"}, new String[]{"Filters sequentially", "Fails with an error"}, POLICY_FALLBACK);
+
   /** the actual filter. */
   protected transient StreamFilter actualFilter;
 
+  /** the threads for filtering in parallel, null if sequential. */
+  protected transient ExecutorService workers;
+
+  /** the filter copies of the threads. */
+  protected transient ThreadLocal<StreamFilter> workerFilters;
+
+  /** the instances being filtered, in the order they were received. */
+  protected transient ArrayDeque<Future<Instance>> pending;
   /**
    * Gets the purpose of this object
    *
@@ -60,16 +110,184 @@ public class InstanceFilter
     filter.setCurrentObject(Utils.fromCommandLine(StreamFilter.class, value));
   }
 
+  /**
+   * Checks whether the filter is stateful.
+   *
+   * @param filter the filter to check
+   * @return true unless declared or known to be stateless
+   * @see #STATELESS_FILTERS
+   */
+  public boolean isStateful(StreamFilter filter) {
+    return !stateless.isSet() && !STATELESS_FILTERS.contains(filter.getClass().getName());
+  }
+
+  /**
+   * Initializes the filter and, if filtering in parallel, the threads.
+   */
+  protected void initFilter() {
+    final StreamFilter	prototype;
+
+    actualFilter = (StreamFilter) filter.getPreMaterializedObject();
+    if (numFilterThreads.getValue() < 2)
+      return;
+
+    if (isStateful(actualFilter)) {
+      if (statefulPolicy.getChosenIndex() == POLICY_REFUSE)
+	throw new IllegalStateException("Cannot filter in parallel, filter is stateful: " + actualFilter.getClass().getName());
+      System.err.println("Filter is stateful, filtering sequentially: " + actualFilter.getClass().getName());
+      return;
+    }
+
+    // the copies get made from the unused filter
+    prototype     = actualFilter;
+    workerFilters = ThreadLocal.withInitial(() -> (StreamFilter) prototype.copy());
+    workers       = ExecutorUtils.newFixedPool(numFilterThreads.getValue(), "moaflow-" + getClass().getSimpleName());
+    pending       = new ArrayDeque<>();
+  }
+
+  /**
+   * Hands the instance to the threads.
+   *
+   * @param input the instance to filter
+   */
+  protected void dispatch(Example<Instance> input) {
+    pending.add(workers.submit(() -> workerFilters.get().filterInstance(input.getData())));
+  }
+
+  /**
+   * Removes the oldest instance from the buffer, waiting for it to be filtered.
+   *
+   * @return the filtered instance
+   */
+  protected Example<Instance> take() {
+    try {
+      return new InstanceExample(pending.remove().get());
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to filter instance!", e.getCause());
+    }
+    catch (InterruptedException e) {
+      throw new IllegalStateException("Interrupted while filtering instance!", e);
+    }
+  }
+
+  /**
+   * Removes the filtered instances from the buffer, in order. Waits for the
+   * oldest instances while the buffer exceeds its capacity.
+   *
+   * @param all whether to wait for all instances
+   * @param output the list to add the filtered instances to
+   */
+  protected void collect(boolean all, List<Example<Instance>> output) {
+    while (!pending.isEmpty()) {
+      if (all || (pending.size() > reorderBufferSize.getValue()) || pending.peek().isDone())
+	output.add(take());
+      else
+	break;
+    }
+  }
+
   /**
    * Transforms the input data.
+   * <br>
+   * When filtering in parallel, the filtered instances get handed on
+   * directly, as there can be none or several per input.
    *
    * @param input the input data
-   * @return the generated output data
+   * @return the generated output data, null when filtering in parallel
    */
   protected Example<Instance> doProcess(Example<Instance> input) {
+    List<Example<Instance>>	output;
+
     if (actualFilter == null)
-      actualFilter = (StreamFilter) filter.getPreMaterializedObject();
+      initFilter();
+
+    if (workers == null)
+      return new InstanceExample(actualFilter.filterInstance(input.getData()));
+
+    dispatch(input);
+    output = new ArrayList<>();
+    collect(false, output);
+    for (Example<Instance> item: output) {
+      metrics.recordOutput(1);
+      submit(item);
+    }
+    return null;
+  }
+
+  /**
+   * Transforms a batch of input data.
+   *
+   * @param input the input data
+   * @return the generated output data, can be empty
+   */
+  @Override
+  protected Batch<Example<Instance>> doProcessBatch(Batch<Example<Instance>> input) {
+    Batch<Example<Instance>>	result;
+
+    if (actualFilter == null)
+      initFilter();
+
+    if (workers == null)
+      return super.doProcessBatch(input);
+
+    result = new Batch<>(input.size());
+    for (Example<Instance> item: input) {
+      dispatch(item);
+      collect(false, result);
+    }
+    return result;
+  }
+
+  /**
+   * Shuts down the threads, if any.
+   *
+   * @param now whether to abandon the instances still being filtered
+   */
+  protected void shutdownWorkers(boolean now) {
+    if (workers == null)
+      return;
+    if (now)
+      workers.shutdownNow();
+    else
+      workers.shutdown();
+    workers = null;
+  }
+
+  /**
+   * Shuts down the threads before passing on the error.
+   *
+   * @param throwable the exception
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    shutdownWorkers(true);
+    super.onError(throwable);
+  }
+
+  /**
+   * Hands on the instances that are still being filtered and shuts down
+   * the threads, before completing.
+   */
+  @Override
+  public void onComplete() {
+    List<Example<Instance>>	output;
 
-    return new InstanceExample(actualFilter.filterInstance(input.getData()));
+    if (workers != null) {
+      output = new ArrayList<>();
+      try {
+	collect(true, output);
+      }
+      catch (Exception e) {
+	onError(e);
+	return;
+      }
+      shutdownWorkers(false);
+      for (Example<Instance> item: output) {
+	metrics.recordOutput(1);
+	submit(item);
+      }
+    }
+    super.onComplete();
   }
 }
@@ -21,6 +21,7 @@
 package moaflow.transformer;
 
 import moaflow.core.Utils;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
@@ -31,6 +32,13 @@ import moa.options.ClassOption;
 
 /**
  * Trains a classifier and forwards it.
+ * <br>
+ * Every n-th training step, the model gets forwarded (if there are any
+ * subscribers). By default, this is the model itself, which gets trained
+ * while synchronized on it, i.e., subscribers have to synchronize on the
+ * model as well (or copy it while doing so). With the snapshot option, a
+ * copy gets forwarded instead, which this operator never touches again, and
+ * the model gets trained without any locking.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -41,6 +49,8 @@ public class TrainClassifier
 
   public IntOption everyNth = new IntOption("everyNth", 'n', "Every n-th training step the classifier will get forwarded", 1000, 1, Integer.MAX_VALUE);
 
+  public FlagOption snapshot = new FlagOption("snapshot", 's', "If set, forwards a copy of the classifier instead of the classifier itself, which subscribers can use without synchronization");
+
   /** the counter for the training steps. */
   protected int counter;
 
@@ -90,13 +100,23 @@ public class TrainClassifier
     }
 
     counter++;
-    synchronized (actualClassifier) {
+    if (snapshot.isSet()) {
       actualClassifier.trainOnInstance(input.getData());
     }
+    else {
+      synchronized (actualClassifier) {
+	actualClassifier.trainOnInstance(input.getData());
+      }
+    }
 
     if (counter == everyNth.getValue()) {
       counter = 0;
-      return actualClassifier;
+      if (!publisher.hasSubscribers())
+	return null;
+      else if (snapshot.isSet())
+	return actualClassifier.copy();
+      else
+	return actualClassifier;
     }
     else {
       return null;
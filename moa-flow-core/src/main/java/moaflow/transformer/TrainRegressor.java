@@ -21,6 +21,7 @@
 package moaflow.transformer;
 
 import moaflow.core.Utils;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
@@ -32,6 +33,13 @@ import moa.options.ClassOption;
 
 /**
  * Trains a regressor and forwards it.
+ * <br>
+ * Every n-th training step, the model gets forwarded (if there are any
+ * subscribers). By default, this is the model itself, which gets trained
+ * while synchronized on it, i.e., subscribers have to synchronize on the
+ * model as well (or copy it while doing so). With the snapshot option, a
+ * copy gets forwarded instead, which this operator never touches again, and
+ * the model gets trained without any locking.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -42,6 +50,8 @@ public class TrainRegressor
 
   public IntOption everyNth = new IntOption("everyNth", 'n', "Every n-th training step the regressor will get forwarded", 1000, 1, Integer.MAX_VALUE);
 
+  public FlagOption snapshot = new FlagOption("snapshot", 's', "If set, forwards a copy of the regressor instead of the regressor itself, which subscribers can use without synchronization");
+
   /** the counter for the training steps. */
   protected int counter;
 
@@ -91,13 +101,23 @@ public class TrainRegressor
     }
 
     counter++;
-    synchronized (actualRegressor) {
+    if (snapshot.isSet()) {
       ((Classifier) actualRegressor).trainOnInstance(input.getData());
     }
+    else {
+      synchronized (actualRegressor) {
+	((Classifier) actualRegressor).trainOnInstance(input.getData());
+      }
+    }
 
     if (counter == everyNth.getValue()) {
       counter = 0;
-      return actualRegressor;
+      if (!publisher.hasSubscribers())
+	return null;
+      else if (snapshot.isSet())
+	return (Regressor) ((Classifier) actualRegressor).copy();
+      else
+	return actualRegressor;
     }
     else {
       return null;
@@ -27,14 +27,25 @@ import moa.core.Measurement;
 import moa.evaluation.LearningEvaluation;
 import moa.evaluation.LearningPerformanceEvaluator;
 import moa.learners.Learner;
+import moaflow.core.ExecutorUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 /**
  * Base class for evaluation schemes which evaluate a number of
  * cross-validated copies of a learner.
+ * <br>
+ * The folds can be evaluated in parallel, with each fold always being
+ * evaluated by the same worker thread, in the order of the instances. The
+ * training weights (and the delayed training instances, if any) get
+ * determined on the calling thread beforehand, so the results are the same
+ * as when evaluating sequentially. Learners must not
+ * modify the instances, as these are shared across the folds.
  *
  * @author Corey Sterling (csterlin at waikato dot ac dot nz)
  */
@@ -45,16 +56,29 @@ public abstract class AbstractAveragedEvaluationScheme
   public IntOption numFoldsOption = new IntOption("numFolds", 'w',
     "The number of folds (e.g. distributed models) to be used.", 10, 1, Integer.MAX_VALUE);
 
+  /** Option to specify the number of threads to evaluate the folds with. */
+  public IntOption numThreadsOption = new IntOption("numThreads", 't',
+    "The number of threads for evaluating the folds in parallel (1 = sequential).", 1, 1, Integer.MAX_VALUE);
+
+  /** Option to specify the maximum number of pending instances per thread. */
+  public IntOption maxPendingOption = new IntOption("maxPending", 'q',
+    "The maximum number of instances per thread that are waiting to be evaluated, when evaluating in parallel.", 1000, 1, Integer.MAX_VALUE);
+
   /** The learners being evaluated for each fold. */
   protected Learner[] m_Learners;
 
   /** The evaluator for each fold. */
   protected LearningPerformanceEvaluator[] m_Evaluators;
 
-  /**
-   * Buffer of instances to use for training with delayed algorithm
-   */
-  protected LinkedList<LinkedList<Example>> trainInstances;
+  /** The workers evaluating the folds in parallel, null if sequential. */
+  protected transient ExecutorService[] m_Workers;
+
+  /** Limits the number of pending instances per worker. */
+  protected transient Semaphore[] m_Pending;
+
+  /** The first error encountered by the workers. */
+  protected transient volatile Throwable m_Failure;
+
   /**
    * Gets the number of folds to evaluate.
    */
@@ -62,6 +86,13 @@ public abstract class AbstractAveragedEvaluationScheme
     return numFoldsOption.getValue();
   }
 
+  /**
+   * Gets the number of threads to evaluate the folds with.
+   */
+  public int numThreads() {
+    return Math.min(numThreadsOption.getValue(), numFolds());
+  }
+
   /**
    * Initialises the evaluation scheme with the base learner to
    * evaluate and the evaluator to use.
@@ -72,17 +103,29 @@ public abstract class AbstractAveragedEvaluationScheme
   @Override
   public void initialise(Learner<Example<Instance>> baseLearner, LearningPerformanceEvaluator<Example<Instance>> baseEvaluator) {
     super.initialise(baseLearner, baseEvaluator);
+    shutdownWorkers();
 
     // Create the fold learners and evaluators
     m_Learners = new Learner[numFolds()];
     m_Evaluators = new LearningPerformanceEvaluator[numFolds()];
-    trainInstances = new LinkedList<LinkedList<Example>>();
     for (int i = 0; i < numFolds(); i++) {
-      trainInstances.add(new LinkedList<Example>());
       m_Learners[i] = (Learner) m_BaseLearner.copy();
       m_Learners[i].setModelContext(m_BaseLearner.getModelContext());
       m_Evaluators[i] = (LearningPerformanceEvaluator) m_BaseEvaluator.copy();
     }
+
+    // Create the workers
+    m_Failure = null;
+    m_Workers = null;
+    m_Pending = null;
+    if (numThreads() > 1) {
+      m_Workers = new ExecutorService[numThreads()];
+      m_Pending = new Semaphore[numThreads()];
+      for (int i = 0; i < numThreads(); i++) {
+	m_Workers[i] = ExecutorUtils.newFixedPool(1, "moaflow-" + getClass().getSimpleName() + "-" + i);
+	m_Pending[i] = new Semaphore(maxPendingOption.getValue());
+      }
+    }
   }
 
   /**
@@ -92,21 +135,226 @@ public abstract class AbstractAveragedEvaluationScheme
    */
   @Override
   public void performEvaluation(Example<Instance> instance) {
+    List<Example<Instance>>	instances;
+    int[][]			weights;
+    Example<Instance>[][]	delayed;
+    int				weight;
+
     // Perform the single evaluation scheme on each learner/evaluator pair
-    for (int i = 0; i < numFolds(); i++){
-      performSingleEvaluation(i, instance, m_Learners[i], m_Evaluators[i]);
+    if (m_Workers == null) {
+      for (int i = 0; i < numFolds(); i++) {
+	weight = getTrainingWeight(i, instance);
+	performSingleEvaluation(i, instance, weight, getDelayedInstance(i, instance, weight), m_Learners[i], m_Evaluators[i]);
+      }
+    }
+    else {
+      instances = new ArrayList<>(1);
+      instances.add(instance);
+      weights = new int[1][numFolds()];
+      delayed = newDelayed(1);
+      determineTraining(instance, weights[0], delayed, 0);
+      dispatch(instances, weights, delayed);
+    }
+  }
+
+  /**
+   * Evaluates the specified range of instances using this scheme, with
+   * the same outcome as evaluating them one by one. When evaluating in
+   * parallel, each worker receives the whole range at once.
+   *
+   * @param instances	The instances to evaluate.
+   * @param from	The index of the first instance (incl).
+   * @param to		The index of the last instance (excl).
+   */
+  @Override
+  public void evaluate(List<Example<Instance>> instances, int from, int to) {
+    int[][]			weights;
+    Example<Instance>[][]	delayed;
+
+    if (m_Workers == null) {
+      super.evaluate(instances, from, to);
+      return;
+    }
+
+    weights = new int[to - from][numFolds()];
+    delayed = newDelayed(to - from);
+    for (int i = from; i < to; i++) {
+      determineTraining(instances.get(i), weights[i - from], delayed, i - from);
+      m_NumInstancesProcessed++;
+    }
+    dispatch(new ArrayList<>(instances.subList(from, to)), weights, delayed);
+  }
+
+  /**
+   * Creates the table for the delayed instances, with the rows getting
+   * created on demand.
+   *
+   * @param numInstances	The number of instances (ie rows).
+   * @return			The table.
+   * @see #newDelayedRow()
+   */
+  @SuppressWarnings("unchecked")
+  protected Example<Instance>[][] newDelayed(int numInstances) {
+    return (Example<Instance>[][]) new Example<?>[numInstances][];
+  }
+
+  /**
+   * Creates a row for the delayed instances, one per fold.
+   *
+   * @return			The row.
+   */
+  @SuppressWarnings("unchecked")
+  protected Example<Instance>[] newDelayedRow() {
+    return (Example<Instance>[]) new Example<?>[numFolds()];
+  }
+
+  /**
+   * Determines the training weights and delayed training instances of all
+   * folds for the instance, for evaluating in parallel.
+   *
+   * @param instance	The instance to evaluate.
+   * @param weights	For storing the weights per fold.
+   * @param delayed	For storing the delayed instances per fold, the row
+   * 			only gets created if there are any.
+   * @param index	The row in the delayed instances.
+   */
+  protected void determineTraining(Example<Instance> instance, int[] weights, Example<Instance>[][] delayed, int index) {
+    Example<Instance>	train;
+
+    for (int n = 0; n < numFolds(); n++) {
+      weights[n] = getTrainingWeight(n, instance);
+      train      = getDelayedInstance(n, instance, weights[n]);
+      if (train != null) {
+	if (delayed[index] == null)
+	  delayed[index] = newDelayedRow();
+	delayed[index][n] = train;
+      }
+    }
+  }
+
+  /**
+   * Hands the instances to the workers, blocks while a worker has too many
+   * pending instances.
+   *
+   * @param instances	The instances to evaluate.
+   * @param weights	The training weights per instance and fold.
+   * @param delayed	The delayed training instances per instance and fold,
+   * 			null rows if none.
+   */
+  protected void dispatch(List<Example<Instance>> instances, int[][] weights, Example<Instance>[][] delayed) {
+    int		permits;
+
+    checkFailure();
+    permits = Math.min(instances.size(), maxPendingOption.getValue());
+    for (int w = 0; w < m_Workers.length; w++) {
+      final int worker = w;
+      m_Pending[worker].acquireUninterruptibly(permits);
+      m_Workers[worker].execute(() -> {
+	try {
+	  if (m_Failure != null)
+	    return;
+	  for (int i = 0; i < instances.size(); i++) {
+	    for (int n = worker; n < numFolds(); n += m_Workers.length)
+	      performSingleEvaluation(n, instances.get(i), weights[i][n], (delayed[i] == null) ? null : delayed[i][n], m_Learners[n], m_Evaluators[n]);
+	  }
+	}
+	catch (Throwable t) {
+	  if (m_Failure == null)
+	    m_Failure = t;
+	}
+	finally {
+	  m_Pending[worker].release(permits);
+	}
+      });
+    }
+  }
+
+  /**
+   * Shuts down the workers, if any, once they have evaluated all pending
+   * instances.
+   */
+  protected void shutdownWorkers() {
+    if (m_Workers == null)
+      return;
+    for (ExecutorService worker: m_Workers)
+      worker.shutdown();
+    m_Workers = null;
+    m_Pending = null;
+  }
+
+  /**
+   * Finishes the evaluation, shutting down the workers.
+   */
+  @Override
+  public void finish() {
+    shutdownWorkers();
+  }
+
+  /**
+   * Waits for the workers to evaluate all pending instances.
+   */
+  protected void awaitWorkers() {
+    if (m_Workers == null)
+      return;
+    for (Semaphore pending: m_Pending) {
+      pending.acquireUninterruptibly(maxPendingOption.getValue());
+      pending.release(maxPendingOption.getValue());
     }
+    checkFailure();
+  }
+
+  /**
+   * Throws an exception if a worker failed.
+   */
+  protected void checkFailure() {
+    if (m_Failure != null)
+      throw new IllegalStateException("Failed to evaluate fold!", m_Failure);
+  }
+
+  /**
+   * Determines the weight for training the learner of the repetition on
+   * the instance. Gets called on the calling thread, in the order of the
+   * instances and repetitions, before the instance gets evaluated.
+   *
+   * @param repetition	The repetition.
+   * @param instance	The instance to evaluate.
+   * @return		The weight factor, 0 if not to train on the instance.
+   */
+  protected abstract int getTrainingWeight(int repetition, Example<Instance> instance);
+
+  /**
+   * Determines the instance that the learner of the repetition gets trained
+   * on after evaluating the instance, for schemes that delay the training.
+   * Gets called on the calling thread, in the order of the instances and
+   * repetitions, right after {@link #getTrainingWeight(int, Example)}.
+   * <br>
+   * The default implementation returns null.
+   *
+   * @param repetition	The repetition.
+   * @param instance	The instance to evaluate.
+   * @param weight	The training weight factor of the instance.
+   * @return		The instance to train on, null if none.
+   */
+  protected Example<Instance> getDelayedInstance(int repetition, Example<Instance> instance, int weight) {
+    return null;
   }
 
   /**
    * Evaluates a single repetition of this averaged evaluation scheme.
+   * May get called by a worker thread, therefore must not access any state
+   * other than that of the repetition.
    *
+   * @param repetition	The repetition.
    * @param instance	The instance to evaluate.
+   * @param weight	The training weight factor, see {@link #getTrainingWeight(int, Example)}.
+   * @param delayed	The delayed instance to train on, see {@link #getDelayedInstance(int, Example, int)}.
    * @param learner	The repetition learner.
    * @param evaluator	The repetition evaluator.
    */
   public abstract void performSingleEvaluation(int repetition,
 					       Example<Instance> instance,
+					       int weight,
+					       Example<Instance> delayed,
 					       Learner<Example<Instance>> learner,
 					       LearningPerformanceEvaluator<Example<Instance>> evaluator);
 
@@ -149,6 +397,9 @@ public abstract class AbstractAveragedEvaluationScheme
    * @return	The averaged measurements.
    */
   public Measurement[] getAverageMeasurements() {
+    // Wait for the folds to catch up
+    awaitWorkers();
+
     // Get the measurements for each evaluator
     List<Measurement[]> evaluatorMeasurements = new LinkedList<>();
     for (LearningPerformanceEvaluator evaluator : m_Evaluators)
@@ -26,6 +26,8 @@ import moa.evaluation.LearningEvaluation;
 import moa.evaluation.LearningPerformanceEvaluator;
 import moa.learners.Learner;
 
+import java.util.List;
+
 /**
  * Evaluation schemes define how to evaluate a learner.
  *
@@ -50,6 +52,19 @@ public interface EvaluationScheme {
    */
   void evaluate(Example<Instance> instance);
 
+  /**
+   * Evaluates the specified range of instances using this scheme, with
+   * the same outcome as evaluating them one by one.
+   *
+   * @param instances	The instances to evaluate.
+   * @param from	The index of the first instance (incl).
+   * @param to		The index of the last instance (excl).
+   */
+  default void evaluate(List<Example<Instance>> instances, int from, int to) {
+    for (int i = from; i < to; i++)
+      evaluate(instances.get(i));
+  }
+
   /**
    * Gets the number of instances processed by this scheme.
    *
@@ -64,4 +79,13 @@ public interface EvaluationScheme {
    */
   LearningEvaluation getEvaluation();
 
+  /**
+   * Finishes the evaluation, releasing any resources (e.g., threads)
+   * held by the scheme.
+   * <br>
+   * Default implementation does nothing.
+   */
+  default void finish() {
+  }
+
 }
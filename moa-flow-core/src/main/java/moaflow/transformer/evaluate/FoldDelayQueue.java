@@ -0,0 +1,233 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FoldDelayQueue.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.transformer.evaluate;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Example;
+
+import java.io.Serializable;
+
+/**
+ * Delays the training instances of a number of folds, using a single ring of
+ * instances shared by all folds. Per instance, a bitmap records which folds
+ * still have to train on it, and each fold has a cursor pointing past the
+ * last instance it has trained on. Instances get released once all folds
+ * have trained on them. Memory therefore depends on the delay and the
+ * fraction of instances the folds train on, not on the number of folds.
+ * <br>
+ * Not thread-safe, all methods must get called by the same thread.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class FoldDelayQueue
+  implements Serializable {
+
+  private static final long serialVersionUID = -2749616640366102164L;
+
+  /** the number of folds. */
+  protected int numFolds;
+
+  /** the number of words per bitmap. */
+  protected int numWords;
+
+  /** the delay, i.e., the number of instances a fold keeps before training. */
+  protected int delay;
+
+  /** the instances (capacity is a power of 2). */
+  protected Example<Instance>[] instances;
+
+  /** the bitmaps of the folds that still have to train on the instances (slot-major). */
+  protected long[] folds;
+
+  /** the sequence number of the oldest instance in the ring. */
+  protected long head;
+
+  /** the sequence number of the next instance to add. */
+  protected long tail;
+
+  /** the sequence number from which on to look for the next instance, per fold. */
+  protected long[] cursors;
+
+  /** the number of instances waiting to be trained on, per fold. */
+  protected int[] pending;
+
+  /** whether the current instance has been added to the ring already. */
+  protected boolean added;
+
+  /**
+   * Initializes the queue.
+   *
+   * @param numFolds	the number of folds
+   * @param delay	the number of instances a fold keeps before training
+   */
+  @SuppressWarnings("unchecked")
+  public FoldDelayQueue(int numFolds, int delay) {
+    int		capacity;
+
+    // grows on demand
+    capacity = Integer.highestOneBit(Math.max(1, Math.min(delay, 1 << 16))) * 2;
+    this.numFolds  = numFolds;
+    this.numWords  = (numFolds + 63) / 64;
+    this.delay     = delay;
+    this.instances = (Example<Instance>[]) new Example<?>[capacity];
+    this.folds     = new long[capacity * numWords];
+    this.head      = 0;
+    this.tail      = 0;
+    this.cursors   = new long[numFolds];
+    this.pending   = new int[numFolds];
+    this.added     = false;
+  }
+
+  /**
+   * Returns the number of instances in the ring.
+   *
+   * @return the number of instances
+   */
+  public int size() {
+    return (int) (tail - head);
+  }
+
+  /**
+   * Returns the number of instances waiting to be trained on by the fold.
+   *
+   * @param fold	the fold
+   * @return		the number of instances
+   */
+  public int pending(int fold) {
+    return pending[fold];
+  }
+
+  /**
+   * Returns the slot of the sequence number.
+   *
+   * @param seq		the sequence number
+   * @return		the slot
+   */
+  protected int slot(long seq) {
+    return (int) (seq & (instances.length - 1));
+  }
+
+  /**
+   * Doubles the capacity of the ring.
+   */
+  @SuppressWarnings("unchecked")
+  protected void grow() {
+    Example<Instance>[]	newInstances;
+    long[]		newFolds;
+    long		seq;
+    int			from;
+    int			to;
+
+    newInstances = (Example<Instance>[]) new Example<?>[instances.length * 2];
+    newFolds     = new long[newInstances.length * numWords];
+    for (seq = head; seq < tail; seq++) {
+      from = slot(seq);
+      to   = (int) (seq & (newInstances.length - 1));
+      newInstances[to] = instances[from];
+      System.arraycopy(folds, from * numWords, newFolds, to * numWords, numWords);
+    }
+    instances = newInstances;
+    folds     = newFolds;
+  }
+
+  /**
+   * Moves on to the next instance, i.e., subsequent calls of
+   * {@link #add(int, Example)} add a new instance to the ring.
+   */
+  public void next() {
+    added = false;
+  }
+
+  /**
+   * Adds the current instance, so that the specified fold trains on it later
+   * on. The instance only gets added to the ring once, no matter how many
+   * folds train on it.
+   *
+   * @param fold	the fold
+   * @param instance	the current instance
+   * @see #next()
+   */
+  public void add(int fold, Example<Instance> instance) {
+    int		slot;
+
+    if (!added) {
+      if (tail - head == instances.length)
+	grow();
+      instances[slot(tail)] = instance;
+      tail++;
+      added = true;
+    }
+    slot = slot(tail - 1);
+    folds[slot * numWords + (fold >> 6)] |= 1L << fold;
+    pending[fold]++;
+  }
+
+  /**
+   * Removes the oldest instance of the fold if the fold has more instances
+   * waiting than the delay allows.
+   *
+   * @param fold	the fold
+   * @return		the instance to train the fold on, null if none
+   */
+  public Example<Instance> poll(int fold) {
+    Example<Instance>	result;
+    long		seq;
+    int			word;
+    long		mask;
+    int			slot;
+
+    if (pending[fold] <= delay)
+      return null;
+
+    word = fold >> 6;
+    mask = 1L << fold;
+    seq  = Math.max(cursors[fold], head);
+    while ((folds[slot(seq) * numWords + word] & mask) == 0)
+      seq++;
+    slot   = slot(seq);
+    result = instances[slot];
+    folds[slot * numWords + word] &= ~mask;
+    cursors[fold] = seq + 1;
+    pending[fold]--;
+    release();
+
+    return result;
+  }
+
+  /**
+   * Releases the oldest instances that all folds have trained on. The
+   * current instance is kept, as further folds may still add it.
+   */
+  protected void release() {
+    int		slot;
+    int		i;
+
+    while (head < (added ? tail - 1 : tail)) {
+      slot = slot(head);
+      for (i = 0; i < numWords; i++) {
+	if (folds[slot * numWords + i] != 0)
+	  return;
+      }
+      instances[slot] = null;
+      head++;
+    }
+  }
+}
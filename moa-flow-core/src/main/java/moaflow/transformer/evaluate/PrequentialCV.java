@@ -87,23 +87,15 @@ public class PrequentialCV
   }
 
   /**
-   * Evaluates a single repetition of this averaged evaluation scheme.
+   * Determines the weight for training the learner of the repetition on
+   * the instance.
    *
+   * @param repetition	The repetition.
    * @param instance	The instance to evaluate.
-   * @param learner	The repetition learner.
-   * @param evaluator	The repetition evaluator.
+   * @return		The weight factor, 0 if not to train on the instance.
    */
   @Override
-  public void performSingleEvaluation(int repetition,
-				      Example<Instance> instance,
-				      Learner<Example<Instance>> learner,
-				      LearningPerformanceEvaluator<Example<Instance>> evaluator) {
-    // Prequential evaluation
-    if (instance.getData().classAttribute().isNominal())
-      evaluator.addResult(instance, learner.getVotesForInstance(instance));
-    else
-      evaluator.addResult(instance, learner.getPredictionForInstance(instance));
-
+  protected int getTrainingWeight(int repetition, Example<Instance> instance) {
     // Validation methodology weight selection
     int k = 1;
     switch (validationMethodologyOption.getChosenIndex()) {
@@ -117,11 +109,36 @@ public class PrequentialCV
 	k = m_NumInstancesProcessed % numFolds() == repetition ? 1: 0; //Test only one
 	break;
     }
+    return k;
+  }
+
+  /**
+   * Evaluates a single repetition of this averaged evaluation scheme.
+   *
+   * @param repetition	The repetition.
+   * @param instance	The instance to evaluate.
+   * @param weight	The training weight factor.
+   * @param delayed	Ignored, as training is not delayed.
+   * @param learner	The repetition learner.
+   * @param evaluator	The repetition evaluator.
+   */
+  @Override
+  public void performSingleEvaluation(int repetition,
+				      Example<Instance> instance,
+				      int weight,
+				      Example<Instance> delayed,
+				      Learner<Example<Instance>> learner,
+				      LearningPerformanceEvaluator<Example<Instance>> evaluator) {
+    // Prequential evaluation
+    if (instance.getData().classAttribute().isNominal())
+      evaluator.addResult(instance, learner.getVotesForInstance(instance));
+    else
+      evaluator.addResult(instance, learner.getPredictionForInstance(instance));
 
     // Reweight and train
-    if (k > 0) {
+    if (weight > 0) {
       Example weightedInstance = instance.copy();
-      weightedInstance.setWeight(instance.weight() * k);
+      weightedInstance.setWeight(instance.weight() * weight);
       learner.trainOnInstance(weightedInstance);
     }
   }
@@ -23,22 +23,30 @@ package moaflow.transformer.evaluate;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.SparseInstance;
 import moa.core.Example;
 import moa.core.InstanceExample;
 import moa.evaluation.LearningPerformanceEvaluator;
 import moa.learners.Learner;
 
-import java.util.LinkedList;
-import java.util.Random;
-
 /**
  * Performs single-learner delayed prequential evaluation.
+ * <br>
+ * The instances waiting to be used for training are kept in a circular
+ * array of fixed size. With label masking, the learner makes its predictions
+ * on a copy of the instance without the class value. For dense instances,
+ * the copy gets reused, i.e., no objects get allocated per instance.
  *
  * @author Truong To (todinhtruong at gmail dot com)
  */
 public class PrequentialDelayed
         extends AbstractSingleEvaluationScheme {
 
+    /**
+     * The initial capacity of the training buffer, it grows on demand up to delay + 1.
+     */
+    public static final int INITIAL_CAPACITY = 1024;
+
     public IntOption delayLengthOption = new IntOption("delay", 'k',
             "Number of instances before test instance is used for training",
             1000, 1, Integer.MAX_VALUE);
@@ -53,15 +61,38 @@ public class PrequentialDelayed
     public FlagOption trainInBatches = new FlagOption("trainInBatches", 'b',
             "If set training will not be interleaved with testing. ");
 
+    public FlagOption maskLabelsOption = new FlagOption("maskLabels", 'l',
+            "If set, the learner makes its predictions on instances without the class value.");
+
     /**
      * for counting the evaluations.
      */
     protected int counter;
 
     /**
-     * Buffer of instances to use for training.
+     * Circular buffer of instances to use for training (grows up to delay + 1).
+     */
+    protected Example<Instance>[] trainInstances;
+
+    /**
+     * The position of the oldest instance in the buffer.
+     */
+    protected int trainHead;
+
+    /**
+     * The number of instances in the buffer.
      */
-    protected LinkedList<Example> trainInstances;
+    protected int trainSize;
+
+    /**
+     * The reusable copy of the test instance without class value, null if not available yet.
+     */
+    protected Instance maskedInstance;
+
+    /**
+     * The example wrapping the masked instance.
+     */
+    protected Example<Instance> maskedExample;
 
     /**
      * Gets the purpose of this object
@@ -84,7 +115,97 @@ public class PrequentialDelayed
         super.initialise(baseLearner, baseEvaluator);
 
         counter = 0;
-        trainInstances = new LinkedList<Example>();
+        // batch training only happens once the buffer holds delay + 1 instances
+        trainInstances = newBuffer((int) Math.min(delayLengthOption.getValue() + 1L, INITIAL_CAPACITY));
+        trainHead = 0;
+        trainSize = 0;
+        maskedInstance = null;
+        maskedExample = null;
+    }
+
+    /**
+     * Creates a training buffer.
+     *
+     * @param capacity the capacity of the buffer
+     * @return the buffer
+     */
+    @SuppressWarnings("unchecked")
+    protected Example<Instance>[] newBuffer(int capacity) {
+        return (Example<Instance>[]) new Example<?>[capacity];
+    }
+
+    /**
+     * Doubles the capacity of the training buffer, moving the oldest instance
+     * to the start.
+     */
+    protected void growBuffer() {
+        Example<Instance>[] buffer = newBuffer((int) Math.min(trainInstances.length * 2L, Integer.MAX_VALUE - 8));
+        int first = Math.min(trainSize, trainInstances.length - trainHead);
+        System.arraycopy(trainInstances, trainHead, buffer, 0, first);
+        System.arraycopy(trainInstances, 0, buffer, first, trainSize - first);
+        trainInstances = buffer;
+        trainHead = 0;
+    }
+
+    /**
+     * Adds the instance to the end of the training buffer.
+     *
+     * @param instance the instance to add
+     */
+    protected void addTrainInstance(Example<Instance> instance) {
+        if (trainSize == trainInstances.length)
+            growBuffer();
+        int index = trainHead + trainSize;
+        if (index >= trainInstances.length)
+            index -= trainInstances.length;
+        trainInstances[index] = instance;
+        trainSize++;
+    }
+
+    /**
+     * Removes the oldest instance from the training buffer and trains the learner on it.
+     */
+    protected void trainOnOldestInstance() {
+        Example<Instance> trainInst = trainInstances[trainHead];
+        trainInstances[trainHead] = null;
+        trainHead++;
+        if (trainHead == trainInstances.length)
+            trainHead = 0;
+        trainSize--;
+        m_BaseLearner.trainOnInstance(trainInst);
+    }
+
+    /**
+     * Returns the instance to make the prediction for: the instance itself or,
+     * with label masking, a copy without the class value. The copy gets reused
+     * for dense instances of the same dataset.
+     *
+     * @param instance the instance to evaluate
+     * @return the instance for the learner
+     */
+    protected Example<Instance> getTestInstance(Example<Instance> instance) {
+        if (!maskLabelsOption.isSet())
+            return instance;
+
+        Instance data = instance.getData();
+        if (data instanceof SparseInstance) {
+            Instance copy = data.copy();
+            copy.setMissing(copy.classIndex());
+            return new InstanceExample(copy);
+        }
+
+        if ((maskedInstance == null)
+                || (maskedInstance.dataset() != data.dataset())
+                || (maskedInstance.numAttributes() != data.numAttributes())) {
+            maskedInstance = data.copy();
+            maskedExample = new InstanceExample(maskedInstance);
+        } else {
+            for (int i = 0; i < data.numAttributes(); i++)
+                maskedInstance.setValue(i, data.value(i));
+            maskedInstance.setWeight(data.weight());
+        }
+        maskedInstance.setMissing(maskedInstance.classIndex());
+        return maskedExample;
     }
 
     @Override
@@ -94,35 +215,27 @@ public class PrequentialDelayed
             if (trainOnInitialWindowOption.isSet()) {
                 m_BaseLearner.trainOnInstance(instance);
             } else if ((initialWindowSizeOption.getValue() - counter) < delayLengthOption.getValue()) {
-                trainInstances.addLast(instance);
+                addTrainInstance(instance);
             }
         } else {
-            trainInstances.addLast(instance);
+            addTrainInstance(instance);
 
-            if (delayLengthOption.getValue() < trainInstances.size()) {
+            if (delayLengthOption.getValue() < trainSize) {
                 if (trainInBatches.isSet()) {
                     // Do not train on the latest instance, otherwise
                     // it would train on k+1 instances
-                    while (trainInstances.size() > 1) {
-                        Example trainInst = trainInstances.removeFirst();
-                        m_BaseLearner.trainOnInstance(trainInst);
-                    }
+                    while (trainSize > 1)
+                        trainOnOldestInstance();
                 } else {
-                    Example trainInst = trainInstances.removeFirst();
-                    m_BaseLearner.trainOnInstance(trainInst);
+                    trainOnOldestInstance();
                 }
             }
 
-            // Remove class label from test instances.
-            Instance testInstance = ((Instance) instance.getData()).copy();
-            Example testInst = new InstanceExample(testInstance);
-            testInstance.setMissing(testInstance.classAttribute());
-            testInstance.setClassValue(0.0);
-
+            Example<Instance> testInst = getTestInstance(instance);
             if (instance.getData().classAttribute().isNominal())
-                m_BaseEvaluator.addResult(instance, m_BaseLearner.getVotesForInstance(instance));
+                m_BaseEvaluator.addResult(instance, m_BaseLearner.getVotesForInstance(testInst));
             else
-                m_BaseEvaluator.addResult(instance, m_BaseLearner.getPredictionForInstance(instance));
+                m_BaseEvaluator.addResult(instance, m_BaseLearner.getPredictionForInstance(testInst));
         }
     }
 }
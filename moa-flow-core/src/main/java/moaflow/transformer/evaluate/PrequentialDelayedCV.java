@@ -28,11 +28,14 @@ import moa.core.MiscUtils;
 import moa.evaluation.LearningPerformanceEvaluator;
 import moa.learners.Learner;
 
-import java.util.LinkedList;
 import java.util.Random;
 
 /**
  * Performs delayed cross-validated prequential evaluation of a learner.
+ * <br>
+ * The instances waiting to be used for training are kept in a single queue
+ * shared by the folds, see {@link FoldDelayQueue}, which gets maintained on
+ * the calling thread, also when evaluating the folds in parallel.
  *
  * @author Truong To (todinhtruong at gmail dot com)
  */
@@ -75,6 +78,11 @@ public class PrequentialDelayedCV
      */
     protected Random m_Random;
 
+    /**
+     * The instances waiting to be used for training by the folds.
+     */
+    protected FoldDelayQueue m_DelayQueue;
+
     /**
      * Gets the purpose of this object
      *
@@ -98,26 +106,19 @@ public class PrequentialDelayedCV
         super.initialise(baseLearner, baseEvaluator);
 
         m_Random = new Random(randomSeedOption.getValue());
+        m_DelayQueue = new FoldDelayQueue(numFolds(), delayLengthOption.getValue());
     }
 
     /**
-     * Evaluates a single repetition of this averaged evaluation scheme.
+     * Determines the weight for training the learner of the repetition on
+     * the instance.
      *
-     * @param instance  The instance to evaluate.
-     * @param learner   The repetition learner.
-     * @param evaluator The repetition evaluator.
+     * @param repetition The repetition.
+     * @param instance   The instance to evaluate.
+     * @return The weight factor, 0 if not to train on the instance.
      */
     @Override
-    public void performSingleEvaluation(int repetition,
-                                        Example<Instance> instance,
-                                        Learner<Example<Instance>> learner,
-                                        LearningPerformanceEvaluator<Example<Instance>> evaluator) {
-        // Prequential evaluation
-        if (instance.getData().classAttribute().isNominal())
-            evaluator.addResult(instance, learner.getVotesForInstance(instance));
-        else
-            evaluator.addResult(instance, learner.getPredictionForInstance(instance));
-
+    protected int getTrainingWeight(int repetition, Example<Instance> instance) {
         // Validation methodology weight selection
         int k = 1;
         switch (validationMethodologyOption.getChosenIndex()) {
@@ -131,15 +132,51 @@ public class PrequentialDelayedCV
                 k = (m_NumInstancesProcessed + 1) % numFolds() == repetition ? 1 : 0; //Test only one
                 break;
         }
+        return k;
+    }
 
-        if (k > 0) {
-            trainInstances.get(repetition).addLast(instance);
-        }
-        if (delayLengthOption.getValue() < trainInstances.get(repetition).size()) {
-            Example trainInstI = trainInstances.get(repetition).removeFirst();
-            learner.trainOnInstance(trainInstI);
-        }
+    /**
+     * Queues the instance for the repetition if it gets trained on and returns
+     * the oldest queued instance once more instances are queued than the delay allows.
+     *
+     * @param repetition The repetition.
+     * @param instance   The instance to evaluate.
+     * @param weight     The training weight factor of the instance.
+     * @return The instance to train on, null if none.
+     */
+    @Override
+    protected Example<Instance> getDelayedInstance(int repetition, Example<Instance> instance, int weight) {
+        if (repetition == 0)
+            m_DelayQueue.next();
+        if (weight > 0)
+            m_DelayQueue.add(repetition, instance);
+        return m_DelayQueue.poll(repetition);
+    }
 
+    /**
+     * Evaluates a single repetition of this averaged evaluation scheme.
+     *
+     * @param repetition The repetition.
+     * @param instance   The instance to evaluate.
+     * @param weight     The training weight factor.
+     * @param delayed    The delayed instance to train on, null if none.
+     * @param learner    The repetition learner.
+     * @param evaluator  The repetition evaluator.
+     */
+    @Override
+    public void performSingleEvaluation(int repetition,
+                                        Example<Instance> instance,
+                                        int weight,
+                                        Example<Instance> delayed,
+                                        Learner<Example<Instance>> learner,
+                                        LearningPerformanceEvaluator<Example<Instance>> evaluator) {
+        // Prequential evaluation
+        if (instance.getData().classAttribute().isNominal())
+            evaluator.addResult(instance, learner.getVotesForInstance(instance));
+        else
+            evaluator.addResult(instance, learner.getPredictionForInstance(instance));
 
+        if (delayed != null)
+            learner.trainOnInstance(delayed);
     }
 }
@@ -0,0 +1,111 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DemandWindowTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import moaflow.sink.AbstractSinkTest.RecordingSubscription;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link DemandWindow}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class DemandWindowTest {
+
+  /**
+   * Prefetched items must get replenished once half of them got processed.
+   */
+  @Test
+  public void testPrefetch() {
+    DemandWindow		demand;
+    RecordingSubscription	subscription;
+
+    demand       = new DemandWindow();
+    subscription = new RecordingSubscription();
+    demand.subscribe(subscription, 5);
+    for (int i = 0; i < 6; i++)
+      demand.requestNext();
+    assertEquals(Arrays.asList(5L, 2L, 2L, 2L), subscription.getRequests());
+  }
+
+  /**
+   * Unbounded demand must get requested only once.
+   */
+  @Test
+  public void testUnbounded() {
+    DemandWindow		demand;
+    RecordingSubscription	subscription;
+
+    demand       = new DemandWindow();
+    subscription = new RecordingSubscription();
+    demand.subscribe(subscription, 0);
+    for (int i = 0; i < 10; i++)
+      demand.requestNext();
+    assertEquals(Arrays.asList(Long.MAX_VALUE), subscription.getRequests());
+  }
+
+  /**
+   * Only unbounded demand without an asynchronous boundary can get fused.
+   */
+  @Test
+  public void testCanFuse() {
+    assertTrue(DemandWindow.canFuse(false, -1));
+    assertFalse(DemandWindow.canFuse(true, -1));
+    assertFalse(DemandWindow.canFuse(false, 1));
+  }
+
+  /**
+   * Waiting for the subscription must only end once it got released.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testAwaitSubscription() throws Exception {
+    DemandWindow	demand;
+    AtomicBoolean	done;
+    Thread		waiter;
+
+    demand = new DemandWindow();
+    done   = new AtomicBoolean();
+    waiter = new Thread(() -> {
+      try {
+	demand.awaitSubscription();
+	done.set(true);
+      }
+      catch (InterruptedException e) {
+	// ignored
+      }
+    });
+    waiter.start();
+    waiter.join(100);
+    assertFalse(done.get());
+    demand.release();
+    waiter.join(10000);
+    assertTrue(done.get());
+  }
+}
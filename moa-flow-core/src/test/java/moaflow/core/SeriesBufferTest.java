@@ -0,0 +1,173 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SeriesBufferTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link SeriesBuffer}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class SeriesBufferTest {
+
+  /**
+   * A window must keep the most recent points, in order.
+   */
+  @Test
+  public void testWindow() {
+    SeriesBuffer	buffer;
+
+    buffer = new SeriesBuffer(5, true);
+    for (int i = 0; i < 3; i++)
+      buffer.add(i, i * 2);
+    assertEquals(3, buffer.size());
+    for (int i = 3; i < 13; i++)
+      buffer.add(i, i * 2);
+    assertEquals(5, buffer.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(8 + i, buffer.getX(i), 0.0);
+      assertEquals((8 + i) * 2, buffer.getY(i), 0.0);
+    }
+    assertArrayEquals(new double[]{8, 9, 10, 11, 12}, buffer.toArrays(-1)[0], 0.0);
+
+    buffer.clear();
+    assertEquals(0, buffer.size());
+    buffer.add(42, 1);
+    assertEquals(42, buffer.getX(0), 0.0);
+  }
+
+  /**
+   * The history must stay within the capacity, keeping the first and the
+   * most recent point as well as the order.
+   */
+  @Test
+  public void testHistory() {
+    SeriesBuffer	buffer;
+    double[][]		points;
+
+    buffer = new SeriesBuffer(100, false);
+    for (int i = 0; i < 10000; i++) {
+      buffer.add(i, Math.sin(i / 100.0));
+      assertTrue(buffer.size() <= buffer.capacity());
+    }
+    points = buffer.toArrays(-1);
+    assertEquals(buffer.size(), points[0].length);
+    assertEquals(0, points[0][0], 0.0);
+    assertEquals(9999, points[0][points[0].length - 1], 0.0);
+    for (int i = 1; i < points[0].length; i++)
+      assertTrue(points[0][i - 1] < points[0][i]);
+  }
+
+  /**
+   * Downsampling must retain outliers, as well as the first and last point.
+   */
+  @Test
+  public void testDownsampleRetainsPeaks() {
+    double[]	x;
+    double[]	y;
+    double[]	outX;
+    double[]	outY;
+    int		n;
+    boolean	peak;
+    boolean	dip;
+
+    x = new double[1000];
+    y = new double[1000];
+    for (int i = 0; i < x.length; i++)
+      x[i] = i;
+    y[333] = 100;
+    y[777] = -50;
+    outX = new double[20];
+    outY = new double[20];
+    n    = SeriesBuffer.downsample(x, y, x.length, 20, outX, outY);
+    assertEquals(20, n);
+    assertEquals(0, outX[0], 0.0);
+    assertEquals(999, outX[n - 1], 0.0);
+    peak = false;
+    dip  = false;
+    for (int i = 0; i < n; i++) {
+      peak = peak || ((outX[i] == 333) && (outY[i] == 100));
+      dip  = dip || ((outX[i] == 777) && (outY[i] == -50));
+    }
+    assertTrue(peak);
+    assertTrue(dip);
+  }
+
+  /**
+   * Fewer points than the threshold must get copied, a threshold below 3
+   * results in the first and last point.
+   */
+  @Test
+  public void testDownsampleEdgeCases() {
+    double[]	x;
+    double[]	y;
+    double[]	outX;
+    double[]	outY;
+
+    x    = new double[]{1, 2, 3, 4, 5};
+    y    = new double[]{5, 4, 3, 2, 1};
+    outX = new double[5];
+    outY = new double[5];
+    assertEquals(5, SeriesBuffer.downsample(x, y, 5, 10, outX, outY));
+    assertArrayEquals(x, outX, 0.0);
+    assertArrayEquals(y, outY, 0.0);
+
+    assertEquals(2, SeriesBuffer.downsample(x, y, 5, 1, outX, outY));
+    assertEquals(1, outX[0], 0.0);
+    assertEquals(5, outX[1], 0.0);
+    assertEquals(5, outY[0], 0.0);
+    assertEquals(1, outY[1], 0.0);
+  }
+
+  /**
+   * The arrays must get downsampled to the threshold, without modifying
+   * the buffer.
+   */
+  @Test
+  public void testToArrays() {
+    SeriesBuffer	buffer;
+    double[][]		points;
+
+    buffer = new SeriesBuffer(50, true);
+    for (int i = 0; i < 80; i++)
+      buffer.add(i, i % 7);
+    points = buffer.toArrays(10);
+    assertEquals(10, points[0].length);
+    assertEquals(10, points[1].length);
+    assertEquals(30, points[0][0], 0.0);
+    assertEquals(79, points[0][9], 0.0);
+    assertEquals(50, buffer.size());
+    assertEquals(30, buffer.getX(0), 0.0);
+  }
+
+  /**
+   * A history needs room for at least 3 points.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityTooSmall() {
+    new SeriesBuffer(2, false);
+  }
+}
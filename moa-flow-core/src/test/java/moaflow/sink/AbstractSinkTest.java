@@ -0,0 +1,179 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * AbstractSinkTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import moaflow.source.AbstractSourceTest.CountingSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the functionality of {@link AbstractSink}, in particular the demand.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class AbstractSinkTest {
+
+  /**
+   * Subscription that records the requests.
+   */
+  public static class RecordingSubscription
+    implements Subscription {
+
+    /** the requests. */
+    protected List<Long> requests = new ArrayList<>();
+
+    /**
+     * Records the request.
+     *
+     * @param n the number of items
+     */
+    @Override
+    public synchronized void request(long n) {
+      requests.add(n);
+    }
+
+    /**
+     * Does nothing.
+     */
+    @Override
+    public void cancel() {
+    }
+
+    /**
+     * Returns the requests so far.
+     *
+     * @return the requests
+     */
+    public synchronized List<Long> getRequests() {
+      return new ArrayList<>(requests);
+    }
+  }
+
+  /**
+   * Returns the list of requests.
+   *
+   * @param requests the requests
+   * @return the list
+   */
+  protected static List<Long> requests(long... requests) {
+    List<Long>	result;
+
+    result = new ArrayList<>();
+    for (long request: requests)
+      result.add(request);
+    return result;
+  }
+
+  /**
+   * By default, an unbounded number of items gets requested once.
+   */
+  @Test
+  public void testUnbounded() {
+    CollectingSink<Integer>	sink;
+    RecordingSubscription	subscription;
+
+    sink         = new CollectingSink<>();
+    subscription = new RecordingSubscription();
+    sink.onSubscribe(subscription);
+    for (int i = 0; i < 100; i++)
+      sink.onNext(i);
+    assertEquals(requests(Long.MAX_VALUE), subscription.getRequests());
+    assertTrue(sink.canFuse());
+  }
+
+  /**
+   * With prefetching, the demand must get replenished once half the items
+   * got processed.
+   */
+  @Test
+  public void testPrefetch() {
+    CollectingSink<Integer>	sink;
+    RecordingSubscription	subscription;
+
+    sink = new CollectingSink<>();
+    sink.prefetch.setValue(4);
+    subscription = new RecordingSubscription();
+    sink.onSubscribe(subscription);
+    assertEquals(requests(4), subscription.getRequests());
+    sink.onNext(0);
+    assertEquals(requests(4), subscription.getRequests());
+    sink.onNext(1);
+    assertEquals(requests(4, 2), subscription.getRequests());
+    sink.onNext(2);
+    sink.onNext(3);
+    assertEquals(requests(4, 2, 2), subscription.getRequests());
+    // fused subscribers would bypass the demand
+    assertFalse(sink.canFuse());
+
+    sink = new CollectingSink<>();
+    sink.prefetch.setValue(1);
+    subscription = new RecordingSubscription();
+    sink.onSubscribe(subscription);
+    sink.onNext(0);
+    sink.onNext(1);
+    assertEquals(requests(1, 1, 1), subscription.getRequests());
+  }
+
+  /**
+   * An asynchronous boundary prevents fusing.
+   */
+  @Test
+  public void testAsyncBoundary() {
+    CollectingSink<Integer>	sink;
+
+    sink = new CollectingSink<>();
+    sink.asyncBoundary.setValue(true);
+    assertFalse(sink.canFuse());
+  }
+
+  /**
+   * With prefetching, all data must arrive in order, also with a source
+   * that attempts to fuse the sink.
+   */
+  @Test(timeout = 60000)
+  public void testPrefetchFlow() {
+    CountingSource		source;
+    CollectingSink<Integer>	sink;
+
+    for (int prefetch: new int[]{1, 2, 3, 100}) {
+      for (boolean fuse: new boolean[]{false, true}) {
+	source = new CountingSource(10000);
+	source.fuse.setValue(fuse);
+	source.maxBufferCapacity.setValue(8);
+	sink = new CollectingSink<>();
+	sink.prefetch.setValue(prefetch);
+	source.subscribe(sink);
+	source.start();
+	assertEquals(10000, sink.getCollected().size());
+	for (int i = 0; i < 10000; i++)
+	  assertEquals(i, (int) sink.getCollected().get(i));
+	assertEquals(10000, sink.getMetrics().getItemsIn());
+      }
+    }
+  }
+}
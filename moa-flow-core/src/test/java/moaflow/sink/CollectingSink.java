@@ -0,0 +1,74 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CollectingSink.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sink for tests that just collects the data it receives, in order.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CollectingSink<I>
+  extends AbstractSink<I> {
+
+  /** the collected data. */
+  protected transient List<I> collected;
+
+  /**
+   * For initializing members.
+   */
+  @Override
+  protected void init() {
+    super.init();
+    collected = new ArrayList<>();
+  }
+
+  /**
+   * Gets the purpose of this object
+   *
+   * @return the string with the purpose of this object
+   */
+  @Override
+  public String getPurposeString() {
+    return "Collects the data it receives.";
+  }
+
+  /**
+   * For processing the received input.
+   *
+   * @param input the data to process
+   */
+  @Override
+  protected void doProcess(I input) {
+    collected.add(input);
+  }
+
+  /**
+   * Returns the collected data.
+   *
+   * @return the data
+   */
+  public List<I> getCollected() {
+    return collected;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ConsoleTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link Console} sink.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ConsoleTest {
+
+  /**
+   * Only the end marker itself must signal the end, not empty outputs.
+   */
+  @Test
+  public void testContainsEnd() {
+    assertFalse(Console.containsEnd(Arrays.asList("a", "", String.valueOf(""))));
+    assertTrue(Console.containsEnd(Arrays.asList("a", "", Console.END)));
+    assertTrue(Console.containsEnd(Arrays.asList(Console.END)));
+  }
+}
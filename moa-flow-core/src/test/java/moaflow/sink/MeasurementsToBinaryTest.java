@@ -0,0 +1,193 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MeasurementsToBinaryTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import moa.core.Measurement;
+import moa.evaluation.LearningEvaluation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Flow.Subscription;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests writing measurements with {@link MeasurementsToBinary} and reading
+ * them with {@link MeasurementsBinaryReader}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class MeasurementsToBinaryTest {
+
+  /** the names of the measurements. */
+  public static final String[] NAMES = {"instances", "accuracy [%]", "kappa", "résumé"};
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Returns the value of the measurement in the row.
+   *
+   * @param row the row
+   * @param col the measurement
+   * @return the value
+   */
+  protected static double value(int row, int col) {
+    if ((col == 2) && (row % 5 == 0))
+      return Double.NaN;
+    return row * 10 + col + 0.25;
+  }
+
+  /**
+   * Creates the evaluation for the row.
+   *
+   * @param row the row
+   * @return the evaluation
+   */
+  protected static LearningEvaluation evaluation(int row) {
+    Measurement[]	measurements;
+
+    measurements = new Measurement[NAMES.length];
+    for (int i = 0; i < NAMES.length; i++)
+      measurements[i] = new Measurement(NAMES[i], value(row, i));
+    return new LearningEvaluation(measurements);
+  }
+
+  /**
+   * Creates a sink that writes to the file.
+   *
+   * @param f the file to write to
+   * @param blockRows the number of rows per block
+   * @return the sink, already subscribed
+   */
+  protected static MeasurementsToBinary newSink(File f, int blockRows) {
+    MeasurementsToBinary	result;
+
+    result = new MeasurementsToBinary();
+    result.outputFile.setValue(f.getAbsolutePath());
+    result.blockRows.setValue(blockRows);
+    result.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+      }
+      @Override
+      public void cancel() {
+      }
+    });
+    return result;
+  }
+
+  /**
+   * The values must be read back as written, across several blocks.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    File			f;
+    MeasurementsToBinary	sink;
+    double[]			column;
+    double[]			expected;
+    int				numRows;
+
+    f       = tmp.newFile("measurements.bin");
+    numRows = 100;
+    sink    = newSink(f, 7);
+    for (int i = 0; i < numRows; i++)
+      sink.onNext(evaluation(i));
+    sink.onComplete();
+    assertFalse(sink.getCompletion().isCompletedExceptionally());
+
+    try (MeasurementsBinaryReader reader = new MeasurementsBinaryReader(f)) {
+      assertEquals(numRows, reader.getNumRows());
+      assertArrayEquals(NAMES, reader.getColumnNames());
+      assertEquals(2, reader.indexOf("kappa"));
+      assertEquals(-1, reader.indexOf("missing"));
+      for (int col = 0; col < NAMES.length; col++) {
+	expected = new double[numRows];
+	for (int row = 0; row < numRows; row++) {
+	  expected[row] = value(row, col);
+	  assertEquals(expected[row], reader.getValue(row, col), 0.0);
+	}
+	assertArrayEquals(expected, reader.getColumn(col), 0.0);
+	// range across block boundaries
+	column = reader.getColumn(col, 5, 23);
+	for (int row = 5; row < 23; row++)
+	  assertEquals(expected[row], column[row - 5], 0.0);
+      }
+      for (int row = 0; row < numRows; row++) {
+	for (int col = 0; col < NAMES.length; col++)
+	  assertEquals(value(row, col), reader.getRow(row)[col], 0.0);
+      }
+    }
+  }
+
+  /**
+   * A reader must be able to follow a file that is still being written.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testRefresh() throws Exception {
+    File			f;
+    MeasurementsToBinary	sink;
+
+    f    = tmp.newFile("measurements.bin");
+    sink = newSink(f, 4);
+    for (int i = 0; i < 3; i++)
+      sink.onNext(evaluation(i));
+
+    try (MeasurementsBinaryReader reader = new MeasurementsBinaryReader(f)) {
+      assertEquals(3, reader.getNumRows());
+      for (int i = 3; i < 10; i++)
+	sink.onNext(evaluation(i));
+      assertEquals(10, reader.refresh());
+      assertEquals(value(9, 1), reader.getValue(9, 1), 0.0);
+      sink.onComplete();
+      assertEquals(10, reader.refresh());
+    }
+  }
+
+  /**
+   * Reading beyond the available rows must fail.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() throws Exception {
+    File			f;
+    MeasurementsToBinary	sink;
+
+    f    = tmp.newFile("measurements.bin");
+    sink = newSink(f, 4);
+    for (int i = 0; i < 3; i++)
+      sink.onNext(evaluation(i));
+    sink.onComplete();
+
+    try (MeasurementsBinaryReader reader = new MeasurementsBinaryReader(f)) {
+      reader.getValue(3, 0);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MeasurementsToCSVTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import moa.core.Measurement;
+import moa.evaluation.LearningEvaluation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow.Subscription;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests the {@link MeasurementsToCSV} sink, in particular when the rows
+ * become visible in the file.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class MeasurementsToCSVTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Creates the evaluation for the row.
+   *
+   * @param row the row
+   * @return the evaluation
+   */
+  protected static LearningEvaluation evaluation(int row) {
+    return new LearningEvaluation(new Measurement[]{
+      new Measurement("instances", row),
+      new Measurement("accuracy", row / 2.0)});
+  }
+
+  /**
+   * Returns the expected line for the row.
+   *
+   * @param row the row
+   * @return the line
+   */
+  protected static String line(int row) {
+    return Double.toString(row) + "," + Double.toString(row / 2.0);
+  }
+
+  /**
+   * Creates a sink that writes to the file.
+   *
+   * @param f the file to write to
+   * @param flushRows the number of rows after which to flush
+   * @param flushInterval the time in msec after which to flush
+   * @return the sink, already subscribed
+   */
+  protected static MeasurementsToCSV newSink(File f, int flushRows, int flushInterval) {
+    MeasurementsToCSV	result;
+
+    result = new MeasurementsToCSV();
+    result.outputFile.setValue(f.getAbsolutePath());
+    result.flushRows.setValue(flushRows);
+    result.flushInterval.setValue(flushInterval);
+    result.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+      }
+      @Override
+      public void cancel() {
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Reads the lines that are currently available in the file.
+   *
+   * @param f the file to read
+   * @param gzip whether the file is compressed
+   * @return the lines
+   * @throws Exception if reading fails
+   */
+  protected static List<String> read(File f, boolean gzip) throws Exception {
+    ByteArrayOutputStream	bytes;
+    String			content;
+    int				b;
+
+    if (!gzip)
+      return Files.readAllLines(f.toPath(), Charset.defaultCharset());
+
+    // byte by byte, as the end of the data is missing while still being written
+    bytes = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+      while ((b = in.read()) != -1)
+	bytes.write(b);
+    }
+    catch (EOFException e) {
+      // still being written
+    }
+    content = new String(bytes.toByteArray(), Charset.defaultCharset());
+    if (content.isEmpty())
+      return new ArrayList<>();
+    return new ArrayList<>(Arrays.asList(content.split("\n")));
+  }
+
+  /**
+   * The rows must become visible every n rows and once completed.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testFlushRows() throws Exception {
+    File		f;
+    MeasurementsToCSV	sink;
+    List<String>	lines;
+
+    for (boolean gzip: new boolean[]{false, true}) {
+      f    = tmp.newFile("measurements" + gzip + ".csv");
+      sink = newSink(f, 3, 0);
+      sink.gzip.setValue(gzip);
+      sink.onNext(evaluation(0));
+      sink.onNext(evaluation(1));
+      assertEquals(0, read(f, gzip).size());
+      sink.onNext(evaluation(2));
+      lines = read(f, gzip);
+      assertEquals(4, lines.size());
+      assertEquals("instances,accuracy", lines.get(0));
+      assertEquals(line(2), lines.get(3));
+      sink.onNext(evaluation(3));
+      assertEquals(4, read(f, gzip).size());
+      sink.onComplete();
+      lines = read(f, gzip);
+      assertEquals(5, lines.size());
+      assertEquals(line(3), lines.get(4));
+      assertFalse(sink.getCompletion().isCompletedExceptionally());
+    }
+  }
+
+  /**
+   * The rows must become visible once the interval has passed.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testFlushInterval() throws Exception {
+    File		f;
+    MeasurementsToCSV	sink;
+
+    f    = tmp.newFile("measurements.csv");
+    sink = newSink(f, 0, 1);
+    // the interval only starts once the file got opened with the first row
+    sink.onNext(evaluation(0));
+    for (int i = 1; i < 5; i++) {
+      Thread.sleep(5);
+      sink.onNext(evaluation(i));
+      assertEquals(i + 2, read(f, false).size());
+    }
+    sink.onComplete();
+  }
+
+  /**
+   * Without flushing, the rows must only become visible once completed.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testNoFlush() throws Exception {
+    File		f;
+    MeasurementsToCSV	sink;
+    List<String>	lines;
+
+    f    = tmp.newFile("measurements.csv");
+    sink = newSink(f, 0, 0);
+    sink.separator.setValue(";");
+    for (int i = 0; i < 100; i++)
+      sink.onNext(evaluation(i));
+    assertEquals(0, read(f, false).size());
+    sink.onComplete();
+    lines = read(f, false);
+    assertEquals(101, lines.size());
+    assertEquals("instances;accuracy", lines.get(0));
+    assertEquals(line(99).replace(',', ';'), lines.get(100));
+  }
+}
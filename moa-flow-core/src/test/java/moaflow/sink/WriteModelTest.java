@@ -0,0 +1,279 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * WriteModelTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.sink;
+
+import moa.classifiers.trees.HoeffdingTree;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Flow.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link WriteModel} sink.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class WriteModelTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Creates a model that can be identified by the number.
+   *
+   * @param id the number
+   * @return the model
+   */
+  protected static HoeffdingTree model(int id) {
+    HoeffdingTree	result;
+
+    result = new HoeffdingTree();
+    result.gracePeriodOption.setValue(id);
+    return result;
+  }
+
+  /**
+   * Returns the number of the model stored in the file.
+   *
+   * @param f the file to read
+   * @return the number
+   * @throws Exception if reading fails
+   */
+  protected static int read(File f) throws Exception {
+    return ((HoeffdingTree) WriteModel.readModel(f.getAbsolutePath())).gracePeriodOption.getValue();
+  }
+
+  /**
+   * Creates a sink that writes to the file.
+   *
+   * @param f the model file
+   * @return the sink
+   */
+  protected static WriteModel newSink(File f) {
+    WriteModel	result;
+
+    result = new WriteModel();
+    result.modelFile.setValue(f.getAbsolutePath());
+    result.actualModelFile = f;
+    return result;
+  }
+
+  /**
+   * Subscribes the sink, as if part of a flow.
+   *
+   * @param sink the sink to subscribe
+   */
+  protected static void subscribe(WriteModel sink) {
+    sink.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+      }
+      @Override
+      public void cancel() {
+      }
+    });
+  }
+
+  /**
+   * Writes the models and checks the model file and the retained versions.
+   *
+   * @param atomic whether to write atomically
+   * @throws Exception if the test fails
+   */
+  protected void checkRetention(boolean atomic) throws Exception {
+    File	dir;
+    File	f;
+    WriteModel	sink;
+
+    dir  = tmp.newFolder();
+    f    = new File(dir, "model.model");
+    sink = newSink(f);
+    sink.atomic.setValue(atomic);
+    sink.retention.setValue(2);
+    for (int i = 1; i <= 5; i++)
+      sink.write(model(i));
+
+    assertEquals(5, read(f));
+    assertEquals(new File(dir, "model-000004.model"), sink.getVersionFile(4));
+    assertEquals(4, read(sink.getVersionFile(4)));
+    assertEquals(3, read(sink.getVersionFile(3)));
+    assertFalse(sink.getVersionFile(2).exists());
+    assertFalse(sink.getVersionFile(1).exists());
+    assertEquals(3, dir.listFiles().length);
+  }
+
+  /**
+   * Tests the retention of versions when overwriting the model file.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testRetention() throws Exception {
+    checkRetention(false);
+  }
+
+  /**
+   * Tests the retention of versions when replacing the model file atomically,
+   * which must not leave any temporary files behind.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testRetentionAtomic() throws Exception {
+    checkRetention(true);
+  }
+
+  /**
+   * Without retention, only the model file must exist.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testNoRetention() throws Exception {
+    File	dir;
+    File	f;
+    WriteModel	sink;
+
+    dir  = tmp.newFolder();
+    f    = new File(dir, "model.model");
+    sink = newSink(f);
+    for (int i = 1; i <= 3; i++)
+      sink.write(model(i));
+    assertEquals(3, read(f));
+    assertEquals(1, dir.listFiles().length);
+  }
+
+  /**
+   * Versions of files without extension get the number appended.
+   */
+  @Test
+  public void testVersionFileWithoutExtension() {
+    WriteModel	sink;
+
+    sink = newSink(new File("/some/where/model"));
+    assertEquals(new File("/some/where/model-000012"), sink.getVersionFile(12));
+  }
+
+  /**
+   * The compressed models must be read back, detecting the compression.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testCompression() throws Exception {
+    File	f;
+    WriteModel	sink;
+
+    for (int c = WriteModel.COMPRESSION_NONE; c <= WriteModel.COMPRESSION_DEFLATE; c++) {
+      f    = tmp.newFile("model" + c + ".model");
+      sink = newSink(f);
+      sink.compression.setChosenIndex(c);
+      assertTrue(sink.write(model(10 + c)) > 0);
+      assertEquals(10 + c, read(f));
+    }
+  }
+
+  /**
+   * Models arriving faster than they can get written must get coalesced,
+   * with the most recent one written on completion.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(timeout = 60000)
+  public void testCoalescing() throws Exception {
+    File	dir;
+    File	f;
+    WriteModel	sink;
+
+    dir  = tmp.newFolder();
+    f    = new File(dir, "model.model");
+    sink = new WriteModel();
+    sink.modelFile.setValue(f.getAbsolutePath());
+    sink.minInterval.setValue(60000);
+    subscribe(sink);
+    for (int i = 1; i <= 100; i++)
+      sink.onNext(model(i));
+    sink.onComplete();
+
+    assertEquals(100, read(f));
+    assertTrue("models should have been coalesced: " + sink.sequence, sink.sequence <= 3);
+    assertFalse(sink.getCompletion().isCompletedExceptionally());
+  }
+
+  /**
+   * With the snapshot option, the model must get written as it was when it
+   * arrived, not as modified afterwards.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(timeout = 60000)
+  public void testSnapshot() throws Exception {
+    File		f;
+    WriteModel		sink;
+    HoeffdingTree	model;
+
+    f    = tmp.newFile("model.model");
+    sink = new WriteModel();
+    sink.modelFile.setValue(f.getAbsolutePath());
+    sink.minInterval.setValue(60000);
+    sink.snapshot.setValue(true);
+    subscribe(sink);
+    sink.onNext(model(1));
+    model = model(2);
+    sink.onNext(model);
+    model.gracePeriodOption.setValue(99);
+    sink.onComplete();
+
+    assertEquals(2, read(f));
+  }
+
+  /**
+   * Once writing failed, further models must get discarded.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(timeout = 60000)
+  public void testFailure() throws Exception {
+    File	f;
+    WriteModel	sink;
+
+    f    = new File(tmp.getRoot(), "missing/model.model");
+    sink = new WriteModel();
+    sink.modelFile.setValue(f.getAbsolutePath());
+    subscribe(sink);
+    sink.onNext(model(1));
+    while (!sink.failed)
+      Thread.sleep(10);
+    for (int i = 2; i <= 10; i++)
+      sink.onNext(model(i));
+    sink.onComplete();
+
+    assertEquals(1, sink.sequence);
+    assertFalse(f.exists());
+    assertTrue(sink.getCompletion().isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * AbstractSourceTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.source;
+
+import moaflow.sink.CollectingSink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the functionality of {@link AbstractSource}, using a source that
+ * publishes consecutive numbers.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class AbstractSourceTest {
+
+  /**
+   * Publishes the numbers from 0, optionally failing at some point.
+   */
+  public static class CountingSource
+    extends AbstractSource<Integer> {
+
+    /** the number of numbers to publish. */
+    protected int count;
+
+    /** the number at which to fail, -1 for never. */
+    protected int failAt = -1;
+
+    /**
+     * Initializes the source.
+     *
+     * @param count the number of numbers to publish
+     */
+    public CountingSource(int count) {
+      super();
+      this.count = count;
+    }
+
+    /**
+     * Gets the purpose of this object
+     *
+     * @return the string with the purpose of this object
+     */
+    @Override
+    public String getPurposeString() {
+      return "Publishes consecutive numbers.";
+    }
+
+    /**
+     * Publishes the numbers.
+     */
+    @Override
+    protected void run() {
+      for (int i = 0; (i < count) && !isStopped(); i++) {
+	if (i == failAt)
+	  throw new IllegalStateException("Failed at " + i);
+	publish(i);
+      }
+    }
+  }
+
+  /**
+   * Sink that stops the source after a number of items.
+   */
+  public static class StoppingSink
+    extends CollectingSink<Integer> {
+
+    /** the source to stop. */
+    protected AbstractSource<?> source;
+
+    /** the number of items after which to stop the source. */
+    protected int stopAfter;
+
+    /**
+     * Initializes the sink.
+     *
+     * @param source the source to stop
+     * @param stopAfter the number of items after which to stop the source
+     */
+    public StoppingSink(AbstractSource<?> source, int stopAfter) {
+      super();
+      this.source    = source;
+      this.stopAfter = stopAfter;
+    }
+
+    /**
+     * Collects the input, stops the source once enough got collected.
+     *
+     * @param input the data to process
+     */
+    @Override
+    protected void doProcess(Integer input) {
+      super.doProcess(input);
+      if (collected.size() == stopAfter)
+	source.stop();
+    }
+  }
+
+  /**
+   * Runs the source and returns the collected numbers.
+   *
+   * @param source the source to run
+   * @return the numbers
+   */
+  protected static List<Integer> run(AbstractSource<Integer> source) {
+    CollectingSink<Integer>	sink;
+
+    sink = new CollectingSink<>();
+    source.subscribe(sink);
+    source.start();
+    return sink.getCollected();
+  }
+
+  /**
+   * Returns the numbers from 0 to count-1.
+   *
+   * @param count the number of numbers
+   * @return the numbers
+   */
+  protected static List<Integer> range(int count) {
+    List<Integer>	result;
+
+    result = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+      result.add(i);
+    return result;
+  }
+
+  /**
+   * Returns whether a prefetch thread is still alive.
+   *
+   * @return true if alive
+   */
+  protected static boolean isPrefetchThreadAlive() {
+    for (Thread thread: Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && thread.getName().contains("-prefetch"))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Prefetching must publish the same data, in the same order, whatever
+   * the depth, also when fusing or batching.
+   */
+  @Test(timeout = 60000)
+  public void testPrefetch() {
+    CountingSource	source;
+
+    for (int depth: new int[]{0, 1, 2, 7, 64, 1000, 100000}) {
+      source = new CountingSource(10000);
+      source.prefetchDepth.setValue(depth);
+      assertEquals("depth " + depth, range(10000), run(source));
+
+      source = new CountingSource(10000);
+      source.prefetchDepth.setValue(depth);
+      source.fuse.setValue(true);
+      assertEquals("depth " + depth + ", fused", range(10000), run(source));
+
+      source = new CountingSource(10000);
+      source.prefetchDepth.setValue(depth);
+      source.batchSize.setValue(16);
+      assertEquals("depth " + depth + ", batched", range(10000), run(source));
+    }
+    assertFalse(isPrefetchThreadAlive());
+  }
+
+  /**
+   * Prefetching must not lose the data of a source that publishes less
+   * than a chunk.
+   */
+  @Test(timeout = 60000)
+  public void testPrefetchFewItems() {
+    CountingSource	source;
+
+    for (int count = 0; count < 5; count++) {
+      source = new CountingSource(count);
+      source.prefetchDepth.setValue(1000);
+      assertEquals(range(count), run(source));
+    }
+  }
+
+  /**
+   * Stopping the source while prefetching must return, without a
+   * generator thread left behind.
+   */
+  @Test(timeout = 60000)
+  public void testPrefetchStop() {
+    CountingSource	source;
+    StoppingSink	sink;
+
+    source = new CountingSource(Integer.MAX_VALUE);
+    source.prefetchDepth.setValue(256);
+    source.maxBufferCapacity.setValue(16);
+    sink = new StoppingSink(source, 1000);
+    source.subscribe(sink);
+    source.start();
+    assertTrue(sink.getCollected().size() >= 1000);
+    assertEquals(range(sink.getCollected().size()), sink.getCollected());
+    assertFalse(isPrefetchThreadAlive());
+  }
+
+  /**
+   * The error that made the generation fail must get rethrown once the data
+   * generated before it has been published.
+   */
+  @Test(timeout = 60000)
+  public void testPrefetchFailure() {
+    CountingSource		source;
+    CollectingSink<Integer>	sink;
+
+    source = new CountingSource(10000);
+    source.failAt = 5000;
+    source.prefetchDepth.setValue(100);
+    sink = new CollectingSink<>();
+    source.subscribe(sink);
+    try {
+      source.start();
+      fail("Exception expected");
+    }
+    catch (IllegalStateException e) {
+      assertEquals("Failed at 5000", e.getMessage());
+    }
+    assertTrue(source.getCompletion().isCompletedExceptionally());
+    assertNull(source.prefetchBuffer);
+    assertFalse(isPrefetchThreadAlive());
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BinaryInstanceSourceTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.source;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+import moa.core.Example;
+import moa.core.InstanceExample;
+import moaflow.sink.CollectingSink;
+import moaflow.sink.InstancesToBinary;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Flow.Subscription;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests recording instances with {@link InstancesToBinary} and replaying
+ * them with {@link BinaryInstanceSource}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BinaryInstanceSourceTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Generates dense and sparse instances with random weights and missing
+   * values.
+   *
+   * @param numAttributes the number of attributes, the last one is the class
+   * @param numInstances the number of instances
+   * @return the instances
+   */
+  protected static List<Instance> generate(int numAttributes, int numInstances) {
+    List<Instance>	result;
+    List<Attribute>	atts;
+    List<String>	labels;
+    Instances		data;
+    InstancesHeader	header;
+    Random		rand;
+    double[]		values;
+    int[]		indices;
+    Instance		inst;
+    int			n;
+
+    atts = new ArrayList<>();
+    for (int i = 0; i < numAttributes - 1; i++)
+      atts.add(new Attribute("att" + i));
+    labels = new ArrayList<>();
+    labels.add("yes");
+    labels.add("no");
+    atts.add(new Attribute("class", labels));
+    data = new Instances("test", atts, 0);
+    data.setClassIndex(numAttributes - 1);
+    header = new InstancesHeader(data);
+
+    result = new ArrayList<>();
+    rand   = new Random(1);
+    for (int i = 0; i < numInstances; i++) {
+      if (i % 3 == 0) {
+	n       = rand.nextInt(numAttributes);
+	indices = new int[n];
+	values  = new double[n];
+	for (int j = 0; j < n; j++) {
+	  indices[j] = j * numAttributes / Math.max(1, n);
+	  values[j]  = rand.nextGaussian();
+	}
+	inst = new SparseInstance(1 + rand.nextInt(3), values, indices, numAttributes);
+      }
+      else {
+	values = new double[numAttributes];
+	for (int j = 0; j < numAttributes - 1; j++)
+	  values[j] = (j % 7 == i % 7) ? Double.NaN : rand.nextGaussian();
+	values[numAttributes - 1] = rand.nextInt(2);
+	inst = new DenseInstance(rand.nextDouble(), values);
+      }
+      inst.setDataset(header);
+      result.add(inst);
+    }
+
+    return result;
+  }
+
+  /**
+   * Records the instances in the file.
+   *
+   * @param instances the instances to record
+   * @param f the file to record them in
+   */
+  protected static void record(List<Instance> instances, File f) {
+    InstancesToBinary	sink;
+
+    sink = new InstancesToBinary();
+    sink.outputFile.setValue(f.getAbsolutePath());
+    sink.bufferSize.setValue(1);
+    sink.onSubscribe(new Subscription() {
+      @Override
+      public void request(long n) {
+      }
+      @Override
+      public void cancel() {
+      }
+    });
+    for (Instance inst: instances)
+      sink.onNext(new InstanceExample(inst));
+    sink.onComplete();
+    assertFalse(sink.getCompletion().isCompletedExceptionally());
+  }
+
+  /**
+   * Replays the instances from the file.
+   *
+   * @param f the file to read
+   * @param bufferSize the size of the read buffer in KB
+   * @param numInstances the maximum number of instances
+   * @return the instances
+   */
+  protected static List<Example<Instance>> replay(File f, int bufferSize, int numInstances) {
+    BinaryInstanceSource		source;
+    CollectingSink<Example<Instance>>	sink;
+
+    source = new BinaryInstanceSource();
+    source.file.setValue(f.getAbsolutePath());
+    source.bufferSize.setValue(bufferSize);
+    source.numInstances.setValue(numInstances);
+    sink = new CollectingSink<>();
+    source.subscribe(sink);
+    source.start();
+    return sink.getCollected();
+  }
+
+  /**
+   * Checks that the instances are the same.
+   *
+   * @param expected the expected instances
+   * @param actual the replayed instances
+   */
+  protected static void check(List<Instance> expected, List<Example<Instance>> actual) {
+    Instance	exp;
+    Instance	act;
+
+    for (int i = 0; i < actual.size(); i++) {
+      exp = expected.get(i);
+      act = actual.get(i).getData();
+      assertEquals("class of " + i, exp.getClass(), act.getClass());
+      assertEquals("weight of " + i, exp.weight(), act.weight(), 0.0);
+      assertArrayEquals("values of " + i, exp.toDoubleArray(), act.toDoubleArray(), 0.0);
+      assertEquals("class index of " + i, exp.classIndex(), act.classIndex());
+    }
+  }
+
+  /**
+   * The replayed instances must be the same as the recorded ones, also if
+   * the records are larger than the read buffer.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    List<Instance>		expected;
+    List<Example<Instance>>	actual;
+    File			f;
+
+    for (int numAttributes: new int[]{1, 10, 300}) {
+      expected = generate(numAttributes, 2000);
+      f        = tmp.newFile("data" + numAttributes + ".bin");
+      record(expected, f);
+      for (int bufferSize: new int[]{1, 1024}) {
+	actual = replay(f, bufferSize, -1);
+	assertEquals(expected.size(), actual.size());
+	check(expected, actual);
+      }
+    }
+  }
+
+  /**
+   * Only the specified number of instances must get replayed.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testNumInstances() throws Exception {
+    List<Instance>		expected;
+    List<Example<Instance>>	actual;
+    File			f;
+
+    expected = generate(5, 100);
+    f        = tmp.newFile("data.bin");
+    record(expected, f);
+    actual = replay(f, 1, 42);
+    assertEquals(42, actual.size());
+    check(expected, actual);
+  }
+
+  /**
+   * The header must get restored.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testHeader() throws Exception {
+    List<Instance>		instances;
+    BinaryInstanceSource	source;
+    InstancesHeader		header;
+    File			f;
+
+    instances = generate(4, 10);
+    f         = tmp.newFile("data.bin");
+    record(instances, f);
+    source = new BinaryInstanceSource();
+    source.file.setValue(f.getAbsolutePath());
+    header = source.getHeader();
+    assertEquals(4, header.numAttributes());
+    assertEquals(3, header.classIndex());
+    assertEquals("no", header.attribute(3).value(1));
+  }
+
+  /**
+   * A truncated file must fail rather than replay a partial instance.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testTruncated() throws Exception {
+    File	f;
+    boolean	failed;
+
+    f = tmp.newFile("data.bin");
+    record(generate(10, 100), f);
+    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+    failed = false;
+    try {
+      replay(f, 1, -1);
+    }
+    catch (IllegalStateException e) {
+      failed = true;
+    }
+    assertTrue(failed);
+  }
+
+  /**
+   * A file that ends right after the start of a record must fail with an
+   * {@link EOFException}.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testTruncatedRecord() throws Exception {
+    List<Instance>	instances;
+    File		f;
+    Throwable		cause;
+
+    // the last of these instances is dense
+    instances = generate(10, 3);
+    f         = tmp.newFile("data.bin");
+    record(instances, f);
+    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+      raf.setLength(raf.length() - 10 * 8);
+    }
+    cause = null;
+    try {
+      replay(f, 1, -1);
+    }
+    catch (IllegalStateException e) {
+      cause = e.getCause();
+    }
+    assertTrue(cause instanceof EOFException);
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * InstanceSourceTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.source;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Example;
+import moa.streams.InstanceStream;
+import moaflow.sink.CollectingSink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Tests the {@link InstanceSource}, in particular the sharded generation.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class InstanceSourceTest {
+
+  /**
+   * Creates a source.
+   *
+   * @param numInstances the number of instances to generate
+   * @param numShards the number of shards
+   * @param merge how to merge the shards
+   * @param shardBufferSize the number of instances to buffer per shard
+   * @return the source
+   */
+  protected static InstanceSource newSource(int numInstances, int numShards, int merge, int shardBufferSize) {
+    InstanceSource	result;
+
+    result = new InstanceSource();
+    result.numInstances.setValue(numInstances);
+    result.numShards.setValue(numShards);
+    result.merge.setChosenIndex(merge);
+    result.shardBufferSize.setValue(shardBufferSize);
+    return result;
+  }
+
+  /**
+   * Runs the source and returns the values of the instances it published.
+   *
+   * @param source the source to run
+   * @return the values
+   */
+  protected static List<double[]> run(InstanceSource source) {
+    CollectingSink<Example<Instance>>	sink;
+    List<double[]>			result;
+
+    sink = new CollectingSink<>();
+    source.subscribe(sink);
+    source.start();
+    result = new ArrayList<>();
+    for (Example<Instance> inst: sink.getCollected())
+      result.add(inst.getData().toDoubleArray());
+    return result;
+  }
+
+  /**
+   * Checks that the instances are the same, in the same order.
+   *
+   * @param expected the expected values
+   * @param actual the actual values
+   */
+  protected static void assertSameInstances(List<double[]> expected, List<double[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++)
+      assertArrayEquals("instance " + i, expected.get(i), actual.get(i), 0.0);
+  }
+
+  /**
+   * Returns the instances as sorted strings, for comparing them regardless
+   * of the order.
+   *
+   * @param values the values of the instances
+   * @return the sorted strings
+   */
+  protected static List<String> sorted(List<double[]> values) {
+    List<String>	result;
+
+    result = new ArrayList<>();
+    for (double[] v: values)
+      result.add(Arrays.toString(v));
+    result.sort(null);
+    return result;
+  }
+
+  /**
+   * The seed of the first shard stays the same, the others differ.
+   */
+  @Test
+  public void testDeriveSeed() {
+    assertEquals(42, InstanceSource.deriveSeed(42, 0));
+    assertNotEquals(InstanceSource.deriveSeed(42, 1), InstanceSource.deriveSeed(42, 2));
+    assertNotEquals(42, InstanceSource.deriveSeed(42, 1));
+    assertEquals(InstanceSource.deriveSeed(42, 3), InstanceSource.deriveSeed(42, 3));
+  }
+
+  /**
+   * A single shard must generate the same instances as the generator.
+   */
+  @Test
+  public void testSingleShard() {
+    InstanceSource	source;
+    InstanceStream	stream;
+    List<double[]>	expected;
+
+    source = newSource(500, 1, InstanceSource.MERGE_ROUND_ROBIN, 1024);
+    stream = (InstanceStream) source.generator.getPreMaterializedObject();
+    source.prepare(stream);
+    expected = new ArrayList<>();
+    for (int i = 0; i < 500; i++)
+      expected.add(stream.nextInstance().getData().toDoubleArray());
+    assertSameInstances(expected, run(newSource(500, 1, InstanceSource.MERGE_ROUND_ROBIN, 1024)));
+  }
+
+  /**
+   * Round-robin merging must interleave the shards' instances, regardless
+   * of the buffer size, with the first shards generating the remainder.
+   */
+  @Test
+  public void testRoundRobin() {
+    InstanceSource		source;
+    List<InstanceStream>	shards;
+    List<double[]>		expected;
+    int				numShards;
+    int				numInstances;
+
+    numShards    = 3;
+    numInstances = 1001;
+    source       = newSource(numInstances, numShards, InstanceSource.MERGE_ROUND_ROBIN, 1);
+    shards       = new ArrayList<>();
+    for (int i = 0; i < numShards; i++)
+      shards.add(source.createShard((InstanceStream) source.generator.getPreMaterializedObject(), i));
+    expected = new ArrayList<>();
+    for (int i = 0; i < numInstances; i++)
+      expected.add(shards.get(i % numShards).nextInstance().getData().toDoubleArray());
+
+    assertSameInstances(expected, run(source));
+    assertSameInstances(expected, run(newSource(numInstances, numShards, InstanceSource.MERGE_ROUND_ROBIN, 1)));
+    assertSameInstances(expected, run(newSource(numInstances, numShards, InstanceSource.MERGE_ROUND_ROBIN, 100000)));
+  }
+
+  /**
+   * Merging in the order the instances become available must result in the
+   * same instances as round-robin merging, just not necessarily in the same order.
+   */
+  @Test
+  public void testFirstAvailable() {
+    List<double[]>	expected;
+    List<double[]>	actual;
+
+    expected = run(newSource(5000, 4, InstanceSource.MERGE_ROUND_ROBIN, 64));
+    actual   = run(newSource(5000, 4, InstanceSource.MERGE_FIRST_AVAILABLE, 64));
+    assertEquals(5000, actual.size());
+    assertEquals(sorted(expected), sorted(actual));
+  }
+
+  /**
+   * Fewer instances than shards must work as well.
+   */
+  @Test
+  public void testMoreShardsThanInstances() {
+    assertEquals(3, run(newSource(3, 8, InstanceSource.MERGE_ROUND_ROBIN, 1)).size());
+    assertEquals(3, run(newSource(3, 8, InstanceSource.MERGE_FIRST_AVAILABLE, 1)).size());
+  }
+}
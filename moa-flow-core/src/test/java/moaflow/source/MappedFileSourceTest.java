@@ -0,0 +1,286 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MappedFileSourceTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.source;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.core.Example;
+import moa.streams.ArffFileStream;
+import moaflow.sink.CollectingSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link MappedFileSource}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class MappedFileSourceTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Parses the string as number.
+   *
+   * @param s the string to parse
+   * @return the number
+   */
+  protected static double parse(String s) {
+    ByteBuffer	buffer;
+
+    // surrounded by other bytes, to check the boundaries
+    buffer = ByteBuffer.wrap(("x" + s + "x").getBytes(StandardCharsets.ISO_8859_1));
+    return MappedFileSource.parseNumber(buffer, 1, buffer.limit() - 1);
+  }
+
+  /**
+   * Writes the content to a file in the temp folder.
+   *
+   * @param name the name of the file
+   * @param content the content
+   * @return the file
+   * @throws IOException if writing fails
+   */
+  protected File write(String name, String content) throws IOException {
+    File	result;
+
+    result = tmp.newFile(name);
+    Files.write(result.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return result;
+  }
+
+  /**
+   * Sets up a source for the file.
+   *
+   * @param f the file to read
+   * @return the source
+   */
+  protected MappedFileSource newSource(File f) {
+    MappedFileSource	result;
+
+    result = new MappedFileSource();
+    result.file.setValue(f.getAbsolutePath());
+    return result;
+  }
+
+  /**
+   * Parses the line with the source, which must have read the header already.
+   *
+   * @param source the source to use
+   * @param line the line to parse
+   * @return the values, null if the line contained no instance
+   */
+  protected static double[] parseLine(MappedFileSource source, String line) {
+    ByteBuffer	buffer;
+    double[]	result;
+
+    buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+    result = new double[source.header.numAttributes()];
+    if (!source.parseLine(buffer, 0, buffer.limit(), result, false))
+      return null;
+    return result;
+  }
+
+  /**
+   * Numbers must be parsed exactly like {@link Double#parseDouble(String)}.
+   */
+  @Test
+  public void testParseNumber() {
+    Random	rand;
+    double	value;
+    String[]	numbers;
+
+    numbers = new String[]{
+      "0", "-0", "1", "+2", "-17", "0.5", ".5", "5.", "3.14159", "-0.000123",
+      "1e5", "1E-3", "2.5e+10", "-7.1e-22", "1e22", "1e23", "1e-23",
+      "123456789012345678", "1234567890123456789012", "9007199254740993",
+      "0.1", "0.30000000000000004", "1.7976931348623157E308", "4.9E-324",
+      "NaN", "Infinity", "-Infinity"};
+    for (String number: numbers)
+      assertEquals(number, Double.parseDouble(number), parse(number), 0.0);
+
+    rand = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      value = (rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(20) - 10);
+      assertEquals(Double.parseDouble(Double.toString(value)), parse(Double.toString(value)), 0.0);
+      assertEquals(Double.parseDouble(String.format("%.6f", value)), parse(String.format("%.6f", value)), 0.0);
+    }
+  }
+
+  /**
+   * Invalid numbers must be rejected.
+   */
+  @Test(expected = NumberFormatException.class)
+  public void testParseNumberInvalid() {
+    parse("1.2.3");
+  }
+
+  /**
+   * Invalid exponents must be rejected.
+   */
+  @Test(expected = NumberFormatException.class)
+  public void testParseNumberInvalidExponent() {
+    parse("1e");
+  }
+
+  /**
+   * Tests parsing CSV lines, with whitespace, quotes and missing values.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testParseLineCsv() throws Exception {
+    MappedFileSource	source;
+    InstancesHeader	header;
+    double[]		values;
+
+    source = newSource(write("data.csv", "a,b,class\n1,2,yes\n3,4,\"no\"\n"));
+    source.nominal.setValue("last");
+    header = source.getHeader();
+    assertEquals(3, header.numAttributes());
+    assertEquals(2, header.classIndex());
+    assertEquals(2, header.attribute(2).numValues());
+
+    values = parseLine(source, " 1.5 ,\t-2 , yes \r");
+    assertArrayEquals(new double[]{1.5, -2, header.attribute(2).indexOfValue("yes")}, values, 0.0);
+    values = parseLine(source, "?,,\"no\"");
+    assertTrue(Double.isNaN(values[0]));
+    assertTrue(Double.isNaN(values[1]));
+    assertEquals(header.attribute(2).indexOfValue("no"), values[2], 0.0);
+    assertEquals(null, parseLine(source, "  \r"));
+  }
+
+  /**
+   * Lines with too few values must be rejected.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testParseLineTooFew() throws Exception {
+    MappedFileSource	source;
+
+    source = newSource(write("data.csv", "a,b,c\n1,2,3\n"));
+    source.getHeader();
+    parseLine(source, "1,2");
+  }
+
+  /**
+   * Lines with too many values must be rejected.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testParseLineTooMany() throws Exception {
+    MappedFileSource	source;
+
+    source = newSource(write("data.csv", "a,b,c\n1,2,3\n"));
+    source.getHeader();
+    parseLine(source, "1,2,3,4");
+  }
+
+  /**
+   * Unknown labels must be rejected.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testParseLineUnknownLabel() throws Exception {
+    MappedFileSource	source;
+
+    source = newSource(write("data.csv", "a,class\n1,yes\n"));
+    source.nominal.setValue("last");
+    source.getHeader();
+    parseLine(source, "1,maybe");
+  }
+
+  /**
+   * An ARFF file must result in the same instances as with {@link ArffFileStream},
+   * also when the chunks are smaller than the file.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test
+  public void testArffLikeArffFileStream() throws Exception {
+    StringBuilder				content;
+    File					f;
+    Random					rand;
+    ArffFileStream				stream;
+    List<double[]>				expected;
+    MappedFileSource				source;
+    CollectingSink<Example<Instance>>	sink;
+    List<Example<Instance>>			actual;
+
+    content = new StringBuilder();
+    content.append("% comment\n");
+    content.append("@relation test\n\n");
+    content.append("@attribute num numeric\n");
+    content.append("@attribute 'quoted name' real\n");
+    content.append("@attribute colour {red, 'dark green', blue}\n");
+    content.append("@attribute class {yes,no}\n\n");
+    content.append("@data\n");
+    rand = new Random(1);
+    for (int i = 0; i < 50000; i++) {
+      content.append(rand.nextGaussian()).append(",");
+      content.append((i % 97 == 0) ? "?" : Integer.toString(rand.nextInt(1000))).append(",");
+      content.append(new String[]{"red", "'dark green'", "blue"}[rand.nextInt(3)]).append(",");
+      content.append(rand.nextBoolean() ? "yes" : "no").append("\n");
+      if (i % 1000 == 0)
+	content.append("% comment\n\n");
+    }
+    f = write("data.arff", content.toString());
+
+    stream = new ArffFileStream(f.getAbsolutePath(), -1);
+    stream.prepareForUse();
+    expected = new ArrayList<>();
+    while (stream.hasMoreInstances())
+      expected.add(stream.nextInstance().getData().toDoubleArray());
+
+    source = newSource(f);
+    source.chunkSize.setValue(1);
+    sink = new CollectingSink<>();
+    source.subscribe(sink);
+    source.start();
+    actual = sink.getCollected();
+
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++)
+      assertArrayEquals("instance " + i, expected.get(i), actual.get(i).getData().toDoubleArray(), 0.0);
+    assertEquals(stream.getHeader().numAttributes(), source.getHeader().numAttributes());
+    assertEquals(stream.getHeader().classIndex(), source.getHeader().classIndex());
+    assertFalse(sink.getCompletion().isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * AbstractTransformerTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.transformer;
+
+import moaflow.sink.AbstractSinkTest.RecordingSubscription;
+import moaflow.sink.CollectingSink;
+import moaflow.source.AbstractSourceTest.CountingSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests the functionality of {@link AbstractTransformer}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class AbstractTransformerTest {
+
+  /**
+   * Drops the odd numbers and doubles the even ones.
+   */
+  public static class DoubleEven
+    extends AbstractTransformer<Integer, Integer> {
+
+    /**
+     * Gets the purpose of this object
+     *
+     * @return the string with the purpose of this object
+     */
+    @Override
+    public String getPurposeString() {
+      return "Drops the odd numbers and doubles the even ones.";
+    }
+
+    /**
+     * Transforms the input data.
+     *
+     * @param input the input data
+     * @return the generated output data, null for odd numbers
+     */
+    @Override
+    protected Integer doProcess(Integer input) {
+      if (input % 2 == 1)
+	return null;
+      return input * 2;
+    }
+  }
+
+  /**
+   * Returns the expected output of the {@link DoubleEven} transformer.
+   *
+   * @param count the number of input numbers
+   * @return the output
+   */
+  protected static List<Integer> expected(int count) {
+    List<Integer>	result;
+
+    result = new ArrayList<>();
+    for (int i = 0; i < count; i += 2)
+      result.add(i * 2);
+    return result;
+  }
+
+  /**
+   * With prefetching, the demand must get replenished once half the items
+   * got processed, whether they resulted in output or not.
+   */
+  @Test
+  public void testPrefetch() {
+    DoubleEven			transformer;
+    RecordingSubscription	subscription;
+
+    transformer = new DoubleEven();
+    transformer.prefetch.setValue(6);
+    subscription = new RecordingSubscription();
+    transformer.onSubscribe(subscription);
+    for (int i = 0; i < 6; i++)
+      transformer.onNext(i);
+    assertEquals(Arrays.asList(6L, 3L, 3L), subscription.getRequests());
+    assertFalse(transformer.canFuse());
+
+    transformer = new DoubleEven();
+    subscription = new RecordingSubscription();
+    transformer.onSubscribe(subscription);
+    for (int i = 0; i < 6; i++)
+      transformer.onNext(i);
+    assertEquals(Arrays.asList(Long.MAX_VALUE), subscription.getRequests());
+  }
+
+  /**
+   * With prefetching, all data must pass the chain in order.
+   */
+  @Test(timeout = 60000)
+  public void testPrefetchFlow() {
+    CountingSource		source;
+    DoubleEven			transformer;
+    CollectingSink<Integer>	sink;
+
+    for (int prefetch: new int[]{1, 2, 5, 100}) {
+      source = new CountingSource(10000);
+      source.maxBufferCapacity.setValue(4);
+      transformer = new DoubleEven();
+      transformer.prefetch.setValue(prefetch);
+      transformer.maxBufferCapacity.setValue(4);
+      sink = new CollectingSink<>();
+      sink.prefetch.setValue(prefetch);
+      source.subscribe(transformer);
+      transformer.subscribe(sink);
+      source.start();
+      transformer.getCompletion().join();
+      sink.getCompletion().join();
+      assertEquals(expected(10000), sink.getCollected());
+    }
+  }
+
+  /**
+   * Batches must result in the same data and metrics as handing on the
+   * items individually, also when fusing and adapting the batch size.
+   */
+  @Test(timeout = 60000)
+  public void testBatches() {
+    CountingSource		source;
+    DoubleEven			transformer;
+    CollectingSink<Integer>	sink;
+
+    for (int batchSize: new int[]{1, 2, 16, 1000}) {
+      for (boolean adaptive: new boolean[]{false, true}) {
+	for (boolean fuse: new boolean[]{false, true}) {
+	  source = new CountingSource(10001);
+	  source.batchSize.setValue(batchSize);
+	  source.adaptiveBatchSize.setValue(adaptive);
+	  source.fuse.setValue(fuse);
+	  transformer = new DoubleEven();
+	  transformer.fuse.setValue(fuse);
+	  sink = new CollectingSink<>();
+	  source.subscribe(transformer);
+	  transformer.subscribe(sink);
+	  source.start();
+	  transformer.getCompletion().join();
+	  sink.getCompletion().join();
+	  assertEquals(expected(10001), sink.getCollected());
+	  assertEquals(10001, source.getMetrics().getItemsOut());
+	  assertEquals(10001, transformer.getMetrics().getItemsIn());
+	  assertEquals(5001, transformer.getMetrics().getItemsOut());
+	  assertEquals(5001, sink.getMetrics().getItemsIn());
+	}
+      }
+    }
+  }
+
+  /**
+   * Subscribers that don't support batches must receive the items individually.
+   *
+   * @throws Exception if the test fails
+   */
+  @Test(timeout = 60000)
+  public void testNoBatchSubscriber() throws Exception {
+    CountingSource		source;
+    List<Object>		received;
+    CountDownLatch		completed;
+
+    // a batch would get past the erased item type
+    received  = Collections.synchronizedList(new ArrayList<>());
+    completed = new CountDownLatch(1);
+    source    = new CountingSource(1000);
+    source.batchSize.setValue(16);
+    source.subscribe(new Subscriber<Integer>() {
+      @Override
+      public void onSubscribe(Subscription subscription) {
+	subscription.request(Long.MAX_VALUE);
+      }
+      @Override
+      public void onNext(Integer item) {
+	received.add(item);
+      }
+      @Override
+      public void onError(Throwable throwable) {
+	completed.countDown();
+      }
+      @Override
+      public void onComplete() {
+	completed.countDown();
+      }
+    });
+    source.start();
+    completed.await();
+    assertEquals(1000, received.size());
+    for (int i = 0; i < 1000; i++)
+      assertEquals(i, received.get(i));
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FoldDelayQueueTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.transformer.evaluate;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Example;
+import moa.core.InstanceExample;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link FoldDelayQueue} against a separate queue per fold.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class FoldDelayQueueTest {
+
+  /**
+   * Adds the instances to the folds selected at random and checks that
+   * polling returns the same instances as separate queues would.
+   *
+   * @param numFolds the number of folds
+   * @param delay the delay
+   * @param probability the probability of a fold training on an instance
+   * @param numInstances the number of instances
+   * @return the maximum size of the ring
+   */
+  protected static int check(int numFolds, int delay, double probability, int numInstances) {
+    FoldDelayQueue				queue;
+    List<ArrayDeque<Example<Instance>>>	expected;
+    Random					rand;
+    Example<Instance>				inst;
+    Example<Instance>				polled;
+    int						result;
+
+    queue    = new FoldDelayQueue(numFolds, delay);
+    expected = new ArrayList<>();
+    for (int n = 0; n < numFolds; n++)
+      expected.add(new ArrayDeque<>());
+    rand   = new Random(numFolds + delay);
+    result = 0;
+    for (int i = 0; i < numInstances; i++) {
+      inst = new InstanceExample(new DenseInstance(1.0, new double[]{i}));
+      queue.next();
+      for (int n = 0; n < numFolds; n++) {
+	if (rand.nextDouble() < probability) {
+	  queue.add(n, inst);
+	  expected.get(n).add(inst);
+	}
+	polled = queue.poll(n);
+	if (expected.get(n).size() > delay)
+	  assertSame("fold " + n + ", instance " + i, expected.get(n).poll(), polled);
+	else
+	  assertNull("fold " + n + ", instance " + i, polled);
+	assertEquals(expected.get(n).size(), queue.pending(n));
+      }
+      result = Math.max(result, queue.size());
+    }
+
+    return result;
+  }
+
+  /**
+   * Tests a single word per bitmap.
+   */
+  @Test
+  public void testFewFolds() {
+    check(10, 50, 0.9, 5000);
+  }
+
+  /**
+   * Tests more folds than fit into a single word per bitmap.
+   */
+  @Test
+  public void testManyFolds() {
+    check(64, 20, 0.5, 2000);
+    check(65, 20, 0.5, 2000);
+    check(150, 30, 0.7, 2000);
+  }
+
+  /**
+   * Tests folds that rarely train, which forces the ring to grow.
+   */
+  @Test
+  public void testGrow() {
+    int		max;
+
+    max = check(100, 16, 0.05, 5000);
+    assertTrue("ring should have grown: " + max, max > 32);
+  }
+
+  /**
+   * Without delay, the instances must be returned immediately.
+   */
+  @Test
+  public void testNoDelay() {
+    int		max;
+
+    max = check(70, 0, 0.5, 1000);
+    assertTrue(max <= 1);
+  }
+
+  /**
+   * Instances must get released once all folds trained on them.
+   */
+  @Test
+  public void testRelease() {
+    FoldDelayQueue	queue;
+    Example<Instance>	inst;
+
+    queue = new FoldDelayQueue(100, 2);
+    for (int i = 0; i < 10; i++) {
+      inst = new InstanceExample(new DenseInstance(1.0, new double[]{i}));
+      queue.next();
+      for (int n = 0; n < 100; n++) {
+	queue.add(n, inst);
+	queue.poll(n);
+      }
+      assertEquals(Math.min(i + 1, 2), queue.size());
+    }
+  }
+}
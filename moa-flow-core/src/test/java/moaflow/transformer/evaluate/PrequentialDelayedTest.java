@@ -0,0 +1,104 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PrequentialDelayedTest.java
+ * Copyright (C) 2019 University of Waikato, Hamilton, NZ
+ */
+
+package moaflow.transformer.evaluate;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.classifiers.bayes.NaiveBayes;
+import moa.core.Example;
+import moa.evaluation.BasicClassificationPerformanceEvaluator;
+import moa.streams.generators.RandomRBFGenerator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the training buffer of {@link PrequentialDelayed}.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class PrequentialDelayedTest {
+
+  /**
+   * Evaluates the instances with the scheme.
+   *
+   * @param scheme the scheme to use
+   * @param numInstances the number of instances
+   * @return the instances
+   */
+  protected static List<Example<Instance>> evaluate(PrequentialDelayed scheme, int numInstances) {
+    RandomRBFGenerator				generator;
+    NaiveBayes					learner;
+    BasicClassificationPerformanceEvaluator	evaluator;
+    List<Example<Instance>>			result;
+
+    generator = new RandomRBFGenerator();
+    generator.prepareForUse();
+    learner = new NaiveBayes();
+    learner.prepareForUse();
+    evaluator = new BasicClassificationPerformanceEvaluator();
+    evaluator.prepareForUse();
+    scheme.initialise(learner, evaluator);
+    result = new ArrayList<>();
+    for (int i = 0; i < numInstances; i++) {
+      result.add(generator.nextInstance());
+      scheme.evaluate(result.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * The maximum delay must not allocate the whole buffer upfront.
+   */
+  @Test
+  public void testMaximumDelay() {
+    PrequentialDelayed		scheme;
+    List<Example<Instance>>	instances;
+
+    scheme = new PrequentialDelayed();
+    scheme.delayLengthOption.setValue(Integer.MAX_VALUE);
+    instances = evaluate(scheme, 5000);
+    assertEquals(5000, scheme.trainSize);
+    for (int i = 0; i < 5000; i++)
+      assertSame(instances.get(i), scheme.trainInstances[(scheme.trainHead + i) % scheme.trainInstances.length]);
+  }
+
+  /**
+   * The buffer must keep the most recent instances in order while growing
+   * and wrapping around.
+   */
+  @Test
+  public void testGrow() {
+    PrequentialDelayed		scheme;
+    List<Example<Instance>>	instances;
+
+    scheme = new PrequentialDelayed();
+    scheme.delayLengthOption.setValue(3000);
+    scheme.initialWindowSizeOption.setValue(0);
+    instances = evaluate(scheme, 10000);
+    assertEquals(3000, scheme.trainSize);
+    for (int i = 0; i < 3000; i++)
+      assertSame(instances.get(7000 + i), scheme.trainInstances[(scheme.trainHead + i) % scheme.trainInstances.length]);
+  }
+}
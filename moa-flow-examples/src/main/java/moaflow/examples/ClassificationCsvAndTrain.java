@@ -20,6 +20,7 @@
 
 package moaflow.examples;
 
+import moaflow.core.FlowRunner;
 import moaflow.core.Utils;
 import moaflow.sink.Console;
 import moaflow.sink.MeasurementsToCSV;
@@ -68,6 +69,8 @@ public class ClassificationCsvAndTrain {
 
     System.out.println(Utils.toTree(source));
 
-    source.start();
+    FlowRunner runner = new FlowRunner(source);
+    runner.run();
+    System.out.println(runner.getStatistics());
   }
 }
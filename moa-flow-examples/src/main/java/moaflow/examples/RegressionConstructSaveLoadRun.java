@@ -20,13 +20,13 @@
 
 package moaflow.examples;
 
+import moaflow.core.FlowRunner;
 import moaflow.core.Operator;
 import moaflow.core.Utils;
 import moaflow.io.DefaultFlowReader;
 import moaflow.io.DefaultFlowWriter;
 import moaflow.sink.Console;
 import moaflow.sink.MeasurementsToCSV;
-import moaflow.source.AbstractSource;
 import moaflow.source.InstanceSource;
 import moaflow.transformer.EvaluateRegressor;
 import moaflow.transformer.InstanceFilter;
@@ -80,7 +80,8 @@ public class RegressionConstructSaveLoadRun {
     System.out.println(Utils.toTree(flow));
 
     System.out.println("Executing flow");
-    if (flow instanceof AbstractSource)
-      ((AbstractSource) flow).start();
+    FlowRunner runner = new FlowRunner(flow);
+    runner.run();
+    System.out.println(runner.getStatistics());
   }
 }